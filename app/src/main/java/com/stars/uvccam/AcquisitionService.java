@@ -0,0 +1,517 @@
+package com.stars.uvccam;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.hardware.usb.UsbDevice;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.core.app.NotificationChannelCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+
+import com.serenegiant.usb.Size;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * 采集前台服务
+ * 持有相机、超声传感器和触发器管理器，界面退到后台或重建时继续开流和拍照，不再随界面关闭整条采集链路。
+ * 界面绑定服务获取管理器，只负责预览显示和参数控制；服务启动后在界面解绑后继续运行，直到调用 stop
+ */
+public class AcquisitionService extends Service {
+    private static final String TAG = "AcquisitionService";
+
+    // 界面解绑后保持相机打开的默认时间
+    public static final long DEFAULT_RETENTION_MS = 15000;
+    // 仅为在宽限期内保持运行而启动自身，不转为前台服务
+    private static final String ACTION_RETAIN = "com.stars.uvccam.action.RETAIN";
+
+    private static final String CHANNEL_ID = "acquisition";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long DEVICE_MONITOR_INTERVAL_MS = 5000;
+
+    // 启动任务名称
+    private static final String TASK_SERIAL_DISCOVERY = "serial_discovery";
+    private static final String TASK_SERIAL_ATTACH = "serial_attach";
+    private static final String TASK_ULTRASONIC_START = "ultrasonic_start";
+    private static final String TASK_CAMERA_INIT = "camera_init";
+    private static final String TASK_CAMERA_POOL = "camera_pool";
+    private static final String TASK_CONFIG_LOAD = "config_load";
+    private static final String TASK_CONFIG_APPLY = "config_apply";
+
+    /**
+     * 距离数据监听，在超声传感器的读取线程回调
+     */
+    public interface DistanceListener {
+        void onDistanceReceived(int distance);
+    }
+
+    public class LocalBinder extends Binder {
+        public AcquisitionService getService() {
+            return AcquisitionService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // 管理器，只在主线程创建和释放
+    private CameraManager mCameraManager;
+    private UltrasonicSerialManager mUltrasonicManager;
+    private TriggerSerialManager mTriggerManager;
+    // 连接多台相机时创建，触发器每次触发同步拍下所有相机
+    private CameraPool mCameraPool;
+    private StartupOrchestrator mStartupPipeline;
+    private boolean mForeground = false;
+    private boolean mStarted = false;
+    // 界面已退出，宽限期结束后停止服务
+    private boolean mStopRequested = false;
+    private long mRetentionMs = DEFAULT_RETENTION_MS;
+    private final Runnable mRetentionTimeout = this::onRetentionTimeout;
+
+    private volatile String mUltrasonicPath;
+    private volatile String mTriggerPath;
+    private volatile Size mSavedPreviewSize;
+    private volatile int mCurrentDistance = -1;
+    private volatile DistanceListener mDistanceListener;
+
+    /**
+     * 启动服务；Android 14 起相机类型的前台服务需要已授予相机权限，未授予时只能绑定运行
+     */
+    public static boolean start(Context context) {
+        if (!canStartForeground(context)) {
+            Log.w(TAG, "未授予相机权限，无法以前台服务运行");
+            return false;
+        }
+
+        ContextCompat.startForegroundService(context, new Intent(context, AcquisitionService.class));
+        return true;
+    }
+
+    /**
+     * 停止服务，所有界面解绑后释放相机和串口
+     */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, AcquisitionService.class));
+    }
+
+    public static boolean canStartForeground(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE
+                || context.checkSelfPermission(Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(TAG, "采集服务已创建");
+
+        mCameraManager = new CameraManager(this);
+        startStartupPipeline();
+        startDeviceMonitoring();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mStarted = true;
+        if (intent != null && ACTION_RETAIN.equals(intent.getAction())) {
+            return START_NOT_STICKY;
+        }
+
+        startForegroundIfNeeded();
+        // 进程被回收后由系统重新创建，继续无界面采集
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        cancelRetention();
+        return mBinder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        cancelRetention();
+    }
+
+    // 最后一个界面解绑
+    @Override
+    public boolean onUnbind(Intent intent) {
+        // 前台运行且界面未退出时继续无界面采集，否则相机只保持到宽限期结束
+        if (mStopRequested || !mForeground) {
+            scheduleRetention();
+        }
+        return true;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 系统内存不足时先释放空闲的帧缓冲，避免进程被杀死；界面隐藏不代表内存不足
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            Log.w(TAG, "系统内存不足(" + level + ")，释放空闲帧缓冲");
+            FrameMemoryManager.trimIdle();
+            Log.i(TAG, FrameMemoryManager.getReport());
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "采集服务已停止");
+        mMainHandler.removeCallbacks(mRetentionTimeout);
+        if (mStartupPipeline != null) {
+            mStartupPipeline.cancel();
+            mStartupPipeline = null;
+        }
+        stopDeviceMonitoring();
+        ConfigManager.flush();
+
+        if (mCameraManager != null) {
+            mCameraManager.destroy();
+            mCameraManager = null;
+        }
+        if (mUltrasonicManager != null) {
+            mUltrasonicManager.destroy();
+            mUltrasonicManager = null;
+        }
+        if (mTriggerManager != null) {
+            mTriggerManager.destroy();
+            mTriggerManager = null;
+        }
+        if (mCameraPool != null) {
+            mCameraPool.destroy();
+            mCameraPool = null;
+        }
+        if (mForeground) {
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+            mForeground = false;
+        }
+        super.onDestroy();
+    }
+
+    public CameraManager getCameraManager() {
+        return mCameraManager;
+    }
+
+    /**
+     * 超声传感器管理器，未找到设备时为null
+     */
+    public UltrasonicSerialManager getUltrasonicManager() {
+        return mUltrasonicManager;
+    }
+
+    /**
+     * 触发器管理器，未找到设备时为null
+     */
+    public TriggerSerialManager getTriggerManager() {
+        return mTriggerManager;
+    }
+
+    public int getCurrentDistance() {
+        return mCurrentDistance;
+    }
+
+    public void setDistanceListener(DistanceListener listener) {
+        mDistanceListener = listener;
+    }
+
+    /**
+     * 界面退出时调用：所有界面解绑并经过宽限期后停止服务，宽限期内重新绑定则继续使用已打开的相机
+     */
+    public void requestStop() {
+        mStopRequested = true;
+    }
+
+    /**
+     * 设置界面解绑后保持相机打开的时间，小于等于0时立即释放
+     */
+    public void setRetentionPeriod(long retentionMs) {
+        mRetentionMs = retentionMs;
+    }
+
+    // ==================== 宽限期 ====================
+
+    private void scheduleRetention() {
+        long retention = mRetentionMs;
+        if (retention <= 0) {
+            stopSelf();
+            return;
+        }
+
+        if (!mStarted) {
+            // 仅绑定运行时最后一个界面解绑后服务立即销毁，以普通服务启动自身，保持到宽限期结束
+            try {
+                startService(new Intent(this, AcquisitionService.class).setAction(ACTION_RETAIN));
+            } catch (IllegalStateException e) {
+                // Android 8 起应用在后台时不能启动服务，相机随服务一起释放
+                Log.w(TAG, "无法在宽限期内保持相机: " + e.getMessage());
+                return;
+            }
+        }
+
+        Log.d(TAG, "界面已解绑，相机保持 " + retention + "ms");
+        mMainHandler.removeCallbacks(mRetentionTimeout);
+        mMainHandler.postDelayed(mRetentionTimeout, retention);
+    }
+
+    private void cancelRetention() {
+        mStopRequested = false;
+        mMainHandler.removeCallbacks(mRetentionTimeout);
+    }
+
+    private void onRetentionTimeout() {
+        Log.d(TAG, "宽限期内界面未返回，释放相机");
+        stopSelf();
+    }
+
+    // ==================== 前台通知 ====================
+
+    private void startForegroundIfNeeded() {
+        if (mForeground) {
+            return;
+        }
+
+        Notification notification = buildNotification();
+        try {
+            // 前台服务类型在Android 10以下被忽略
+            ServiceCompat.startForeground(this, NOTIFICATION_ID, notification,
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA);
+            mForeground = true;
+        } catch (SecurityException e) {
+            // 启动前已检查权限，这里只在权限被撤销时发生
+            Log.e(TAG, "无法以前台服务运行", e);
+            stopSelf();
+        }
+    }
+
+    private Notification buildNotification() {
+        // Android 8.0以下没有通知渠道，兼容库不创建
+        NotificationManagerCompat.from(this).createNotificationChannel(
+                new NotificationChannelCompat.Builder(CHANNEL_ID, NotificationManagerCompat.IMPORTANCE_LOW)
+                        .setName("采集服务")
+                        .build());
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID);
+
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        return builder.setContentTitle(getString(R.string.app_name))
+                .setContentText("正在采集")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setContentIntent(contentIntent)
+                .build();
+    }
+
+    // ==================== 启动流程 ====================
+
+    // 启动流程：串口发现、配置加载与相机初始化并行执行
+    private void startStartupPipeline() {
+        mStartupPipeline = new StartupOrchestrator("冷启动");
+
+        mStartupPipeline.addTask(TASK_SERIAL_DISCOVERY, this::discoverSerialDevices);
+        mStartupPipeline.addMainThreadTask(TASK_SERIAL_ATTACH, this::initSerialManagers,
+                TASK_SERIAL_DISCOVERY);
+        mStartupPipeline.addMainThreadTask(TASK_ULTRASONIC_START, this::startUltrasonic,
+                TASK_SERIAL_ATTACH);
+
+        mStartupPipeline.addMainThreadTask(TASK_CAMERA_INIT, () -> mCameraManager.initialize());
+        mStartupPipeline.addMainThreadTask(TASK_CAMERA_POOL, this::setupCameraPool,
+                TASK_CAMERA_INIT, TASK_SERIAL_ATTACH);
+        mStartupPipeline.addTask(TASK_CONFIG_LOAD, this::loadSavedPreviewSize);
+        mStartupPipeline.addMainThreadTask(TASK_CONFIG_APPLY, this::applySavedPreviewSize,
+                TASK_CONFIG_LOAD);
+
+        mStartupPipeline.setListener(new StartupOrchestrator.Listener() {
+            @Override
+            public void onTaskFinished(String name, long durationMs, Throwable error) {
+                // 单个任务的耗时已由编排器记录
+            }
+
+            @Override
+            public void onAllFinished(long totalMs) {
+                Log.i(TAG, StartupTrace.getReport());
+            }
+        });
+        mStartupPipeline.start();
+    }
+
+    // 后台线程：扫描串口设备
+    private void discoverSerialDevices() {
+        mUltrasonicPath = UsbDeviceDetector.findUltrasonicDevice();
+        mTriggerPath = UsbDeviceDetector.findTriggerDevice();
+
+        if (mUltrasonicPath == null || mTriggerPath == null) {
+            Log.e(TAG, UsbDeviceDetector.getDeviceStatusReport());
+        }
+    }
+
+    // 后台线程：根据已连接相机的标识加载保存的预览参数，未取得权限时读取同型号的配置
+    private void loadSavedPreviewSize() {
+        mSavedPreviewSize = null;
+
+        UsbDevice device = UsbDeviceDetector.findCameraDevice(this);
+        if (device == null) {
+            return;
+        }
+
+        CameraConfig config = ConfigManager.loadConfig(this, CameraIdentity.of(device));
+        if (config != null) {
+            mSavedPreviewSize = config.getPreviewSize();
+        }
+    }
+
+    private void applySavedPreviewSize() {
+        Size savedSize = mSavedPreviewSize;
+        if (savedSize == null || mCameraManager == null || mCameraManager.isCameraOpened()) {
+            return;
+        }
+
+        mCameraManager.setDefaultPreviewSize(savedSize);
+    }
+
+    // 连接了多台相机且有触发器时，主相机与其他相机组成相机池，每次触发同步拍下所有相机；
+    // 只在启动时检查，之后接入的相机需要重新启动服务
+    private void setupCameraPool() {
+        List<UsbDevice> devices = UsbDeviceDetector.findCameraDevices(this);
+        TriggerSerialManager triggerManager = mTriggerManager;
+        if (devices.size() < 2 || triggerManager == null) {
+            return;
+        }
+
+        // 主相机已打开时保持打开的设备，否则绑定第一台
+        CameraIdentity primary = mCameraManager.getCurrentIdentity();
+        if (primary == null) {
+            primary = CameraIdentity.of(devices.get(0));
+        }
+        CameraPool pool = new CameraPool(this);
+        pool.adoptCamera(mCameraManager, primary);
+        int added = pool.addConnectedCameras();
+        mCameraPool = pool;
+        Log.i(TAG, "多相机同步拍照: " + (added + 1) + " 台相机");
+
+        triggerManager.setOnTriggerSendListener(new TriggerSerialManager.OnTriggerSendListener() {
+            @Override
+            public void onDataSent(String data) {
+                // 触发器的发送线程，以发送完成的时刻作为触发时刻
+                CompletionFuture<List<File>> future = pool.captureAll();
+                future.addListener(() -> {
+                    Throwable error = future.getError();
+                    if (error != null) {
+                        Log.e(TAG, "同步拍照失败", error);
+                    }
+                }, Runnable::run);
+            }
+
+            @Override
+            public void onError(String error) {
+                mMainHandler.post(() -> Toast.makeText(AcquisitionService.this,
+                        "触发器错误: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private void startUltrasonic() {
+        if (mUltrasonicManager != null) {
+            mUltrasonicManager.start();
+        }
+    }
+
+    private void initSerialManagers() {
+        String ultrasonicPath = mUltrasonicPath;
+        String triggerPath = mTriggerPath;
+
+        if (ultrasonicPath == null) {
+            Toast.makeText(this, "未找到超声传感器设备", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        if (triggerPath == null) {
+            Toast.makeText(this, "未找到触发器设备", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // 使用检测到的路径初始化
+        mUltrasonicManager = new UltrasonicSerialManager(ultrasonicPath, 9600);
+        mTriggerManager = new TriggerSerialManager(triggerPath, 115200);
+
+        Log.i(TAG, "设备路径自动配置:");
+        Log.i(TAG, "超声传感器: " + ultrasonicPath);
+        Log.i(TAG, "触发器: " + triggerPath);
+        mUltrasonicManager.setOnDistanceDataListener(new UltrasonicSerialManager.OnDistanceDataListener() {
+            @Override
+            public void onDistanceReceived(int distance) {
+                StartupTrace.mark(StartupTrace.FIRST_DISTANCE);
+                mCurrentDistance = distance;
+                // 按距离分段切换曝光预设，只在分段变化时提交控制写入
+                CameraManager cameraManager = mCameraManager;
+                if (cameraManager != null) {
+                    cameraManager.onDistance(distance);
+                }
+                DistanceListener listener = mDistanceListener;
+                if (listener != null) {
+                    listener.onDistanceReceived(distance);
+                }
+            }
+
+            @Override
+            public void onInvalidFrame(String frameHex, String error) {
+                // 可以选择显示错误信息
+            }
+
+            @Override
+            public void onError(String error) {
+                mMainHandler.post(() -> Toast.makeText(AcquisitionService.this,
+                        "超声传感器错误: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    // ==================== 设备监控 ====================
+
+    private final Runnable mDeviceMonitor = new Runnable() {
+        @Override
+        public void run() {
+            if (mUltrasonicManager != null &&
+                    !UsbDeviceDetector.isDeviceConnected(mUltrasonicManager.getDevicePath())) {
+                Toast.makeText(AcquisitionService.this, "超声传感器设备断开连接", Toast.LENGTH_SHORT).show();
+                mUltrasonicManager.stop();
+            }
+
+            if (mTriggerManager != null &&
+                    !UsbDeviceDetector.isDeviceConnected(mTriggerManager.getDevicePath())) {
+                Toast.makeText(AcquisitionService.this, "触发器设备断开连接", Toast.LENGTH_SHORT).show();
+                mTriggerManager.stop();
+            }
+
+            // 继续监控
+            mMainHandler.postDelayed(this, DEVICE_MONITOR_INTERVAL_MS);
+        }
+    };
+
+    private void startDeviceMonitoring() {
+        mMainHandler.postDelayed(mDeviceMonitor, DEVICE_MONITOR_INTERVAL_MS);
+    }
+
+    private void stopDeviceMonitoring() {
+        mMainHandler.removeCallbacks(mDeviceMonitor);
+    }
+}
@@ -0,0 +1,428 @@
+package com.stars.uvccam;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.serenegiant.usb.Format;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 相机支持模式索引
+ * 由UVC格式描述符构建一次，之后不可修改；每个模式(格式、宽、高、帧率)打包为一个long，
+ * 查询使用排序数组二分查找。索引按VID/PID缓存到内存和文件，再次打开同型号相机时无需解析描述符
+ */
+public final class CameraCapabilities {
+    private static final String TAG = "CameraCapabilities";
+    private static final String CAPS_DIR = "camera_caps";
+    private static final int CAPS_VERSION = 1;
+
+    // 内存缓存，键为 (vendorId << 16) | productId
+    private static final HashMap<Integer, CameraCapabilities> sCache = new HashMap<>();
+
+    // 按描述符顺序排列的模式，用于界面展示和默认选择
+    private final long[] mOrderedModes;
+    // 排序后的模式，用于二分查找
+    private final long[] mSortedModes;
+    // 按描述符顺序出现的帧格式
+    private final int[] mFormats;
+    // 格式 -> 分辨率列表(打包为 width << 16 | height)
+    private final int[] mResolutionKeys;
+    private final int[][] mResolutions;
+    // (格式, 分辨率) -> 帧率列表
+    private final long[] mFrameRateKeys;
+    private final int[][] mFrameRates;
+
+    private CameraCapabilities(long[] orderedModes) {
+        mOrderedModes = orderedModes;
+        mSortedModes = orderedModes.clone();
+        Arrays.sort(mSortedModes);
+
+        // 按描述符顺序去重，生成格式、分辨率和帧率列表
+        int[] formats = new int[orderedModes.length];
+        int formatCount = 0;
+        int[] resolutionKeys = new int[orderedModes.length];
+        int[][] resolutions = new int[orderedModes.length][];
+        int resolutionKeyCount = 0;
+        long[] frameRateKeys = new long[orderedModes.length];
+        int[][] frameRates = new int[orderedModes.length][];
+        int frameRateKeyCount = 0;
+
+        for (long mode : orderedModes) {
+            int format = formatOf(mode);
+            int resolution = resolutionOf(mode);
+            long frameRateKey = frameRateKey(format, resolution);
+
+            int formatIndex = indexOf(formats, formatCount, format);
+            if (formatIndex < 0) {
+                formats[formatCount++] = format;
+                resolutionKeys[resolutionKeyCount] = format;
+                resolutions[resolutionKeyCount++] = new int[0];
+                formatIndex = formatCount - 1;
+            }
+
+            int[] formatResolutions = resolutions[formatIndex];
+            if (indexOf(formatResolutions, formatResolutions.length, resolution) < 0) {
+                formatResolutions = Arrays.copyOf(formatResolutions, formatResolutions.length + 1);
+                formatResolutions[formatResolutions.length - 1] = resolution;
+                resolutions[formatIndex] = formatResolutions;
+            }
+
+            int keyIndex = indexOf(frameRateKeys, frameRateKeyCount, frameRateKey);
+            if (keyIndex < 0) {
+                frameRateKeys[frameRateKeyCount] = frameRateKey;
+                frameRates[frameRateKeyCount++] = new int[0];
+                keyIndex = frameRateKeyCount - 1;
+            }
+
+            int[] rates = frameRates[keyIndex];
+            if (indexOf(rates, rates.length, fpsOf(mode)) < 0) {
+                rates = Arrays.copyOf(rates, rates.length + 1);
+                rates[rates.length - 1] = fpsOf(mode);
+                frameRates[keyIndex] = rates;
+            }
+        }
+
+        mFormats = Arrays.copyOf(formats, formatCount);
+        mResolutionKeys = Arrays.copyOf(resolutionKeys, resolutionKeyCount);
+        mResolutions = Arrays.copyOf(resolutions, resolutionKeyCount);
+
+        // 帧率表按键排序，查询时二分查找
+        long[] sortedKeys = Arrays.copyOf(frameRateKeys, frameRateKeyCount);
+        Arrays.sort(sortedKeys);
+        int[][] sortedRates = new int[frameRateKeyCount][];
+        for (int i = 0; i < frameRateKeyCount; i++) {
+            sortedRates[Arrays.binarySearch(sortedKeys, frameRateKeys[i])] = frameRates[i];
+        }
+        mFrameRateKeys = sortedKeys;
+        mFrameRates = sortedRates;
+    }
+
+    // ==================== 模式打包 ====================
+
+    /**
+     * 将模式打包为long: 格式(16位) | 宽(16位) | 高(16位) | 帧率(16位)
+     */
+    public static long mode(int format, int width, int height, int fps) {
+        return ((long) (format & 0xFFFF) << 48) | ((long) (width & 0xFFFF) << 32)
+                | ((long) (height & 0xFFFF) << 16) | (fps & 0xFFFF);
+    }
+
+    public static long mode(Size size) {
+        return mode(size.type, size.width, size.height, size.fps);
+    }
+
+    public static int formatOf(long mode) {
+        return (int) (mode >>> 48) & 0xFFFF;
+    }
+
+    public static int widthOf(long mode) {
+        return (int) (mode >>> 32) & 0xFFFF;
+    }
+
+    public static int heightOf(long mode) {
+        return (int) (mode >>> 16) & 0xFFFF;
+    }
+
+    public static int fpsOf(long mode) {
+        return (int) mode & 0xFFFF;
+    }
+
+    /**
+     * 分辨率打包为int: width << 16 | height
+     */
+    public static int resolution(int width, int height) {
+        return ((width & 0xFFFF) << 16) | (height & 0xFFFF);
+    }
+
+    public static int resolutionOf(long mode) {
+        return resolution(widthOf(mode), heightOf(mode));
+    }
+
+    public static int resolutionWidth(int resolution) {
+        return resolution >>> 16;
+    }
+
+    public static int resolutionHeight(int resolution) {
+        return resolution & 0xFFFF;
+    }
+
+    public static Size toSize(long mode) {
+        return new Size(formatOf(mode), widthOf(mode), heightOf(mode), fpsOf(mode), null);
+    }
+
+    private static long frameRateKey(int format, int resolution) {
+        return ((long) format << 32) | (resolution & 0xFFFFFFFFL);
+    }
+
+    private static int indexOf(int[] array, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(long[] array, int count, long value) {
+        for (int i = 0; i < count; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    // ==================== 查询 ====================
+
+    public boolean isSupported(long mode) {
+        return Arrays.binarySearch(mSortedModes, mode) >= 0;
+    }
+
+    public boolean isSupported(Size size) {
+        return size != null && isSupported(mode(size));
+    }
+
+    public boolean isEmpty() {
+        return mOrderedModes.length == 0;
+    }
+
+    /**
+     * 按描述符顺序返回所有模式
+     */
+    public long[] getModes() {
+        return mOrderedModes.clone();
+    }
+
+    /**
+     * 按描述符顺序返回支持的帧格式
+     */
+    public int[] getFormats() {
+        return mFormats.clone();
+    }
+
+    /**
+     * 返回指定格式支持的分辨率(打包值)，按描述符顺序
+     */
+    public int[] getResolutions(int format) {
+        int index = indexOf(mResolutionKeys, mResolutionKeys.length, format);
+        return index >= 0 ? mResolutions[index].clone() : new int[0];
+    }
+
+    /**
+     * 返回指定格式和分辨率支持的帧率，按描述符顺序
+     */
+    public int[] getFrameRates(int format, int width, int height) {
+        int index = Arrays.binarySearch(mFrameRateKeys, frameRateKey(format, resolution(width, height)));
+        return index >= 0 ? mFrameRates[index].clone() : new int[0];
+    }
+
+    /**
+     * 返回指定格式的第一组模式，不支持该格式时返回-1
+     */
+    public long getFirstMode(int format) {
+        for (long mode : mOrderedModes) {
+            if (formatOf(mode) == format) {
+                return mode;
+            }
+        }
+        return -1;
+    }
+
+    // ==================== 构建 ====================
+
+    /**
+     * 由模式列表构建索引，模式按给定顺序排列
+     */
+    static CameraCapabilities of(long... modes) {
+        return new CameraCapabilities(modes.clone());
+    }
+
+    /**
+     * 由UVC格式描述符构建索引，只保留MJPEG和YUV格式
+     */
+    public static CameraCapabilities fromFormats(List<Format> supportedFormats) {
+        long[] modes = new long[16];
+        int count = 0;
+
+        if (supportedFormats != null) {
+            for (Format format : supportedFormats) {
+                int type;
+                if (format.type == UVCCamera.UVC_VS_FORMAT_MJPEG) {
+                    type = UVCCamera.UVC_VS_FRAME_MJPEG;
+                } else if (format.type == UVCCamera.UVC_VS_FORMAT_UNCOMPRESSED) {
+                    type = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
+                } else {
+                    continue;  // 跳过不支持的格式类型
+                }
+
+                for (Format.Descriptor descriptor : format.frameDescriptors) {
+                    for (Format.Interval interval : descriptor.intervals) {
+                        long mode = mode(type, descriptor.width, descriptor.height, interval.fps);
+                        if (indexOf(modes, count, mode) >= 0) {
+                            continue;
+                        }
+                        if (count == modes.length) {
+                            modes = Arrays.copyOf(modes, count * 2);
+                        }
+                        modes[count++] = mode;
+                    }
+                }
+            }
+        }
+
+        return new CameraCapabilities(Arrays.copyOf(modes, count));
+    }
+
+    /**
+     * 获取设备的模式索引：内存缓存 -> 文件缓存 -> 解析描述符
+     * 解析描述符的结果会写入缓存，formatsProvider 只在两级缓存都未命中时调用
+     */
+    public static CameraCapabilities get(Context context, int vendorId, int productId,
+                                         FormatsProvider formatsProvider) {
+        int key = (vendorId << 16) | (productId & 0xFFFF);
+        synchronized (sCache) {
+            CameraCapabilities cached = sCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        CameraCapabilities capabilities = load(context, vendorId, productId);
+        if (capabilities == null) {
+            capabilities = fromFormats(formatsProvider.getSupportedFormats());
+            if (!capabilities.isEmpty()) {
+                save(context, vendorId, productId, capabilities);
+            }
+            Log.d(TAG, "已解析格式描述符，模式数量: " + capabilities.mOrderedModes.length);
+        }
+
+        if (!capabilities.isEmpty()) {
+            synchronized (sCache) {
+                sCache.put(key, capabilities);
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * 仅查询缓存，不解析描述符，未缓存时返回null
+     */
+    public static CameraCapabilities getCached(Context context, int vendorId, int productId) {
+        int key = (vendorId << 16) | (productId & 0xFFFF);
+        synchronized (sCache) {
+            CameraCapabilities cached = sCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        CameraCapabilities capabilities = load(context, vendorId, productId);
+        if (capabilities != null) {
+            synchronized (sCache) {
+                sCache.put(key, capabilities);
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * 清除设备的缓存，下次打开时重新解析描述符
+     */
+    public static void invalidate(Context context, int vendorId, int productId) {
+        int key = (vendorId << 16) | (productId & 0xFFFF);
+        synchronized (sCache) {
+            sCache.remove(key);
+        }
+        if (context != null) {
+            File file = new File(new File(context.getFilesDir(), CAPS_DIR), getCapsFilename(vendorId, productId));
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "删除模式缓存失败: " + file.getName());
+            }
+        }
+    }
+
+    public interface FormatsProvider {
+        List<Format> getSupportedFormats();
+    }
+
+    // ==================== 持久化 ====================
+
+    private static void save(Context context, int vendorId, int productId, CameraCapabilities capabilities) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            JSONArray modes = new JSONArray();
+            for (long mode : capabilities.mOrderedModes) {
+                modes.put(mode);
+            }
+            JSONObject json = new JSONObject();
+            json.put("version", CAPS_VERSION);
+            json.put("modes", modes);
+
+            File capsFile = new File(new File(context.getFilesDir(), CAPS_DIR), getCapsFilename(vendorId, productId));
+            if (!ConfigManager.writeFileAtomically(capsFile, json.toString())) {
+                Log.e(TAG, "保存模式缓存失败: " + capsFile.getName());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "保存模式缓存失败", e);
+        }
+    }
+
+    private static CameraCapabilities load(Context context, int vendorId, int productId) {
+        if (context == null) {
+            return null;
+        }
+
+        File capsFile = new File(new File(context.getFilesDir(), CAPS_DIR), getCapsFilename(vendorId, productId));
+        if (!capsFile.exists()) {
+            return null;
+        }
+
+        try (FileInputStream fis = new FileInputStream(capsFile);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(fis))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line);
+            }
+
+            JSONObject json = new JSONObject(sb.toString());
+            if (json.optInt("version", 0) != CAPS_VERSION) {
+                return null;
+            }
+
+            JSONArray array = json.getJSONArray("modes");
+            long[] modes = new long[array.length()];
+            for (int i = 0; i < modes.length; i++) {
+                modes[i] = array.optLong(i);
+            }
+            if (modes.length == 0) {
+                return null;
+            }
+            return new CameraCapabilities(modes);
+        } catch (IOException | JSONException e) {
+            // 旧版本写入中断留下的不完整文件，删除后重新解析描述符
+            Log.e(TAG, "加载模式缓存失败，删除后重建: " + capsFile.getName(), e);
+            if (!capsFile.delete()) {
+                Log.w(TAG, "删除模式缓存失败: " + capsFile.getName());
+            }
+            return null;
+        }
+    }
+
+    private static String getCapsFilename(int vendorId, int productId) {
+        return String.format("caps_%04x_%04x.json", vendorId, productId);
+    }
+}
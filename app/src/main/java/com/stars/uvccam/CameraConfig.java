@@ -0,0 +1,341 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * 相机配置
+ * 不可修改，修改配置时通过 toBuilder() 复制后只改变需要的字段
+ */
+public final class CameraConfig {
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFps;
+    private final int mExposure;
+    private final int mGain;
+    private final int mTriggerPeriod;
+    private final String mSerial1;
+    private final String mSerial2;
+    private final boolean mAutoExposure;
+    private final boolean mColorMode;
+    // 距离分段曝光预设，每4个元素为一段 {最小距离, 最大距离, 曝光时间, 增益}，没有预设时为空数组
+    private final int[] mDistanceBands;
+    private final int mDistanceHysteresis;
+
+    private CameraConfig(Builder builder) {
+        mFormat = builder.mFormat;
+        mWidth = builder.mWidth;
+        mHeight = builder.mHeight;
+        mFps = builder.mFps;
+        mExposure = builder.mExposure;
+        mGain = builder.mGain;
+        mTriggerPeriod = builder.mTriggerPeriod;
+        mSerial1 = builder.mSerial1 != null ? builder.mSerial1 : "";
+        mSerial2 = builder.mSerial2 != null ? builder.mSerial2 : "";
+        mAutoExposure = builder.mAutoExposure;
+        mColorMode = builder.mColorMode;
+        mDistanceBands = builder.mDistanceBands;
+        mDistanceHysteresis = builder.mDistanceHysteresis;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFps() {
+        return mFps;
+    }
+
+    public int getExposure() {
+        return mExposure;
+    }
+
+    public int getGain() {
+        return mGain;
+    }
+
+    public int getTriggerPeriod() {
+        return mTriggerPeriod;
+    }
+
+    public String getSerial1() {
+        return mSerial1;
+    }
+
+    public String getSerial2() {
+        return mSerial2;
+    }
+
+    public boolean isAutoExposure() {
+        return mAutoExposure;
+    }
+
+    public boolean isColorMode() {
+        return mColorMode;
+    }
+
+    public boolean hasDistanceBands() {
+        return mDistanceBands.length > 0;
+    }
+
+    /**
+     * 距离分段曝光预设的副本，每4个元素为一段 {最小距离, 最大距离, 曝光时间, 增益}
+     */
+    public int[] getDistanceBands() {
+        return mDistanceBands.clone();
+    }
+
+    public int getDistanceHysteresis() {
+        return mDistanceHysteresis;
+    }
+
+    /**
+     * 返回新的预览参数对象，调用方可以修改
+     */
+    public Size getPreviewSize() {
+        return new Size(mFormat, mWidth, mHeight, mFps, null);
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    // ==================== 序列化 ====================
+
+    /**
+     * 序列化为JSON，字段名与旧版配置文件一致；直接拼接字符串，不创建中间对象
+     */
+    public String toJson(int version) {
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("{\"version\":").append(version)
+                .append(",\"format\":").append(mFormat)
+                .append(",\"width\":").append(mWidth)
+                .append(",\"height\":").append(mHeight)
+                .append(",\"fps\":").append(mFps)
+                .append(",\"exposure\":").append(mExposure)
+                .append(",\"gain\":").append(mGain)
+                .append(",\"triggerPeriod\":").append(mTriggerPeriod)
+                .append(",\"serial1\":").append(JSONObject.quote(mSerial1))
+                .append(",\"serial2\":").append(JSONObject.quote(mSerial2))
+                .append(",\"isAutoExposure\":").append(mAutoExposure ? 1 : 0)
+                .append(",\"isColorMode\":").append(mColorMode ? 1 : 0);
+        if (mDistanceBands.length > 0) {
+            sb.append(",\"distanceHysteresis\":").append(mDistanceHysteresis)
+                    .append(",\"distanceBands\":[");
+            for (int i = 0; i < mDistanceBands.length; i += 4) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append('[').append(mDistanceBands[i]).append(',').append(mDistanceBands[i + 1])
+                        .append(',').append(mDistanceBands[i + 2]).append(',').append(mDistanceBands[i + 3])
+                        .append(']');
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 从JSON读取配置，缺少的字段使用默认值；格式不完整的距离分段被忽略
+     */
+    public static CameraConfig fromJson(JSONObject json) {
+        Builder defaults = new Builder();
+        int[] bands = new int[0];
+        JSONArray bandArray = json.optJSONArray("distanceBands");
+        if (bandArray != null) {
+            int count = 0;
+            bands = new int[bandArray.length() * 4];
+            for (int i = 0; i < bandArray.length(); i++) {
+                JSONArray band = bandArray.optJSONArray(i);
+                if (band == null || band.length() != 4) {
+                    continue;
+                }
+                for (int j = 0; j < 4; j++) {
+                    bands[count++] = band.optInt(j);
+                }
+            }
+            bands = Arrays.copyOf(bands, count);
+        }
+        return new Builder()
+                .setDistanceBands(bands)
+                .setDistanceHysteresis(json.optInt("distanceHysteresis", defaults.mDistanceHysteresis))
+                .setFormat(json.optInt("format", defaults.mFormat))
+                .setWidth(json.optInt("width", defaults.mWidth))
+                .setHeight(json.optInt("height", defaults.mHeight))
+                .setFps(json.optInt("fps", defaults.mFps))
+                .setExposure(json.optInt("exposure", defaults.mExposure))
+                .setGain(json.optInt("gain", defaults.mGain))
+                .setTriggerPeriod(json.optInt("triggerPeriod", defaults.mTriggerPeriod))
+                .setSerial1(json.optString("serial1", ""))
+                .setSerial2(json.optString("serial2", ""))
+                .setAutoExposure(json.optInt("isAutoExposure", 1) == 1)
+                .setColorMode(json.optInt("isColorMode", 1) == 1)
+                .build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraConfig)) return false;
+        CameraConfig other = (CameraConfig) o;
+        return mFormat == other.mFormat && mWidth == other.mWidth && mHeight == other.mHeight
+                && mFps == other.mFps && mExposure == other.mExposure && mGain == other.mGain
+                && mTriggerPeriod == other.mTriggerPeriod
+                && mAutoExposure == other.mAutoExposure && mColorMode == other.mColorMode
+                && mSerial1.equals(other.mSerial1) && mSerial2.equals(other.mSerial2)
+                && mDistanceHysteresis == other.mDistanceHysteresis
+                && Arrays.equals(mDistanceBands, other.mDistanceBands);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mFormat;
+        result = 31 * result + mWidth;
+        result = 31 * result + mHeight;
+        result = 31 * result + mFps;
+        result = 31 * result + mExposure;
+        result = 31 * result + mGain;
+        result = 31 * result + mTriggerPeriod;
+        result = 31 * result + mSerial1.hashCode();
+        result = 31 * result + mSerial2.hashCode();
+        result = 31 * result + (mAutoExposure ? 1 : 0);
+        result = 31 * result + (mColorMode ? 1 : 0);
+        result = 31 * result + Arrays.hashCode(mDistanceBands);
+        result = 31 * result + mDistanceHysteresis;
+        return result;
+    }
+
+    // ==================== 构建 ====================
+
+    public static final class Builder {
+        private int mFormat = UVCCamera.UVC_VS_FRAME_MJPEG;
+        private int mWidth = UVCCamera.DEFAULT_PREVIEW_WIDTH;
+        private int mHeight = UVCCamera.DEFAULT_PREVIEW_HEIGHT;
+        private int mFps = UVCCamera.DEFAULT_PREVIEW_FPS;
+        private int mExposure = 0;
+        private int mGain = 0;
+        private int mTriggerPeriod = 0;
+        private String mSerial1 = "";
+        private String mSerial2 = "";
+        private boolean mAutoExposure = true;  // 默认自动曝光
+        private boolean mColorMode = true;     // 默认彩色模式
+        private int[] mDistanceBands = new int[0];
+        private int mDistanceHysteresis = DistanceExposurePresets.DEFAULT_HYSTERESIS_CM;
+
+        public Builder() {
+        }
+
+        private Builder(CameraConfig config) {
+            mFormat = config.mFormat;
+            mWidth = config.mWidth;
+            mHeight = config.mHeight;
+            mFps = config.mFps;
+            mExposure = config.mExposure;
+            mGain = config.mGain;
+            mTriggerPeriod = config.mTriggerPeriod;
+            mSerial1 = config.mSerial1;
+            mSerial2 = config.mSerial2;
+            mAutoExposure = config.mAutoExposure;
+            mColorMode = config.mColorMode;
+            mDistanceBands = config.mDistanceBands;
+            mDistanceHysteresis = config.mDistanceHysteresis;
+        }
+
+        public Builder setFormat(int format) {
+            mFormat = format;
+            return this;
+        }
+
+        public Builder setWidth(int width) {
+            mWidth = width;
+            return this;
+        }
+
+        public Builder setHeight(int height) {
+            mHeight = height;
+            return this;
+        }
+
+        public Builder setFps(int fps) {
+            mFps = fps;
+            return this;
+        }
+
+        public Builder setPreviewSize(Size size) {
+            mFormat = size.type;
+            mWidth = size.width;
+            mHeight = size.height;
+            mFps = size.fps;
+            return this;
+        }
+
+        public Builder setExposure(int exposure) {
+            mExposure = exposure;
+            return this;
+        }
+
+        public Builder setGain(int gain) {
+            mGain = gain;
+            return this;
+        }
+
+        public Builder setTriggerPeriod(int triggerPeriod) {
+            mTriggerPeriod = triggerPeriod;
+            return this;
+        }
+
+        public Builder setSerial1(String serial1) {
+            mSerial1 = serial1;
+            return this;
+        }
+
+        public Builder setSerial2(String serial2) {
+            mSerial2 = serial2;
+            return this;
+        }
+
+        public Builder setAutoExposure(boolean autoExposure) {
+            mAutoExposure = autoExposure;
+            return this;
+        }
+
+        public Builder setColorMode(boolean colorMode) {
+            mColorMode = colorMode;
+            return this;
+        }
+
+        /**
+         * 设置距离分段曝光预设，每4个元素为一段 {最小距离, 最大距离, 曝光时间, 增益}；为null时清除
+         */
+        public Builder setDistanceBands(int[] bands) {
+            if (bands != null && bands.length % 4 != 0) {
+                throw new IllegalArgumentException("距离分段长度必须是4的倍数: " + bands.length);
+            }
+            mDistanceBands = bands != null ? bands.clone() : new int[0];
+            return this;
+        }
+
+        public Builder setDistanceHysteresis(int hysteresisCm) {
+            mDistanceHysteresis = hysteresisCm;
+            return this;
+        }
+
+        public CameraConfig build() {
+            return new CameraConfig(this);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.stars.uvccam;
+
+import android.util.Log;
+
+import com.serenegiant.usb.UVCControl;
+
+/**
+ * UVC控制参数状态
+ * 每次读写控制参数都是一次USB控制传输。这里缓存设备的参数范围和最近写入的值，只发送变化的参数；
+ * 批量应用按固定顺序执行：曝光模式 -> 曝光时间 -> 增益 -> 色调自动 -> 饱和度。
+ * 缓存只对同一次打开的相机有效，相机重新打开后需要创建新的实例。
+ * 方法会阻塞在USB传输上，不要在主线程调用，应通过 CameraManager.submitControl 在相机线程执行
+ */
+public class CameraControls {
+    private static final String TAG = "CameraControls";
+    // 与设备状态不确定，下次必须写入
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final Device mControl;
+
+    // 参数支持情况和范围，第一次使用时读取
+    private Boolean mExposureSupported;
+    private Boolean mGainSupported;
+    private Boolean mHueAutoSupported;
+    private int[] mExposureLimits;
+    private int[] mGainLimits;
+
+    // 最近写入或读取的值，布尔值以 0/1 保存
+    private int mAutoExposure = UNKNOWN;
+    private int mExposure = UNKNOWN;
+    private int mGain = UNKNOWN;
+    private int mHueAuto = UNKNOWN;
+    private int mColorMode = UNKNOWN;
+
+    private int mWriteCount;
+    // 曝光由相机管理器接管时为true，见 setExposureManaged
+    private boolean mExposureManaged;
+
+    public CameraControls(UVCControl control) {
+        this(new UvcDevice(control));
+    }
+
+    CameraControls(Device device) {
+        mControl = device;
+    }
+
+    /**
+     * 设置曝光是否由相机管理器接管(软件自动曝光或距离分段预设)
+     * 接管期间批量应用不写入曝光模式、曝光时间和增益，这些参数只由接管方写入
+     */
+    public synchronized void setExposureManaged(boolean managed) {
+        mExposureManaged = managed;
+    }
+
+    public synchronized boolean isExposureManaged() {
+        return mExposureManaged;
+    }
+
+    /**
+     * 按固定顺序应用配置中的控制参数，只写入与设备当前状态不同的值，返回写入次数
+     * 自动曝光时不写入曝光时间和增益；数值小于等于0表示未设置；曝光被接管时只写入颜色模式
+     */
+    public synchronized int apply(CameraConfig config) {
+        int writes = mWriteCount;
+        boolean isAutoExposure = config.isAutoExposure();
+        if (!mExposureManaged) {
+            setAutoExposure(isAutoExposure);
+            if (!isAutoExposure) {
+                if (config.getExposure() > 0) {
+                    setExposure(config.getExposure());
+                }
+                if (config.getGain() > 0) {
+                    setGain(config.getGain());
+                }
+            }
+        }
+        setColorMode(config.isColorMode());
+        return mWriteCount - writes;
+    }
+
+    // ==================== 写入 ====================
+
+    /**
+     * 切换自动/手动曝光，返回是否实际写入
+     */
+    public synchronized boolean setAutoExposure(boolean auto) {
+        int value = auto ? 1 : 0;
+        if (mAutoExposure == value) {
+            return false;
+        }
+
+        mAutoExposure = UNKNOWN;
+        mControl.setExposureTimeAuto(auto);
+        mAutoExposure = value;
+        if (auto) {
+            // 自动曝光期间设备会自行调整，切回手动时需要重新写入
+            mExposure = UNKNOWN;
+            mGain = UNKNOWN;
+        }
+        mWriteCount++;
+        return true;
+    }
+
+    /**
+     * 设置曝光时间，不支持或超出范围时不写入，返回是否实际写入
+     */
+    public synchronized boolean setExposure(int exposure) {
+        if (mExposure == exposure || !isExposureSupported()) {
+            return false;
+        }
+        int[] limits = getExposureLimitsLocked();
+        if (limits != null && (exposure < limits[0] || exposure > limits[1])) {
+            Log.w(TAG, "曝光时间超出范围: " + exposure + " 不在 " + limits[0] + "-" + limits[1] + " 之间");
+            return false;
+        }
+
+        mExposure = UNKNOWN;
+        mControl.setExposureTimeAbsolute(exposure);
+        mExposure = exposure;
+        mWriteCount++;
+        return true;
+    }
+
+    /**
+     * 设置增益，不支持或超出范围时不写入，返回是否实际写入
+     */
+    public synchronized boolean setGain(int gain) {
+        if (mGain == gain || !isGainSupported()) {
+            return false;
+        }
+        int[] limits = getGainLimitsLocked();
+        if (limits != null && (gain < limits[0] || gain > limits[1])) {
+            Log.w(TAG, "增益超出范围: " + gain + " 不在 " + limits[0] + "-" + limits[1] + " 之间");
+            return false;
+        }
+
+        mGain = UNKNOWN;
+        mControl.setGain(gain);
+        mGain = gain;
+        mWriteCount++;
+        return true;
+    }
+
+    /**
+     * 切换彩色/黑白模式：彩色为自动色调加默认饱和度，黑白为关闭自动色调加饱和度0，返回是否实际写入
+     */
+    public synchronized boolean setColorMode(boolean color) {
+        boolean written = false;
+        int value = color ? 1 : 0;
+        if (mHueAuto != value && isHueAutoSupported()) {
+            mHueAuto = UNKNOWN;
+            mControl.setHueAuto(color);
+            mHueAuto = value;
+            mWriteCount++;
+            written = true;
+        }
+
+        if (mColorMode != value) {
+            mColorMode = UNKNOWN;
+            if (color) {
+                mControl.resetSaturation();
+            } else {
+                mControl.setSaturation(0);
+            }
+            mColorMode = value;
+            mWriteCount++;
+            written = true;
+        }
+        return written;
+    }
+
+    // ==================== 读取 ====================
+
+    public synchronized boolean isExposureSupported() {
+        if (mExposureSupported == null) {
+            mExposureSupported = mControl.isExposureTimeAbsoluteEnable();
+        }
+        return mExposureSupported;
+    }
+
+    public synchronized boolean isGainSupported() {
+        if (mGainSupported == null) {
+            mGainSupported = mControl.isGainEnable();
+        }
+        return mGainSupported;
+    }
+
+    private boolean isHueAutoSupported() {
+        if (mHueAutoSupported == null) {
+            mHueAutoSupported = mControl.isHueAutoEnable();
+        }
+        return mHueAutoSupported;
+    }
+
+    /**
+     * 曝光时间范围 {最小值, 最大值}，只从设备读取一次；不支持时返回null
+     */
+    public synchronized int[] getExposureLimits() {
+        int[] limits = getExposureLimitsLocked();
+        return limits != null ? limits.clone() : null;
+    }
+
+    /**
+     * 增益范围 {最小值, 最大值}，只从设备读取一次；不支持时返回null
+     */
+    public synchronized int[] getGainLimits() {
+        int[] limits = getGainLimitsLocked();
+        return limits != null ? limits.clone() : null;
+    }
+
+    private int[] getExposureLimitsLocked() {
+        if (mExposureLimits == null && isExposureSupported()) {
+            mExposureLimits = mControl.updateExposureTimeAbsoluteLimit();
+        }
+        return mExposureLimits;
+    }
+
+    private int[] getGainLimitsLocked() {
+        if (mGainLimits == null && isGainSupported()) {
+            mGainLimits = mControl.updateGainLimit();
+        }
+        return mGainLimits;
+    }
+
+    public synchronized boolean isAutoExposure() {
+        if (mAutoExposure == UNKNOWN) {
+            mAutoExposure = mControl.isExposureTimeAuto() ? 1 : 0;
+        }
+        return mAutoExposure == 1;
+    }
+
+    /**
+     * 当前曝光时间；自动曝光时设备会自行调整，每次从设备读取
+     */
+    public synchronized int getExposure() {
+        if (mExposure == UNKNOWN || isAutoExposure()) {
+            int exposure = mControl.getExposureTimeAbsolute();
+            if (!isAutoExposure()) {
+                mExposure = exposure;
+            }
+            return exposure;
+        }
+        return mExposure;
+    }
+
+    /**
+     * 当前增益；自动曝光时设备会自行调整，每次从设备读取
+     */
+    public synchronized int getGain() {
+        if (mGain == UNKNOWN || isAutoExposure()) {
+            int gain = mControl.getGain();
+            if (!isAutoExposure()) {
+                mGain = gain;
+            }
+            return gain;
+        }
+        return mGain;
+    }
+
+    public synchronized boolean isColorMode() {
+        if (mColorMode == UNKNOWN) {
+            mColorMode = mControl.getSaturation() > 0 ? 1 : 0;
+        }
+        return mColorMode == 1;
+    }
+
+    /**
+     * 一次读取界面显示需要的所有参数
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.autoExposure = isAutoExposure();
+        snapshot.exposureSupported = isExposureSupported();
+        if (snapshot.exposureSupported) {
+            snapshot.exposure = getExposure();
+            snapshot.exposureLimits = getExposureLimits();
+        }
+        snapshot.gainSupported = isGainSupported();
+        if (snapshot.gainSupported) {
+            snapshot.gain = getGain();
+            snapshot.gainLimits = getGainLimits();
+        }
+        snapshot.colorMode = isColorMode();
+        return snapshot;
+    }
+
+    /**
+     * 控制参数快照，在相机线程读取后交给界面显示
+     */
+    public static final class Snapshot {
+        public boolean autoExposure;
+        public boolean exposureSupported;
+        public int exposure;
+        public int[] exposureLimits;
+        public boolean gainSupported;
+        public int gain;
+        public int[] gainLimits;
+        public boolean colorMode;
+    }
+
+    /**
+     * 累计写入次数，用于统计控制传输开销
+     */
+    public synchronized int getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * 本类用到的UVC控制传输，便于在没有设备时测试
+     */
+    interface Device {
+        void setExposureTimeAuto(boolean auto);
+
+        boolean isExposureTimeAuto();
+
+        boolean isExposureTimeAbsoluteEnable();
+
+        void setExposureTimeAbsolute(int exposure);
+
+        int getExposureTimeAbsolute();
+
+        int[] updateExposureTimeAbsoluteLimit();
+
+        boolean isGainEnable();
+
+        void setGain(int gain);
+
+        int getGain();
+
+        int[] updateGainLimit();
+
+        boolean isHueAutoEnable();
+
+        void setHueAuto(boolean auto);
+
+        void setSaturation(int saturation);
+
+        void resetSaturation();
+
+        int getSaturation();
+    }
+
+    private static final class UvcDevice implements Device {
+        private final UVCControl mControl;
+
+        UvcDevice(UVCControl control) {
+            mControl = control;
+        }
+
+        @Override
+        public void setExposureTimeAuto(boolean auto) {
+            mControl.setExposureTimeAuto(auto);
+        }
+
+        @Override
+        public boolean isExposureTimeAuto() {
+            return mControl.isExposureTimeAuto();
+        }
+
+        @Override
+        public boolean isExposureTimeAbsoluteEnable() {
+            return mControl.isExposureTimeAbsoluteEnable();
+        }
+
+        @Override
+        public void setExposureTimeAbsolute(int exposure) {
+            mControl.setExposureTimeAbsolute(exposure);
+        }
+
+        @Override
+        public int getExposureTimeAbsolute() {
+            return mControl.getExposureTimeAbsolute();
+        }
+
+        @Override
+        public int[] updateExposureTimeAbsoluteLimit() {
+            return mControl.updateExposureTimeAbsoluteLimit();
+        }
+
+        @Override
+        public boolean isGainEnable() {
+            return mControl.isGainEnable();
+        }
+
+        @Override
+        public void setGain(int gain) {
+            mControl.setGain(gain);
+        }
+
+        @Override
+        public int getGain() {
+            return mControl.getGain();
+        }
+
+        @Override
+        public int[] updateGainLimit() {
+            return mControl.updateGainLimit();
+        }
+
+        @Override
+        public boolean isHueAutoEnable() {
+            return mControl.isHueAutoEnable();
+        }
+
+        @Override
+        public void setHueAuto(boolean auto) {
+            mControl.setHueAuto(auto);
+        }
+
+        @Override
+        public void setSaturation(int saturation) {
+            mControl.setSaturation(saturation);
+        }
+
+        @Override
+        public void resetSaturation() {
+            mControl.resetSaturation();
+        }
+
+        @Override
+        public int getSaturation() {
+            return mControl.getSaturation();
+        }
+    }
+}
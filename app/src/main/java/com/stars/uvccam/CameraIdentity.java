@@ -0,0 +1,212 @@
+package com.stars.uvccam;
+
+import android.hardware.usb.UsbDevice;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * 相机单元标识
+ * 优先使用USB序列号区分同型号的多台相机；没有序列号或无权读取时使用物理端口(sysfs中的总线-端口链，如 1-1.2)，
+ * 相机插在同一个端口上就保持同一标识；两者都无法取得时退回到 VID:PID，同型号共用配置。
+ * 设备路径(/dev/bus/usb/总线/设备号)在重新插拔后会变化，只用于本次连接内识别同一台设备，不参与持久化
+ */
+public final class CameraIdentity {
+    private static final String TAG = "CameraIdentity";
+    // 序列号在文件名中保留的最大长度
+    private static final int MAX_SERIAL_LENGTH = 64;
+    private static final String DEVICE_PATH_PREFIX = "/dev/bus/usb/";
+    private static final File SYSFS_USB_DEVICES = new File("/sys/bus/usb/devices");
+
+    private final int mVendorId;
+    private final int mProductId;
+    private final String mSerial;
+    // 物理端口链，只在没有序列号时参与键
+    private final String mPortPath;
+    private final String mPort;
+    private final String mKey;
+
+    CameraIdentity(int vendorId, int productId, String serial, String portPath, String port) {
+        mVendorId = vendorId;
+        mProductId = productId;
+        mSerial = sanitizeSerial(serial);
+        mPortPath = mSerial == null ? sanitizeSerial(portPath) : null;
+        mPort = port;
+        if (mSerial != null) {
+            mKey = String.format("%04x_%04x_sn_%s", vendorId, productId, mSerial);
+        } else if (mPortPath != null) {
+            mKey = String.format("%04x_%04x_port_%s", vendorId, productId, mPortPath);
+        } else {
+            mKey = String.format("%04x_%04x", vendorId, productId);
+        }
+    }
+
+    /**
+     * 读取设备的标识；Android 10 起未取得设备权限时无法读取序列号，此时按物理端口区分，
+     * 端口也无法读取时返回型号级标识
+     */
+    public static CameraIdentity of(UsbDevice device) {
+        String serial = null;
+        try {
+            serial = device.getSerialNumber();
+        } catch (SecurityException e) {
+            Log.d(TAG, "无权读取序列号，使用端口标识: " + device.getDeviceName());
+        }
+        String portPath = serial == null ? findPortPath(SYSFS_USB_DEVICES, device.getDeviceName()) : null;
+        return new CameraIdentity(device.getVendorId(), device.getProductId(), serial, portPath,
+                device.getDeviceName());
+    }
+
+    /**
+     * 型号级标识，同型号的所有相机共用
+     */
+    public static CameraIdentity ofModel(int vendorId, int productId) {
+        return new CameraIdentity(vendorId, productId, null, null, null);
+    }
+
+    /**
+     * 在sysfs中查找设备路径对应的端口链(目录名，如 1-1.2)，按 busnum/devnum 匹配；
+     * 设备路径格式不符或sysfs不可读(部分系统的SELinux策略)时返回null
+     */
+    static String findPortPath(File usbDevicesDir, String deviceName) {
+        if (deviceName == null || !deviceName.startsWith(DEVICE_PATH_PREFIX)) {
+            return null;
+        }
+        String[] parts = deviceName.substring(DEVICE_PATH_PREFIX.length()).split("/");
+        if (parts.length != 2) {
+            return null;
+        }
+        int bus;
+        int dev;
+        try {
+            bus = Integer.parseInt(parts[0]);
+            dev = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        File[] entries = usbDevicesDir.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        for (File entry : entries) {
+            // 只看设备目录(总线-端口链)，跳过根集线器(usbN)和接口目录(含冒号)
+            String name = entry.getName();
+            if (name.startsWith("usb") || name.indexOf(':') >= 0) {
+                continue;
+            }
+            if (readInt(new File(entry, "busnum")) == bus && readInt(new File(entry, "devnum")) == dev) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static int readInt(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line != null ? Integer.parseInt(line.trim()) : -1;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getVendorId() {
+        return mVendorId;
+    }
+
+    public int getProductId() {
+        return mProductId;
+    }
+
+    /**
+     * 清理后的序列号，没有时返回null
+     */
+    public String getSerial() {
+        return mSerial;
+    }
+
+    public boolean hasSerial() {
+        return mSerial != null;
+    }
+
+    /**
+     * 物理端口链，有序列号或无法读取时返回null
+     */
+    public String getPortPath() {
+        return mPortPath;
+    }
+
+    /**
+     * 是否为单元级标识(按序列号或物理端口区分)，否则为同型号共用的型号级标识
+     */
+    public boolean isUnit() {
+        return mSerial != null || mPortPath != null;
+    }
+
+    public boolean isValid() {
+        return mVendorId > 0 && mProductId > 0;
+    }
+
+    /**
+     * 持久化用的键，可直接用于文件名
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * 同型号的型号级标识，单元没有自己的配置时从这里继承
+     */
+    public CameraIdentity toModel() {
+        return isUnit() || mPort != null ? ofModel(mVendorId, mProductId) : this;
+    }
+
+    /**
+     * 判断设备是否为这台相机：本次连接中的设备路径一致，或序列号/物理端口一致
+     */
+    public boolean matches(UsbDevice device) {
+        if (device.getVendorId() != mVendorId || device.getProductId() != mProductId) {
+            return false;
+        }
+        if (mPort != null && mPort.equals(device.getDeviceName())) {
+            return true;
+        }
+        return isUnit() && mKey.equals(of(device).mKey);
+    }
+
+    // 序列号和端口链只保留文件名安全的字符
+    private static String sanitizeSerial(String serial) {
+        if (serial == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(Math.min(serial.length(), MAX_SERIAL_LENGTH));
+        for (int i = 0; i < serial.length() && sb.length() < MAX_SERIAL_LENGTH; i++) {
+            char c = serial.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '.') {
+                sb.append(c);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraIdentity)) return false;
+        return mKey.equals(((CameraIdentity) o).mKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return mKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mKey;
+    }
+}
@@ -4,57 +4,216 @@ import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.util.Log;
 import android.view.Surface;
-import android.view.SurfaceHolder;
 import android.widget.Toast;
 import com.herohan.uvcapp.CameraHelper;
 import com.herohan.uvcapp.ICameraHelper;
 import com.herohan.uvcapp.ImageCapture;
+import com.serenegiant.usb.IFrameCallback;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCCamera;
 import com.serenegiant.usb.UVCControl;
-import com.serenegiant.usb.Format;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executor;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import android.content.Intent;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
-import org.json.JSONObject;
-import java.util.HashMap;
-import java.util.ArrayList;
+import android.os.Message;
+import android.os.SystemClock;
 
+/**
+ * 相机管理类
+ * 相机助手的所有操作都在专用的相机线程上按状态机执行，公开方法只负责投递命令，不阻塞调用线程
+ */
 public class CameraManager {
     private static final String TAG = "CameraManager";
 
+    // 相机状态
+    public static final int STATE_DETACHED = 0;      // 无设备或相机助手未初始化
+    public static final int STATE_ATTACHED = 1;      // 设备已连接，相机未打开
+    public static final int STATE_OPENING = 2;       // 正在请求权限/打开设备/打开相机
+    public static final int STATE_STREAMING = 3;     // 预览中
+    public static final int STATE_RECONFIGURING = 4; // 正在切换预览参数
+    public static final int STATE_CLOSING = 5;       // 正在关闭相机
+    private static final String[] STATE_NAMES = {
+            "DETACHED", "ATTACHED", "OPENING", "STREAMING", "RECONFIGURING", "CLOSING"
+    };
+
+    // 命令
+    private static final int MSG_INIT = 1;
+    private static final int MSG_RELEASE = 2;
+    private static final int MSG_OPEN = 3;
+    private static final int MSG_CLOSE = 4;
+    private static final int MSG_RECONFIGURE = 5;
+    private static final int MSG_CLOSE_TIMEOUT = 6;
+    private static final int MSG_RELEASE_TIMEOUT = 7;
+    private static final int MSG_FRAME_TIMEOUT = 8;
+
+    // 相机助手回调事件
+    private static final int MSG_ATTACH = 10;
+    private static final int MSG_DEVICE_OPEN = 11;
+    private static final int MSG_CAMERA_OPEN = 12;
+    private static final int MSG_CAMERA_CLOSE = 13;
+    private static final int MSG_DEVICE_CLOSE = 14;
+    private static final int MSG_DETACH = 15;
+    private static final int MSG_CANCEL = 16;
+    private static final int MSG_FIRST_FRAME = 17;
+
+    // 控制参数操作的合并键，同一键的连续请求只执行最后一次；同一键的任务必须返回相同类型的结果，
+    // 每个调用位置使用自己的键，避免不同校验逻辑的任务互相取代
+    public static final int CONTROL_NO_MERGE = 0;
+    public static final int CONTROL_APPLY = 1;
+    public static final int CONTROL_AUTO_EXPOSURE = 2;
+    public static final int CONTROL_EXPOSURE = 3;
+    public static final int CONTROL_GAIN = 4;
+    public static final int CONTROL_COLOR_MODE = 5;
+    public static final int CONTROL_REFRESH = 6;
+    public static final int CONTROL_EXPOSURE_LOOP = 7;
+    public static final int CONTROL_DISTANCE_PRESET = 8;
+    public static final int CONTROL_SAVE_EXPOSURE = 9;
+    public static final int CONTROL_SAVE_GAIN = 10;
+
+    // 关闭相机时等待回调的超时时间，仅作为回调丢失时的兜底
+    private static final long CAMERA_CLOSE_TIMEOUT_MS = 2000;
+    private static final long DEVICE_CLOSE_TIMEOUT_MS = 1000;
+    // 开流后等待首帧的超时时间，超时按开流失败处理并降级
+    private static final long FRAME_TIMEOUT_MS = 3000;
+
     private final Context mContext;
-    private ICameraHelper mCameraHelper;
-    private final AtomicBoolean mIsCameraOpened = new AtomicBoolean(false);
-    private final Object mCameraLock = new Object();
-
-    // 当前连接的设备信息
-    private int mCurrentVendorId = -1;
-    private int mCurrentProductId = -1;
-    private int mPreviewWidth = UVCCamera.DEFAULT_PREVIEW_WIDTH;
-    private int mPreviewHeight = UVCCamera.DEFAULT_PREVIEW_HEIGHT;
-    private int mPreviewFormat = UVCCamera.UVC_VS_FRAME_MJPEG;
-    private int mPreviewFps = UVCCamera.DEFAULT_PREVIEW_FPS;
-    
-    // 相机状态回调接口
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mCameraThread;
+    private final Handler mCameraHandler;
+    private final Executor mCameraExecutor;
+    private final StreamWatchdog mStreamWatchdog;
+    private final SoftwareAutoExposure mSoftwareAutoExposure;
+    private final DecimatedPreview mDecimatedPreview;
+
+    // 以下字段只在相机线程访问
+    private ICameraHelper mReleasingHelper;
+    private UsbDevice mCurrentDevice;
+    private boolean mPendingOpen = false;
+    private boolean mPendingInit = false;
+    private boolean mReleaseAfterClose = false;
+    private boolean mSurfaceAttached = false;
+    // 预览Surface由抽帧缩小的预览输出绘制，不交给相机助手按完整帧率渲染
+    private boolean mDecimatedEnabled = false;
+    private long mCloseStartTime = 0;
+    // 打开设备时读取的保存参数
+    private Size mSavedSize;
+    // 降级阶梯：最初失败的模式、候选模式和下一个要尝试的位置，未在降级时为null
+    private long mFallbackOrigin;
+    private long[] mFallbackLadder;
+    private int mFallbackStep;
+
+    // 跨线程读取的状态，只在相机线程修改
+    private volatile ICameraHelper mCameraHelper;
+    private volatile int mState = STATE_DETACHED;
+    private volatile Surface mPreviewSurface;
+    private volatile CameraCapabilities mCapabilities;
+    // 当前打开的相机的控制参数状态，相机关闭后失效
+    private volatile CameraControls mControls;
+
+    // 当前连接的设备信息；模式索引和降级记录按型号保存，配置按相机标识保存
+    private volatile int mCurrentVendorId = -1;
+    private volatile int mCurrentProductId = -1;
+    private volatile CameraIdentity mCurrentIdentity;
+    // 打开相机时优先选择的相机，为null时选择第一台
+    private volatile CameraIdentity mPreferredIdentity;
+    // 只打开优先选择的相机，不回退到其他设备；多台相机同时采集时每个实例绑定一台
+    private volatile boolean mExclusive = false;
+    // 当前预览参数，只整体替换不修改字段
+    private volatile Size mPreviewSize = new Size(UVCCamera.UVC_VS_FRAME_MJPEG,
+            UVCCamera.DEFAULT_PREVIEW_WIDTH,
+            UVCCamera.DEFAULT_PREVIEW_HEIGHT,
+            UVCCamera.DEFAULT_PREVIEW_FPS,
+            null);
+
+    // 合并后的待应用预览参数，只保留最后一次请求
+    private final Object mPendingLock = new Object();
+    private Size mPendingSize;
+
+    // 进行中的关闭/释放操作，重复请求返回同一结果
+    private final Object mFutureLock = new Object();
+    private CompletionFuture<Void> mCloseFuture;
+    private CompletionFuture<Void> mReleaseFuture;
+
+    // 自动选择模式和选择替代模式时的带宽预算
+    private volatile ModePlanner mModePlanner = new ModePlanner();
+
+    // 首帧计时：相机打开的时间点，收到首帧后清零
+    private volatile long mOpenTimestamp = 0;
+    // 开流后是否在等待首帧
+    private volatile boolean mAwaitingFrame = false;
+    // 是否开启软件自动曝光，开流收到首帧后启动
+    private volatile boolean mSoftwareAeEnabled = false;
+    // 多个订阅者共享的帧总线，每帧拷贝一次，订阅者在各自线程处理
+    private final FrameBus mFrameBus;
+    // 帧回调当前提供的像素数据，只需要帧时间戳时为null
+    private volatile FrameFormat mFrameFormat;
+    // 距离分段曝光预设，为null时不按距离调整
+    private volatile DistanceExposurePresets mDistancePresets;
+
+    // 尚未开始执行的最后一个控制参数请求，只有它可以与新请求合并
+    private final Object mControlLock = new Object();
+    private ControlRequest mLastControl;
+
+    /**
+     * 控制参数操作，在相机线程执行
+     */
+    public interface ControlTask<T> {
+        T run(CameraControls controls) throws Exception;
+    }
+
+    // 帧回调的像素格式，变化时整体替换
+    private static final class FrameFormat {
+        final int width;
+        final int height;
+        final int pixelFormat;
+
+        FrameFormat(int width, int height, int pixelFormat) {
+            this.width = width;
+            this.height = height;
+            this.pixelFormat = pixelFormat;
+        }
+    }
+
+    // 相机状态回调接口，回调在主线程执行
     public interface CameraStateListener {
         void onCameraOpened(UsbDevice device, Size previewSize);
         void onCameraClosed();
         void onDeviceAttached(UsbDevice device);
+        void onPreviewSizeChanged(Size previewSize);
     }
 
     private CameraStateListener mStateListener;
 
     public CameraManager(Context context) {
+        this(context, "CameraThread");
+    }
+
+    /**
+     * @param threadName 相机线程名，多台相机同时采集时用于区分
+     */
+    public CameraManager(Context context, String threadName) {
         mContext = context;
+
+        mCameraThread = new HandlerThread(threadName);
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper(), this::handleMessage);
+        mCameraExecutor = mCameraHandler::post;
+        mStreamWatchdog = new StreamWatchdog(mCameraHandler, this::onStreamStalled);
+        mSoftwareAutoExposure = new SoftwareAutoExposure(this::writeSoftwareExposure);
+        mDecimatedPreview = new DecimatedPreview(threadName + "/preview");
+        mFrameBus = new FrameBus(threadName + "/bus");
+        mFrameBus.setOnSubscribersChangedListener(() -> mCameraHandler.post(this::updateFrameCallback));
     }
 
     public void setStateListener(CameraStateListener listener) {
@@ -62,94 +221,106 @@ public class CameraManager {
     }
 
     public void initialize() {
-        synchronized(mCameraLock) {
-            if (mCameraHelper == null) {
-                mCameraHelper = new CameraHelper();
-                mCameraHelper.setStateCallback(mUVCStateListener);
-            }
-        }
+        mCameraHandler.sendEmptyMessage(MSG_INIT);
     }
 
-    public void release() {
-        synchronized(mCameraLock) {
-            if (mIsCameraOpened.get()) {
-                closeCamera();
-            }
-
-            if (mCameraHelper != null) {
-                mCameraHelper.release();
-                mCameraHelper = null;
+    /**
+     * 释放相机助手，不阻塞调用线程
+     * 返回的结果在相机关闭、助手释放且设备关闭回调到达(或超时)后完成
+     */
+    public CompletionFuture<Void> release() {
+        synchronized (mFutureLock) {
+            if (mReleaseFuture == null || mReleaseFuture.isDone()) {
+                mReleaseFuture = new CompletionFuture<>();
+                mCameraHandler.sendEmptyMessage(MSG_RELEASE);
             }
-            mIsCameraOpened.set(false);
+            return mReleaseFuture;
         }
     }
 
-    public void openCamera() {
-        synchronized(mCameraLock) {
-            if (mCameraHelper == null || mIsCameraOpened.get()) {
-                showToast(mIsCameraOpened.get() ? "相机已经打开" : "相机初始化中");
-                return;
-            }
-
-            final List<UsbDevice> list = mCameraHelper.getDeviceList();
-            if (list != null && !list.isEmpty()) {
-                mCameraHelper.selectDevice(list.get(0));
-            } else {
-                showToast("没有找到相机设备");
-            }
-        }
+    /**
+     * 释放相机并结束相机线程，之后不能再使用
+     */
+    public void destroy() {
+        release().addListener(() -> {
+            mDecimatedPreview.release();
+            mFrameBus.close();
+            mCameraThread.quitSafely();
+        }, mCameraExecutor);
     }
 
-    public void closeCamera() {
-        synchronized(mCameraLock) {
-            if (mCameraHelper == null || !mIsCameraOpened.get()) {
-                return;
-            }
-
-            try {
-                Log.d(TAG, "停止预览");
-                mCameraHelper.stopPreview();
-                Thread.sleep(50);
-
-                // 先移除所有Surface以停止帧处理
-                if (mContext instanceof MainActivity) {
-                    MainActivity activity = (MainActivity) mContext;
-                    SurfaceHolder holder = activity.getCameraPreview().getHolder();
-                    if (holder != null && holder.getSurface() != null && holder.getSurface().isValid()) {
-                        Log.d(TAG, "移除Surface");
-                        mCameraHelper.removeSurface(holder.getSurface());
-                    }
-                }
+    public void openCamera() {
+        mCameraHandler.sendEmptyMessage(MSG_OPEN);
+    }
 
-                Log.d(TAG, "等待资源释放");
-                Thread.sleep(200);
+    /**
+     * 打开指定的相机，之后的自动打开和重新打开也优先选择这台相机
+     */
+    public void openCamera(CameraIdentity identity) {
+        mPreferredIdentity = identity;
+        openCamera();
+    }
 
-                Log.d(TAG, "正在关闭相机");
-                mCameraHelper.closeCamera();
-                Log.d(TAG, "相机已关闭");
+    /**
+     * 绑定指定的相机：只打开这台相机，未连接时不回退到其他设备
+     * 多台相机同时采集时，每个实例绑定一台，避免多个实例抢占同一设备
+     */
+    public void bindCamera(CameraIdentity identity) {
+        mPreferredIdentity = identity;
+        mExclusive = identity != null;
+    }
 
-                Log.d(TAG, "等待资源释放");
-                Thread.sleep(200);
-            } catch (Exception e) {
-                Log.e(TAG, "关闭相机时出错", e);
+    /**
+     * 关闭相机，不阻塞调用线程
+     * 返回的结果在 onCameraClose 回调到达或超时后完成，关闭完成前重复调用返回同一结果
+     */
+    public CompletionFuture<Void> closeCamera() {
+        synchronized (mFutureLock) {
+            if (mCloseFuture == null || mCloseFuture.isDone()) {
+                mCloseFuture = new CompletionFuture<>();
+                mCameraHandler.sendEmptyMessage(MSG_CLOSE);
             }
+            return mCloseFuture;
         }
     }
 
     public void addSurface(Surface surface) {
-        if (surface != null && surface.isValid() && mCameraHelper != null) {
-            mCameraHelper.addSurface(surface, false);
+        if (surface == null || !surface.isValid()) {
+            return;
         }
+        mPreviewSurface = surface;
+        mCameraHandler.post(() -> {
+            if (isStreamingState() && !mSurfaceAttached) {
+                attachPreviewSurface();
+                updateFrameCallback();
+            }
+        });
     }
 
     public void removeSurface(Surface surface) {
-        if (surface != null && surface.isValid() && mCameraHelper != null) {
-            mCameraHelper.removeSurface(surface);
+        if (surface == null || surface != mPreviewSurface) {
+            return;
         }
+        mPreviewSurface = null;
+
+        // Surface在 surfaceDestroyed 返回后即失效，这里必须在调用线程同步移除
+        mDecimatedPreview.detachSurface(surface);
+        ICameraHelper helper = mCameraHelper;
+        if (helper != null && surface.isValid()) {
+            helper.removeSurface(surface);
+        }
+        mCameraHandler.post(() -> {
+            mSurfaceAttached = false;
+            updateFrameCallback();
+        });
     }
 
     public boolean isCameraOpened() {
-        return mIsCameraOpened.get();
+        return isStreamingState();
+    }
+
+    public int getState() {
+        return mState;
     }
 
     public int getCurrentVendorId() {
@@ -160,27 +331,69 @@ public class CameraManager {
         return mCurrentProductId;
     }
 
+    /**
+     * 当前相机的标识，用于读写配置；设备打开前返回null
+     */
+    public CameraIdentity getCurrentIdentity() {
+        return mCurrentIdentity;
+    }
+
     public Size getPreviewSize() {
-        if (mCameraHelper != null && mIsCameraOpened.get()) {
-            return mCameraHelper.getPreviewSize();
-        }
-        return new Size(mPreviewFormat, mPreviewWidth, mPreviewHeight, mPreviewFps, null);
+        return copySize(mPreviewSize);
     }
 
     public void captureImage() {
-        if (!mIsCameraOpened.get() || mCameraHelper == null) {
+        if (!isCameraOpened()) {
             showToast("相机未打开，无法拍照");
             return;
         }
 
+        mCameraHandler.post(() -> takePicture(null, null, 0));
+    }
+
+    /**
+     * 拍照保存到指定文件，不显示提示，结果通过返回值通知
+     * 拍照请求插到相机线程队列的最前面，不等待排队中的其他操作
+     *
+     * @param triggerNanos 触发时刻(SystemClock.elapsedRealtimeNanos)，用于统计触发到开始拍照的延迟，0表示不统计
+     */
+    public CompletionFuture<File> captureImage(File file, long triggerNanos) {
+        CompletionFuture<File> future = new CompletionFuture<>();
+        if (!isCameraOpened()) {
+            future.completeExceptionally(new IllegalStateException("相机未打开"));
+            return future;
+        }
+
+        mCameraHandler.postAtFrontOfQueue(() -> takePicture(file, future, triggerNanos));
+        return future;
+    }
+
+    // future为null时是界面发起的拍照，结果以提示显示
+    private void takePicture(File target, CompletionFuture<File> future, long triggerNanos) {
+        if (!isStreamingState() || mCameraHelper == null) {
+            if (future != null) {
+                future.completeExceptionally(new IllegalStateException("相机未打开"));
+            } else {
+                showToast("相机未打开，无法拍照");
+            }
+            return;
+        }
+        if (triggerNanos != 0) {
+            Log.d(TAG, "触发到开始拍照: " +
+                    (SystemClock.elapsedRealtimeNanos() - triggerNanos) / 1000 + "us");
+        }
+
         try {
-            String filePath = Utils.getSavePhotoPath(mContext);
-            File file = new File(filePath);
+            File file = target != null ? target : new File(Utils.getSavePhotoPath(mContext));
 
             File parentDir = file.getParentFile();
             if (parentDir != null && !parentDir.exists()) {
                 if (!parentDir.mkdirs()) {
-                    showToast("无法创建保存目录");
+                    if (future != null) {
+                        future.completeExceptionally(new IOException("无法创建保存目录: " + parentDir));
+                    } else {
+                        showToast("无法创建保存目录");
+                    }
                     return;
                 }
             }
@@ -193,7 +406,11 @@ public class CameraManager {
                 public void onImageSaved(@NonNull ImageCapture.OutputFileResults outputFileResults) {
                     Uri savedUri = outputFileResults.getSavedUri();
                     String path = savedUri != null ? savedUri.getPath() : file.getAbsolutePath();
-                    showToast("图像已保存至: " + path);
+                    if (future != null) {
+                        future.complete(new File(path));
+                    } else {
+                        showToast("图像已保存至: " + path);
+                    }
 
                     if (mContext != null) {
                         Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
@@ -204,433 +421,1423 @@ public class CameraManager {
 
                 @Override
                 public void onError(int imageCaptureError, @NonNull String message, @Nullable Throwable cause) {
-                    showToast("保存图像失败: " + message);
                     Log.e(TAG, "保存图像失败: " + message, cause);
+                    if (future != null) {
+                        future.completeExceptionally(cause != null ? cause : new IOException(message));
+                    } else {
+                        showToast("保存图像失败: " + message);
+                    }
                 }
             });
         } catch (Exception e) {
             Log.e(TAG, "拍照过程中发生错误", e);
-            showToast("拍照失败: " + e.getMessage());
+            if (future != null) {
+                future.completeExceptionally(e);
+            } else {
+                showToast("拍照失败: " + e.getMessage());
+            }
         }
     }
 
+    /**
+     * 请求切换预览参数，在相机线程异步执行
+     * 连续的请求会合并，只应用最后一次；与当前参数相同的请求直接丢弃
+     */
     public void setPreviewSize(Size size) {
-        if (mCameraHelper == null || !mIsCameraOpened.get() || size == null) {
-            Log.w(TAG, "无法设置预览尺寸：相机未打开或尺寸无效");
+        if (size == null) {
+            Log.w(TAG, "无法设置预览尺寸：尺寸无效");
             return;
         }
 
-        try {
-            Log.d(TAG, "设置预览尺寸: " + size.type + ", " +
-                    size.width + "x" + size.height + ", " + size.fps + "fps");
+        synchronized (mPendingLock) {
+            mPendingSize = copySize(size);
+        }
+        mCameraHandler.removeMessages(MSG_RECONFIGURE);
+        mCameraHandler.sendEmptyMessage(MSG_RECONFIGURE);
+    }
 
-            Surface previewSurface = null;
-            if (mContext instanceof MainActivity) {
-                MainActivity activity = (MainActivity) mContext;
-                SurfaceHolder holder = activity.getCameraPreview().getHolder();
-                if (holder != null && holder.getSurface() != null && holder.getSurface().isValid()) {
-                    previewSurface = holder.getSurface();
-                    mCameraHelper.removeSurface(previewSurface);
-                }
+    /**
+     * 将配置保存为当前设备的命名方案，在相机线程执行
+     * 保存前按设备支持的模式验证预览参数，不受支持时替换为最接近的模式；返回实际保存的配置
+     */
+    public CompletionFuture<CameraConfig> saveProfile(String name, CameraConfig config) {
+        CompletionFuture<CameraConfig> future = new CompletionFuture<>();
+        mCameraHandler.post(() -> {
+            CameraIdentity identity = mCurrentIdentity;
+            if (identity == null) {
+                future.completeExceptionally(new IllegalStateException("没有已连接的相机"));
+                return;
             }
 
-            mCameraHelper.stopPreview();
-            mCameraHelper.setPreviewSize(size);
+            CameraConfig validated = validateProfile(config);
+            ConfigManager.saveProfile(mContext, identity, name, validated);
+            future.complete(validated);
+        });
+        return future;
+    }
 
-            mPreviewWidth = size.width;
-            mPreviewHeight = size.height;
-            mPreviewFormat = size.type;
-            mPreviewFps = size.fps;
+    /**
+     * 切换到当前设备的命名方案，在相机线程执行
+     * 只应用与当前配置不同的部分：模式不同时切换一次预览参数，控制项只写入变化的值。
+     * 方案成为当前配置，相机未打开时在下次打开时生效；返回应用后的配置
+     */
+    public CompletionFuture<CameraConfig> switchProfile(String name) {
+        CompletionFuture<CameraConfig> future = new CompletionFuture<>();
+        mCameraHandler.post(() -> handleSwitchProfile(name, future));
+        return future;
+    }
 
-            mCameraHelper.startPreview();
+    /**
+     * 设置带宽预算，在下次打开相机时生效；只用于自动选择模式和为不受支持的参数选择替代模式
+     *
+     * @param yuvBytesPerSecond   YUV模式的USB总线预算
+     * @param mjpegBytesPerSecond MJPEG模式解码后的预算，Long.MAX_VALUE 表示不限制
+     */
+    public void setBandwidthBudget(long yuvBytesPerSecond, long mjpegBytesPerSecond) {
+        mModePlanner = new ModePlanner(yuvBytesPerSecond, mjpegBytesPerSecond);
+    }
+
+    /**
+     * 设置视频流停顿阈值，小于等于0时关闭停顿监测
+     */
+    public void setStallThreshold(long thresholdMs) {
+        mStreamWatchdog.setThreshold(thresholdMs);
+    }
 
-            if (previewSurface != null && previewSurface.isValid()) {
-                mCameraHelper.addSurface(previewSurface, false);
+    /**
+     * 开启或关闭软件自动曝光
+     * 开启后相机切换为手动曝光，由画面亮度闭环调整曝光时间和增益；重新开流后自动恢复。
+     * MJPEG模式下需要库将每帧解码为NV21，YUV模式直接读取原始数据
+     */
+    public void setSoftwareAutoExposure(boolean enabled) {
+        mSoftwareAeEnabled = enabled;
+        mCameraHandler.post(() -> {
+            updateExposureManaged();
+            if (!enabled) {
+                stopSoftwareAutoExposure();
+            } else if (mState == STATE_STREAMING && !mAwaitingFrame) {
+                startSoftwareAutoExposure();
             }
+        });
+    }
 
-            if (mContext instanceof MainActivity) {
-                MainActivity activity = (MainActivity) mContext;
-                activity.runOnUiThread(() ->
-                        activity.getCameraPreview().setAspectRatio(size.width, size.height));
+    /**
+     * 设置预览的显示帧率和最大宽度，displayFps 小于等于0时由相机助手按完整帧率和分辨率渲染
+     * 开启后预览从帧回调抽帧缩小，在独立的显示线程绘制，显示负载不会影响采集帧率；
+     * MJPEG模式下需要库将每帧解码为NV21
+     */
+    public void setPreviewDecimation(int displayFps, int maxWidth) {
+        boolean enabled = displayFps > 0;
+        if (enabled) {
+            mDecimatedPreview.setDisplayFps(displayFps);
+            mDecimatedPreview.setMaxWidth(maxWidth);
+        }
+        mCameraHandler.post(() -> {
+            boolean streaming = isStreamingState() && mCameraHelper != null;
+            if (streaming) {
+                detachPreviewSurface();
+            }
+            mDecimatedEnabled = enabled;
+            // 最大宽度可能变化，重新分配缩小后的缓冲
+            mDecimatedPreview.stop();
+            if (streaming) {
+                attachPreviewSurface();
+                updateFrameCallback();
             }
+        });
+    }
 
-            showToast(String.format("已应用格式: %s, %dx%d, %dfps",
-                    (size.type == UVCCamera.UVC_VS_FRAME_MJPEG ? "MJPEG" : "YUV"),
-                    size.width, size.height, size.fps));
+    /**
+     * 曝光是否由相机管理器接管：软件自动曝光开启或安装了距离分段预设时，
+     * 界面和保存的配置不应修改曝光模式、曝光时间和增益
+     */
+    public boolean isExposureManaged() {
+        return mSoftwareAeEnabled || mDistancePresets != null;
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "设置预览尺寸失败", e);
-            showToast("设置预览尺寸失败");
+    public DecimatedPreview getDecimatedPreview() {
+        return mDecimatedPreview;
+    }
 
-            try {
-                mCameraHelper.startPreview();
-                if (mContext instanceof MainActivity) {
-                    MainActivity activity = (MainActivity) mContext;
-                    SurfaceHolder holder = activity.getCameraPreview().getHolder();
-                    if (holder != null && holder.getSurface() != null && holder.getSurface().isValid()) {
-                        mCameraHelper.addSurface(holder.getSurface(), false);
-                    }
-                }
-            } catch (Exception ex) {
-                Log.e(TAG, "恢复预览失败", ex);
-            }
+    /**
+     * 获取帧总线，订阅后按完整帧率在订阅者自己的线程收到帧
+     * 需要在帧回调之后继续持有帧(写文件、分析)的消费者应订阅帧总线，而不是自行拷贝
+     */
+    public FrameBus getFrameBus() {
+        return mFrameBus;
+    }
+
+    /**
+     * 获取软件自动曝光，用于设置目标亮度和读取指标
+     */
+    public SoftwareAutoExposure getSoftwareAutoExposure() {
+        return mSoftwareAutoExposure;
+    }
+
+    /**
+     * 设置距离分段曝光预设，为null时关闭
+     * 设置后由 onDistance 按超声距离切换曝光时间和增益，软件自动曝光开启时不使用预设；
+     * 预设期间曝光由相机管理器接管，保存的配置不再写入曝光模式、曝光时间和增益
+     */
+    public void setDistanceExposurePresets(DistanceExposurePresets presets) {
+        if (presets != null) {
+            presets.invalidate();
         }
+        mDistancePresets = presets;
+        mCameraHandler.post(this::updateExposureManaged);
+    }
+
+    public DistanceExposurePresets getDistanceExposurePresets() {
+        return mDistancePresets;
+    }
+
+    /**
+     * 处理一次超声距离数据(cm)，在距离数据线程调用
+     * 只有距离分段变化时才提交控制写入，写入在相机线程执行，调用线程不等待
+     */
+    public void onDistance(int distanceCm) {
+        DistanceExposurePresets presets = mDistancePresets;
+        if (presets == null || mSoftwareAeEnabled) {
+            return;
+        }
+        int band = presets.update(distanceCm);
+        if (band < 0) {
+            return;
+        }
+
+        int exposure = presets.getExposure(band);
+        int gain = presets.getGain(band);
+        CompletionFuture<Boolean> future = submitControl(CONTROL_DISTANCE_PRESET, controls -> {
+            boolean written = controls.setAutoExposure(false);
+            written |= controls.setExposure(exposure);
+            if (gain > 0) {
+                written |= controls.setGain(gain);
+            }
+            return written;
+        });
+        future.addListener(() -> {
+            // 相机未打开或写入失败时，下次距离数据重新应用；被新的预设取代时不需要
+            if (future.getError() != null && !future.isCancelled()) {
+                presets.invalidate();
+            }
+        }, mCameraExecutor);
+    }
+
+    /**
+     * 获取视频流停顿监测，用于读取停顿次数和恢复耗时等指标
+     */
+    public StreamWatchdog getStreamWatchdog() {
+        return mStreamWatchdog;
     }
 
     public UVCControl getUVCControl() {
-        if (mCameraHelper != null && mIsCameraOpened.get()) {
-            return mCameraHelper.getUVCControl();
+        ICameraHelper helper = mCameraHelper;
+        if (helper != null && isStreamingState()) {
+            return helper.getUVCControl();
+        }
+        return null;
+    }
+
+    /**
+     * 在相机线程执行控制参数操作，不阻塞调用线程；相机未打开时结果以异常完成
+     * 与上一个尚未执行的请求合并键相同时(例如连续修改曝光时间)，只执行新的操作，被取代的请求以取消完成；
+     * 任务应写入确定的目标值而不是相对修改，合并后才不会丢失操作
+     */
+    public <T> CompletionFuture<T> submitControl(int mergeKey, ControlTask<T> task) {
+        CompletionFuture<T> future = new CompletionFuture<>();
+        PendingControl<?> superseded = null;
+        synchronized (mControlLock) {
+            ControlRequest request = mLastControl;
+            if (request == null || mergeKey == CONTROL_NO_MERGE || request.key != mergeKey) {
+                request = new ControlRequest(mergeKey);
+                mLastControl = request;
+                final ControlRequest posted = request;
+                mCameraHandler.post(() -> runControl(posted));
+            } else {
+                superseded = request.pending;
+            }
+            request.pending = new PendingControl<>(task, future);
+        }
+        if (superseded != null) {
+            superseded.future.cancel(false);
+        }
+        return future;
+    }
+
+    /**
+     * 获取当前相机的控制参数状态，只写入变化的参数，相机未打开时返回null
+     * 只能在相机线程使用，其他线程通过 submitControl 操作
+     */
+    public CameraControls getControls() {
+        if (isStreamingState()) {
+            return mControls;
         }
         return null;
     }
 
-    public List<com.serenegiant.usb.Format> getSupportedFormatList() {
-        if (mCameraHelper != null && mIsCameraOpened.get()) {
-            return mCameraHelper.getSupportedFormatList();
+    /**
+     * 获取当前相机的支持模式索引，相机未打开时返回null
+     */
+    public CameraCapabilities getCapabilities() {
+        if (isStreamingState()) {
+            return mCapabilities;
         }
         return null;
     }
 
+    private static final class ControlRequest {
+        final int key;
+        // 最后提交的任务，合并时被替换
+        PendingControl<?> pending;
+
+        ControlRequest(int key) {
+            this.key = key;
+        }
+    }
+
+    // 任务与它自己的结果，类型一致，合并时整体替换
+    private static final class PendingControl<T> {
+        final ControlTask<T> task;
+        final CompletionFuture<T> future;
+
+        PendingControl(ControlTask<T> task, CompletionFuture<T> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        void run(CameraControls controls) {
+            try {
+                future.complete(task.run(controls));
+            } catch (Exception e) {
+                Log.e(TAG, "控制参数操作失败", e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // 相机线程：执行控制参数请求，开始执行后不再接受合并
+    private void runControl(ControlRequest request) {
+        PendingControl<?> pending;
+        synchronized (mControlLock) {
+            if (mLastControl == request) {
+                mLastControl = null;
+            }
+            pending = request.pending;
+        }
+
+        CameraControls controls = mControls;
+        if (!isStreamingState() || controls == null) {
+            pending.future.completeExceptionally(new IllegalStateException("相机未打开"));
+            return;
+        }
+        pending.run(controls);
+    }
+
+    private boolean isStreamingState() {
+        int state = mState;
+        return state == STATE_STREAMING || state == STATE_RECONFIGURING;
+    }
+
     private void showToast(String message) {
         if (mContext != null) {
-            new Handler(Looper.getMainLooper()).post(() ->
+            mMainHandler.post(() ->
                     Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show());
         }
     }
 
-    private final ICameraHelper.StateCallback mUVCStateListener = new ICameraHelper.StateCallback() {
-        @Override
-        public void onAttach(UsbDevice device) {
-            Log.v(TAG, "onAttach: " + device.getDeviceName());
-            if (mStateListener != null) {
-                mStateListener.onDeviceAttached(device);
+    // ==================== 相机线程：状态机 ====================
+
+    private void setState(int state) {
+        if (mState != state) {
+            Log.d(TAG, "状态: " + STATE_NAMES[mState] + " -> " + STATE_NAMES[state]);
+            mState = state;
+        }
+    }
+
+    // 相机助手回调事件，携带发出事件的助手以区分已释放的旧助手
+    private static class CameraEvent {
+        final ICameraHelper helper;
+        final UsbDevice device;
+
+        CameraEvent(ICameraHelper helper, UsbDevice device) {
+            this.helper = helper;
+            this.device = device;
+        }
+    }
+
+    private boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_INIT:
+                handleInit();
+                break;
+            case MSG_RELEASE:
+                handleRelease();
+                break;
+            case MSG_OPEN:
+                handleOpen();
+                break;
+            case MSG_CLOSE:
+                handleClose();
+                break;
+            case MSG_RECONFIGURE:
+                handleReconfigure();
+                break;
+            case MSG_CLOSE_TIMEOUT:
+                Log.w(TAG, "等待相机关闭回调超时 (" + CAMERA_CLOSE_TIMEOUT_MS + "ms)");
+                onCameraClosed();
+                break;
+            case MSG_RELEASE_TIMEOUT:
+                Log.w(TAG, "等待设备关闭回调超时 (" + DEVICE_CLOSE_TIMEOUT_MS + "ms)");
+                finishRelease();
+                break;
+            case MSG_FRAME_TIMEOUT:
+                if (isStreamingState() && mAwaitingFrame) {
+                    if (mStreamWatchdog.isStalled()) {
+                        // 停顿恢复中的模式之前可以出流，由停顿监测继续重新打开，不降级
+                        Log.w(TAG, "恢复后 " + FRAME_TIMEOUT_MS + "ms 内仍未收到画面，等待停顿监测处理");
+                        break;
+                    }
+                    Log.w(TAG, "开流后 " + FRAME_TIMEOUT_MS + "ms 内未收到画面");
+                    cancelFrameCheck();
+                    onStreamFailed(mPreviewSize);
+                }
+                break;
+            default:
+                handleCameraEvent(msg.what, (CameraEvent) msg.obj);
+                break;
+        }
+        return true;
+    }
+
+    private void handleInit() {
+        if (mReleasingHelper != null) {
+            // 上一个相机助手尚未释放完成，等设备关闭后再创建，避免抢占USB设备
+            Log.d(TAG, "等待上一个设备关闭后再初始化");
+            mPendingInit = true;
+            return;
+        }
+
+        if (mCameraHelper == null) {
+            mCameraHelper = new CameraHelper();
+            mCameraHelper.setStateCallback(new UVCStateCallback(mCameraHelper));
+            setState(STATE_DETACHED);
+        }
+    }
+
+    private void handleRelease() {
+        mPendingInit = false;
+        mPendingOpen = false;
+        mStreamWatchdog.reset();
+
+        if (mCameraHelper == null) {
+            if (mReleasingHelper == null) {
+                completeFuture(false);
             }
-            mCameraHelper.selectDevice(device);
+            return;
         }
 
-        @Override
-        public void onDeviceOpen(UsbDevice device, boolean isFirstOpen) {
-            Log.v(TAG, "onDeviceOpen: " + isFirstOpen);
-            mCameraHelper.openCamera();
+        switch (mState) {
+            case STATE_OPENING:
+            case STATE_STREAMING:
+            case STATE_RECONFIGURING:
+                mReleaseAfterClose = true;
+                startClose();
+                break;
+            case STATE_CLOSING:
+                mReleaseAfterClose = true;
+                break;
+            default:
+                releaseHelper();
+                break;
         }
+    }
 
-        @Override
-        public void onCameraOpen(UsbDevice device) {
-            Log.v(TAG, "onCameraOpen");
+    private void releaseHelper() {
+        mReleaseAfterClose = false;
+        mReleasingHelper = mCameraHelper;
+        mCameraHelper = null;
+        mCurrentDevice = null;
+        mCapabilities = null;
+        mControls = null;
+        setState(STATE_DETACHED);
+
+        mReleasingHelper.release();
+        mCameraHandler.sendEmptyMessageDelayed(MSG_RELEASE_TIMEOUT, DEVICE_CLOSE_TIMEOUT_MS);
+    }
+
+    private void finishRelease() {
+        mCameraHandler.removeMessages(MSG_RELEASE_TIMEOUT);
+        mReleasingHelper = null;
+        completeFuture(false);
+
+        if (mPendingInit) {
+            mPendingInit = false;
+            handleInit();
+        }
+    }
+
+    private void handleOpen() {
+        if (mCameraHelper == null) {
+            showToast("相机初始化中");
+            return;
+        }
 
-            mCurrentVendorId = device.getVendorId();
-            mCurrentProductId = device.getProductId();
-            mIsCameraOpened.set(true);
-
-            // 先加载并应用配置
-            loadSavedCameraParameters();
-
-            // 添加短暂延时确保配置已应用，然后再获取预览尺寸
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                // 在延时后获取当前尺寸(此时应已是配置的值)并更新预览框
-                Size size = getPreviewSize();
-                if (size != null && mContext instanceof MainActivity) {
-                    MainActivity activity = (MainActivity) mContext;
-                    activity.runOnUiThread(() ->
-                            activity.getCameraPreview().setAspectRatio(size.width, size.height));
+        switch (mState) {
+            case STATE_OPENING:
+                Log.d(TAG, "相机正在打开，忽略重复请求");
+                break;
+            case STATE_STREAMING:
+            case STATE_RECONFIGURING:
+                showToast("相机已经打开");
+                break;
+            case STATE_CLOSING:
+                // 相机正在关闭，关闭回调到达后再打开
+                Log.d(TAG, "等待相机关闭后再打开");
+                mPendingOpen = true;
+                break;
+            default:
+                UsbDevice device = findDevice(mCameraHelper.getDeviceList(), mPreferredIdentity, mExclusive);
+                if (device != null) {
+                    selectDevice(device);
+                } else if (mExclusive) {
+                    showToast("没有找到相机: " + mPreferredIdentity);
+                } else {
+                    showToast("没有找到相机设备");
                 }
+                break;
+        }
+    }
+
+    // 按标识选择设备：序列号或设备路径一致的优先，其次同型号的设备，没有指定相机或都不匹配时选择第一台
+    // exclusive 时只接受序列号或设备路径一致的设备
+    private static UsbDevice findDevice(List<UsbDevice> list, CameraIdentity identity, boolean exclusive) {
+        if (list == null || list.isEmpty()) {
+            return null;
+        }
+        if (identity == null) {
+            return list.get(0);
+        }
+
+        UsbDevice sameModel = null;
+        for (UsbDevice device : list) {
+            if (identity.matches(device)) {
+                return device;
+            }
+            if (exclusive) {
+                continue;
+            }
+            if (sameModel == null && device.getVendorId() == identity.getVendorId()
+                    && device.getProductId() == identity.getProductId()) {
+                sameModel = device;
+            }
+        }
+        if (exclusive) {
+            return null;
+        }
+        if (sameModel == null) {
+            Log.w(TAG, "未找到指定的相机: " + identity + "，打开第一台相机");
+        }
+        return sameModel != null ? sameModel : list.get(0);
+    }
 
-                // 通知监听器
+    private void selectDevice(UsbDevice device) {
+        mCurrentDevice = device;
+        setState(STATE_OPENING);
+        mCameraHelper.selectDevice(device);
+    }
+
+    private void handleClose() {
+        mStreamWatchdog.reset();
+        switch (mState) {
+            case STATE_OPENING:
+            case STATE_STREAMING:
+            case STATE_RECONFIGURING:
+                startClose();
+                break;
+            case STATE_CLOSING:
+                // 已在关闭中，等待回调
+                break;
+            default:
+                mPendingOpen = false;
+                completeFuture(true);
+                break;
+        }
+    }
+
+    private void startClose() {
+        mPendingOpen = false;
+        mCloseStartTime = SystemClock.elapsedRealtime();
+        setState(STATE_CLOSING);
+
+        cancelFrameCheck();
+        mStreamWatchdog.stop();
+        mSoftwareAutoExposure.stop();
+        mDecimatedPreview.stop();
+        mFrameFormat = null;
+        try {
+            Log.d(TAG, "停止预览");
+            mCameraHelper.setFrameCallback(null, UVCCamera.PIXEL_FORMAT_NV21);
+            mCameraHelper.stopPreview();
+            detachPreviewSurface();
+
+            Log.d(TAG, "正在关闭相机");
+            mCameraHelper.closeCamera();
+        } catch (Exception e) {
+            Log.e(TAG, "关闭相机时出错", e);
+        }
+
+        mCameraHandler.sendEmptyMessageDelayed(MSG_CLOSE_TIMEOUT, CAMERA_CLOSE_TIMEOUT_MS);
+    }
+
+    // 相机已关闭(回调到达或超时)
+    private void onCameraClosed() {
+        mCameraHandler.removeMessages(MSG_CLOSE_TIMEOUT);
+        boolean wasOpen = mState != STATE_ATTACHED && mState != STATE_DETACHED;
+        if (mState == STATE_CLOSING) {
+            Log.d(TAG, "相机已关闭，耗时: " + (SystemClock.elapsedRealtime() - mCloseStartTime) + "ms");
+        }
+
+        mSurfaceAttached = false;
+        mCapabilities = null;
+        mControls = null;
+        mFallbackLadder = null;
+        cancelFrameCheck();
+        mStreamWatchdog.stop();
+        mSoftwareAutoExposure.stop();
+        mDecimatedPreview.stop();
+        mFrameFormat = null;
+        setState(mCameraHelper != null ? STATE_ATTACHED : STATE_DETACHED);
+        completeFuture(true);
+
+        if (wasOpen && mStateListener != null) {
+            mMainHandler.post(() -> {
                 if (mStateListener != null) {
-                    mStateListener.onCameraOpened(device, size);
+                    mStateListener.onCameraClosed();
                 }
+            });
+        }
 
-                // 开始预览
-                startCameraPreview();
-            }, 100); // 短暂延迟让设置生效
+        if (mReleaseAfterClose) {
+            releaseHelper();
+        } else if (mPendingOpen) {
+            mPendingOpen = false;
+            handleOpen();
         }
+    }
 
-        @Override
-        public void onCameraClose(UsbDevice device) {
-            Log.v(TAG, "onCameraClose");
+    private void handleReconfigure() {
+        Size size;
+        synchronized (mPendingLock) {
+            size = mPendingSize;
+        }
+        if (size == null) {
+            return;
+        }
+
+        switch (mState) {
+            case STATE_OPENING:
+                // 打开完成后再应用
+                return;
+            case STATE_STREAMING:
+                if (isSameMode(size, mPreviewSize)) {
+                    Log.d(TAG, "预览参数未变化，忽略切换请求");
+                } else {
+                    // 用户主动切换模式时放弃进行中的降级
+                    mFallbackLadder = null;
+                    applyPreviewSize(size);
+                }
+                break;
+            default:
+                Log.w(TAG, "无法设置预览尺寸：相机未打开");
+                break;
+        }
 
-            synchronized(mCameraLock) {
-                if (mCameraHelper != null) {
-                    try {
-                        if (mContext instanceof MainActivity) {
-                            MainActivity activity = (MainActivity) mContext;
-                            SurfaceHolder holder = activity.getCameraPreview().getHolder();
-                            if (holder != null && holder.getSurface() != null && holder.getSurface().isValid()) {
-                                mCameraHelper.removeSurface(holder.getSurface());
-                            }
+        synchronized (mPendingLock) {
+            if (mPendingSize == size) {
+                mPendingSize = null;
+            }
+        }
+    }
+
+    private void handleCameraEvent(int what, CameraEvent event) {
+        if (event.helper != mCameraHelper) {
+            // 已释放的旧助手只关心设备关闭事件
+            if (event.helper == mReleasingHelper && what == MSG_DEVICE_CLOSE) {
+                finishRelease();
+            }
+            return;
+        }
+
+        switch (what) {
+            case MSG_ATTACH:
+                notifyDeviceAttached(event.device);
+                if (mState == STATE_DETACHED || mState == STATE_ATTACHED) {
+                    setState(STATE_ATTACHED);
+                    // 连接了多台相机时，优先打开指定的相机
+                    UsbDevice device = event.device;
+                    CameraIdentity preferred = mPreferredIdentity;
+                    if (preferred != null && !preferred.matches(device)) {
+                        UsbDevice match = findDevice(mCameraHelper.getDeviceList(), preferred, true);
+                        if (match != null) {
+                            device = match;
+                        } else if (mExclusive) {
+                            // 绑定的相机尚未连接，不打开其他实例的相机
+                            break;
                         }
-                        mCameraHelper.stopPreview();
-                    } catch (Exception e) {
-                        Log.e(TAG, "停止预览失败", e);
                     }
+                    selectDevice(device);
+                }
+                break;
+            case MSG_DEVICE_OPEN:
+                if (mState == STATE_OPENING) {
+                    openCameraWithSavedSize(event.device);
+                }
+                break;
+            case MSG_CAMERA_OPEN:
+                if (mState == STATE_OPENING) {
+                    onCameraOpened(event.device);
+                }
+                break;
+            case MSG_CAMERA_CLOSE:
+                onCameraClosed();
+                break;
+            case MSG_DEVICE_CLOSE:
+            case MSG_DETACH:
+                if (mState != STATE_ATTACHED && mState != STATE_DETACHED) {
+                    onCameraClosed();
                 }
+                if (what == MSG_DETACH) {
+                    mCurrentDevice = null;
+                    setState(STATE_DETACHED);
+                }
+                break;
+            case MSG_CANCEL:
+                if (mState == STATE_OPENING) {
+                    setState(STATE_ATTACHED);
+                }
+                break;
+            case MSG_FIRST_FRAME:
+                if (isStreamingState()) {
+                    cancelFrameCheck();
+                    onStreamConfirmed();
+                    if (mStreamWatchdog.isEnabled()) {
+                        // 保留帧回调，由停顿监测记录每帧时间
+                        mStreamWatchdog.start();
+                    }
+                    if (mSoftwareAeEnabled) {
+                        startSoftwareAutoExposure();
+                    }
+                    updateFrameCallback();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // 设备打开后直接以保存的预览参数打开相机，避免先按默认参数开流再切换
+    private void openCameraWithSavedSize(UsbDevice device) {
+        int vendorId = device.getVendorId();
+        int productId = device.getProductId();
+        mCurrentVendorId = vendorId;
+        mCurrentProductId = productId;
+        // 已取得设备权限，可以读取序列号
+        CameraIdentity identity = CameraIdentity.of(device);
+        mCurrentIdentity = identity;
+        mPreferredIdentity = identity;
+        Log.d(TAG, "相机标识: " + identity);
+        CameraConfig savedConfig = ConfigManager.loadConfig(mContext, identity);
+        mSavedSize = savedConfig != null ? savedConfig.getPreviewSize() : null;
+        installDistancePresets(savedConfig);
+        // 配置已在相机线程读入缓存，配置方案在写线程预先读入，主线程加载时不再读文件
+        ConfigManager.preload(mContext, identity);
+
+        // 已缓存模式索引时，在打开前将保存参数解析为最接近的支持模式，避免以无效参数开流
+        Size openSize = mSavedSize;
+        CameraCapabilities cached = CameraCapabilities.getCached(mContext, vendorId, productId);
+        if (cached != null && !cached.isEmpty()) {
+            openSize = openSize != null ? resolveNearestSize(cached, openSize) : planDefaultSize(cached);
+        }
+
+        if (openSize != null) {
+            Log.d(TAG, "以保存的参数打开相机: 格式=" + openSize.type +
+                    ", 分辨率=" + openSize.width + "x" + openSize.height +
+                    ", 帧率=" + openSize.fps);
+            mCameraHelper.openCamera(openSize);
+        } else {
+            mCameraHelper.openCamera();
+        }
+    }
+
+    private void onCameraOpened(UsbDevice device) {
+        mCurrentVendorId = device.getVendorId();
+        mCurrentProductId = device.getProductId();
+        // 同型号相机只解析一次格式描述符，之后从缓存读取
+        ICameraHelper helper = mCameraHelper;
+        mCapabilities = CameraCapabilities.get(mContext, mCurrentVendorId, mCurrentProductId,
+                helper::getSupportedFormatList);
+        UVCControl control = helper.getUVCControl();
+        mControls = control != null ? new CameraControls(control) : null;
+        updateExposureManaged();
+        DistanceExposurePresets presets = mDistancePresets;
+        if (presets != null) {
+            // 新打开的相机需要重新应用当前距离分段
+            presets.invalidate();
+        }
 
-                mIsCameraOpened.set(false);
+        StartupTrace.mark(StartupTrace.CAMERA_OPEN);
+        mOpenTimestamp = SystemClock.elapsedRealtime();
+
+        // 确定最终的预览参数：打开过程中收到的切换请求优先，其次是验证后的保存参数
+        Size target = resolveOpenSize();
+        Size opened = mCameraHelper.getPreviewSize();
+        try {
+            if (target != null && (opened == null || !isSameMode(target, opened))) {
+                // 预览尚未开始，这里设置参数不会触发额外的开流
+                Log.d(TAG, "打开后调整预览参数: 格式=" + target.type +
+                        ", 分辨率=" + target.width + "x" + target.height +
+                        ", 帧率=" + target.fps);
+                mCameraHelper.setPreviewSize(target);
             }
+        } catch (Exception e) {
+            Log.e(TAG, "设置预览尺寸失败", e);
+        }
+
+        Size actualSize = mCameraHelper.getPreviewSize();
+        if (actualSize != null) {
+            mPreviewSize = copySize(actualSize);
+        } else if (target != null) {
+            mPreviewSize = copySize(target);
+        }
+
+        // 只开一次流
+        boolean started = startCameraPreview();
+        setState(STATE_STREAMING);
 
+        final Size size = getPreviewSize();
+        mMainHandler.post(() -> {
             if (mStateListener != null) {
-                mStateListener.onCameraClosed();
+                mStateListener.onCameraOpened(device, size);
             }
+        });
+
+        if (!started) {
+            onStreamFailed(size);
         }
+    }
 
-        @Override
-        public void onDeviceClose(UsbDevice device) {
-            Log.v(TAG, "onDeviceClose");
+    // 开始等待首帧，超时未收到按开流失败处理
+    private void armFrameCheck() {
+        mAwaitingFrame = true;
+        mFrameFormat = null;
+        // RAW格式不做像素转换，每帧的开销只有一次回调
+        mCameraHelper.setFrameCallback(mFrameCallback, UVCCamera.PIXEL_FORMAT_RAW);
+        mCameraHandler.removeMessages(MSG_FRAME_TIMEOUT);
+        mCameraHandler.sendEmptyMessageDelayed(MSG_FRAME_TIMEOUT, FRAME_TIMEOUT_MS);
+        // 停顿恢复中重新开流时随开流启动停顿监测，而不是等待首帧：
+        // 新的流一直没有画面时，继续按加倍的间隔重新打开相机。正常开流没有画面时由首帧超时降级处理
+        if (mStreamWatchdog.isStalled()) {
+            mStreamWatchdog.start();
         }
+    }
 
-        @Override
-        public void onDetach(UsbDevice device) {
-            Log.v(TAG, "onDetach");
+    private void cancelFrameCheck() {
+        mAwaitingFrame = false;
+        mCameraHandler.removeMessages(MSG_FRAME_TIMEOUT);
+    }
+
+    // 当前模式开流失败或超时无画面，按降级阶梯切换到下一个更省带宽的模式
+    private void onStreamFailed(Size failed) {
+        if (mFallbackLadder == null) {
+            CameraCapabilities capabilities = mCapabilities;
+            if (capabilities == null || capabilities.isEmpty()) {
+                Log.e(TAG, "无法获取相机支持的格式列表，无法降级");
+                showToast("相机无法出流");
+                return;
+            }
+            mFallbackOrigin = CameraCapabilities.mode(failed);
+            mFallbackLadder = ModeFallbackLadder.build(capabilities, failed);
+            mFallbackStep = 0;
         }
 
-        @Override
-        public void onCancel(UsbDevice device) {
-            Log.v(TAG, "onCancel");
+        if (mFallbackStep >= mFallbackLadder.length) {
+            Log.e(TAG, "降级阶梯已用尽，相机无法出流");
+            showToast("相机无法出流，请检查USB连接");
+            mFallbackLadder = null;
+            return;
         }
-    };
 
-    private void startCameraPreview() {
-        synchronized(mCameraLock) {
-            try {
-                if (mCameraHelper != null && mIsCameraOpened.get()) {
-                    mCameraHelper.startPreview();
-                    Log.d(TAG, "相机预览已启动");
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "启动预览失败", e);
-            }
+        Size next = CameraCapabilities.toSize(mFallbackLadder[mFallbackStep++]);
+        Log.w(TAG, "降级第" + mFallbackStep + "步: 格式=" + next.type +
+                ", 分辨率=" + next.width + "x" + next.height +
+                ", 帧率=" + next.fps);
+        applyPreviewSize(next);
+    }
+
+    // 视频流停顿，按停顿监测给出的动作恢复
+    private void onStreamStalled(int action, long stalledMs) {
+        if (mState != STATE_STREAMING || mCameraHelper == null) {
+            return;
+        }
+
+        if (action == StreamWatchdog.ACTION_RESTART_PREVIEW) {
+            restartPreview();
+        } else {
+            reopenCamera();
         }
     }
 
-    private void loadSavedCameraParameters() {
+    // 以当前参数重启预览，不关闭相机
+    private void restartPreview() {
+        setState(STATE_RECONFIGURING);
         try {
-            // 先获取相机支持的格式列表
-            List<Format> supportedFormats = mCameraHelper.getSupportedFormatList();
-            if (supportedFormats == null || supportedFormats.isEmpty()) {
-                Log.w(TAG, "无法获取相机支持的格式列表，使用默认参数");
+            detachPreviewSurface();
+            mCameraHelper.stopPreview();
+            mCameraHelper.startPreview();
+            attachPreviewSurface();
+        } catch (Exception e) {
+            Log.e(TAG, "重启预览失败", e);
+        } finally {
+            setState(STATE_STREAMING);
+        }
+    }
+
+    // 关闭后以当前参数重新打开相机
+    private void reopenCamera() {
+        synchronized (mPendingLock) {
+            mPendingSize = copySize(mPreviewSize);
+        }
+        startClose();
+        mPendingOpen = true;
+    }
+
+    // 启动软件自动曝光，按当前模式选择帧格式：YUYV直接读取，MJPEG由库解码为NV21
+    private void startSoftwareAutoExposure() {
+        CameraControls controls = mControls;
+        if (controls == null) {
+            return;
+        }
+
+        try {
+            int[] exposureLimits = controls.isExposureSupported() ? controls.getExposureLimits() : null;
+            if (exposureLimits == null) {
+                Log.w(TAG, "相机不支持调整曝光时间，无法启用软件自动曝光");
                 return;
             }
+            controls.setAutoExposure(false);
+
+            Size size = mPreviewSize;
+            boolean yuyv = size.type == UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
+            boolean gainSupported = controls.isGainSupported();
+            mSoftwareAutoExposure.start(size.width, size.height, yuyv ? 2 : 1,
+                    controls.getExposure(), exposureLimits,
+                    gainSupported ? controls.getGain() : 0, gainSupported ? controls.getGainLimits() : null);
+            updateFrameCallback();
+        } catch (Exception e) {
+            Log.e(TAG, "启动软件自动曝光失败", e);
+        }
+    }
 
-            // 构建可用的格式映射，用于验证
-            HashMap<Integer, List<Size>> supportedSizesMap = buildSupportedSizesMap(supportedFormats);
-
-            // 加载保存的配置
-            JSONObject config = ConfigManager.loadConfig(mContext, mCurrentVendorId, mCurrentProductId);
-            Size configSize = null;
+    // 接管状态写入控制参数状态，之后执行的批量应用不再覆盖曝光
+    private void updateExposureManaged() {
+        CameraControls controls = mControls;
+        if (controls != null) {
+            controls.setExposureManaged(isExposureManaged());
+        }
+    }
 
-            if (config != null) {
-                int format = config.optInt("format", mPreviewFormat);
-                int width = config.optInt("width", mPreviewWidth);
-                int height = config.optInt("height", mPreviewHeight);
-                int fps = config.optInt("fps", mPreviewFps);
+    private void stopSoftwareAutoExposure() {
+        if (!mSoftwareAutoExposure.isRunning()) {
+            return;
+        }
+        mSoftwareAutoExposure.stop();
+        updateFrameCallback();
+    }
 
-                Log.d(TAG, "加载已保存的相机参数: 格式=" + format +
-                        ", 分辨率=" + width + "x" + height +
-                        ", 帧率=" + fps);
+    // 按当前的帧消费者注册帧回调：需要像素时YUYV模式直接读取原始数据，MJPEG模式由库解码为NV21；
+    // 只有停顿监测或首帧确认时用不做像素转换的RAW格式；都不需要时注销
+    private void updateFrameCallback() {
+        ICameraHelper helper = mCameraHelper;
+        if (helper == null || mState != STATE_STREAMING || mAwaitingFrame) {
+            // 开流和切换模式期间由首帧确认注册，收到首帧后再更新
+            return;
+        }
 
-                configSize = new Size(format, width, height, fps, null);
+        Size size = mPreviewSize;
+        int pixelFormat = size.type == UVCCamera.UVC_VS_FRAME_UNCOMPRESSED
+                ? UVCCamera.PIXEL_FORMAT_RAW : UVCCamera.PIXEL_FORMAT_NV21;
+        boolean previewActive = mDecimatedEnabled && mSurfaceAttached;
+        if (previewActive) {
+            mDecimatedPreview.start(size.width, size.height, pixelFormat);
+        } else {
+            mDecimatedPreview.stop();
+        }
 
-                // 验证配置的参数是否被相机支持
-                if (isSizeSupported(configSize, supportedSizesMap)) {
-                    Log.d(TAG, "配置的参数受支持，应用配置");
-                    setPreviewSize(configSize);
-                    return;
-                } else {
-                    Log.w(TAG, "配置的参数不受支持，将使用第一组支持的参数");
-                }
+        boolean needPixels = previewActive || mSoftwareAutoExposure.isRunning() || mFrameBus.hasSubscribers();
+        FrameFormat current = mFrameFormat;
+        if (needPixels) {
+            if (current == null || current.pixelFormat != pixelFormat
+                    || current.width != size.width || current.height != size.height) {
+                mFrameFormat = null;
+                helper.setFrameCallback(mFrameCallback, pixelFormat);
+                mFrameFormat = new FrameFormat(size.width, size.height, pixelFormat);
+            }
+        } else {
+            mFrameFormat = null;
+            if (mStreamWatchdog.isEnabled()) {
+                helper.setFrameCallback(mFrameCallback, UVCCamera.PIXEL_FORMAT_RAW);
             } else {
-                Log.d(TAG, "未找到已保存的配置，将使用第一组支持的参数");
+                helper.setFrameCallback(null, UVCCamera.PIXEL_FORMAT_NV21);
             }
+        }
+    }
 
-            // 如果配置不存在或不受支持，使用第一组支持的参数
-            Size firstSupportedSize = getFirstSupportedSize(supportedSizesMap);
-            if (firstSupportedSize != null) {
-                Log.d(TAG, "使用第一组受支持的参数: 格式=" + firstSupportedSize.type +
-                        ", 分辨率=" + firstSupportedSize.width + "x" + firstSupportedSize.height +
-                        ", 帧率=" + firstSupportedSize.fps);
+    // 帧回调线程：软件自动曝光的控制写入交给相机线程，写入完成后才进行下一次调整
+    private void writeSoftwareExposure(int exposure, int gain) {
+        CompletionFuture<Boolean> future = submitControl(CONTROL_EXPOSURE_LOOP, controls -> {
+            boolean written = controls.setExposure(exposure);
+            if (gain >= 0) {
+                written |= controls.setGain(gain);
+            }
+            return written;
+        });
+        future.addListener(mSoftwareAutoExposure::onWriteComplete, mCameraExecutor);
+    }
 
-                // 应用第一组支持的参数
-                setPreviewSize(firstSupportedSize);
+    // 收到首帧，当前模式可以出流
+    private void onStreamConfirmed() {
+        long current = CameraCapabilities.mode(mPreviewSize);
+        if (mFallbackLadder != null) {
+            mFallbackLadder = null;
+            Size size = mPreviewSize;
+            Log.i(TAG, "降级成功: " + size.width + "x" + size.height + " " + size.fps + "fps");
+            ModeFallbackLadder.recordOutcome(mContext, mCurrentVendorId, mCurrentProductId,
+                    mFallbackOrigin, current);
+            showToast(String.format("原模式无法出流，已自动切换为: %s, %dx%d, %dfps",
+                    (size.type == UVCCamera.UVC_VS_FRAME_MJPEG ? "MJPEG" : "YUV"),
+                    size.width, size.height, size.fps));
+        } else {
+            ModeFallbackLadder.clearOutcome(mContext, mCurrentVendorId, mCurrentProductId, current);
+        }
+    }
 
-                // 更新配置文件，保存新使用的参数
-                saveNewConfigParameters(firstSupportedSize);
-            } else {
-                Log.e(TAG, "无法找到相机支持的参数，使用默认值");
+    private void completeFuture(boolean close) {
+        CompletionFuture<Void> future;
+        synchronized (mFutureLock) {
+            future = close ? mCloseFuture : mReleaseFuture;
+        }
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    private void notifyDeviceAttached(UsbDevice device) {
+        mMainHandler.post(() -> {
+            if (mStateListener != null) {
+                mStateListener.onDeviceAttached(device);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "加载已保存的相机参数失败", e);
+        });
+    }
+
+    private class UVCStateCallback implements ICameraHelper.StateCallback {
+        private final ICameraHelper mHelper;
+
+        UVCStateCallback(ICameraHelper helper) {
+            mHelper = helper;
+        }
+
+        private void post(int what, UsbDevice device) {
+            mCameraHandler.obtainMessage(what, new CameraEvent(mHelper, device)).sendToTarget();
+        }
+
+        @Override
+        public void onAttach(UsbDevice device) {
+            Log.v(TAG, "onAttach: " + device.getDeviceName());
+            post(MSG_ATTACH, device);
+        }
+
+        @Override
+        public void onDeviceOpen(UsbDevice device, boolean isFirstOpen) {
+            Log.v(TAG, "onDeviceOpen: " + isFirstOpen);
+            post(MSG_DEVICE_OPEN, device);
+        }
+
+        @Override
+        public void onCameraOpen(UsbDevice device) {
+            Log.v(TAG, "onCameraOpen");
+            post(MSG_CAMERA_OPEN, device);
+        }
+
+        @Override
+        public void onCameraClose(UsbDevice device) {
+            Log.v(TAG, "onCameraClose");
+            post(MSG_CAMERA_CLOSE, device);
+        }
+
+        @Override
+        public void onDeviceClose(UsbDevice device) {
+            Log.v(TAG, "onDeviceClose");
+            post(MSG_DEVICE_CLOSE, device);
+        }
+
+        @Override
+        public void onDetach(UsbDevice device) {
+            Log.v(TAG, "onDetach");
+            post(MSG_DETACH, device);
+        }
+
+        @Override
+        public void onCancel(UsbDevice device) {
+            Log.v(TAG, "onCancel");
+            post(MSG_CANCEL, device);
         }
     }
 
-    // 构建相机支持的格式映射
-    private HashMap<Integer, List<Size>> buildSupportedSizesMap(List<Format> supportedFormats) {
-        HashMap<Integer, List<Size>> result = new HashMap<>();
+    // 用于确认开流、记录首帧时间、停顿监测的帧时间戳，以及软件自动曝光、预览和帧总线的像素数据，都未开启时收到首帧后注销
+    private final IFrameCallback mFrameCallback = new IFrameCallback() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            mStreamWatchdog.onFrame();
+            FrameFormat format = mFrameFormat;
+            if (format != null) {
+                mSoftwareAutoExposure.onFrame(frame);
+                mDecimatedPreview.onFrame(frame);
+                mFrameBus.publish(frame, format.width, format.height, format.pixelFormat);
+            }
+            if (!mAwaitingFrame) {
+                return;
+            }
+            mAwaitingFrame = false;
 
-        for (Format format : supportedFormats) {
-            int type;
-            if (format.type == UVCCamera.UVC_VS_FORMAT_MJPEG) {
-                type = UVCCamera.UVC_VS_FRAME_MJPEG;
-            } else if (format.type == UVCCamera.UVC_VS_FORMAT_UNCOMPRESSED) {
-                type = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
-            } else {
-                continue;  // 跳过不支持的格式类型
+            long openTimestamp = mOpenTimestamp;
+            if (openTimestamp != 0) {
+                mOpenTimestamp = 0;
+                StartupTrace.mark(StartupTrace.FIRST_FRAME);
+                Log.i(TAG, "首帧耗时: " + (SystemClock.elapsedRealtime() - openTimestamp) + "ms");
             }
 
-            if (!result.containsKey(type)) {
-                result.put(type, new ArrayList<>());
+            ICameraHelper helper = mCameraHelper;
+            if (helper != null) {
+                mCameraHandler.obtainMessage(MSG_FIRST_FRAME, new CameraEvent(helper, null)).sendToTarget();
             }
+        }
+    };
 
-            List<Size> sizeList = result.get(type);
+    private boolean startCameraPreview() {
+        try {
+            armFrameCheck();
+            mCameraHelper.startPreview();
+            attachPreviewSurface();
+            Log.d(TAG, "相机预览已启动");
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "启动预览失败", e);
+            cancelFrameCheck();
+            return false;
+        }
+    }
 
-            // 为每个描述符和帧率创建Size对象
-            for (Format.Descriptor descriptor : format.frameDescriptors) {
-                for (Format.Interval interval : descriptor.intervals) {
-                    Size size = new Size(type, descriptor.width, descriptor.height, interval.fps, null);
-                    sizeList.add(size);
-                }
+    private void attachPreviewSurface() {
+        Surface surface = mPreviewSurface;
+        if (surface != null && surface.isValid()) {
+            if (mDecimatedEnabled) {
+                mDecimatedPreview.setSurface(surface);
+            } else {
+                mCameraHelper.addSurface(surface, false);
             }
+            mSurfaceAttached = true;
         }
+    }
 
-        return result;
+    private void detachPreviewSurface() {
+        Surface surface = mPreviewSurface;
+        if (mSurfaceAttached && surface != null) {
+            Log.d(TAG, "移除Surface");
+            if (mDecimatedEnabled) {
+                mDecimatedPreview.detachSurface(surface);
+            } else if (surface.isValid()) {
+                mCameraHelper.removeSurface(surface);
+            }
+        }
+        mSurfaceAttached = false;
     }
 
-    // 检查指定的Size是否被相机支持
-    private boolean isSizeSupported(Size size, HashMap<Integer, List<Size>> supportedSizesMap) {
-        if (!supportedSizesMap.containsKey(size.type)) {
-            return false;
+    // 在相机线程切换预览参数：停止预览、设置参数、重新开始预览
+    private void applyPreviewSize(Size size) {
+        mStreamWatchdog.stop();
+        // 帧尺寸和格式会变化，收到新模式的首帧后重新启动
+        mSoftwareAutoExposure.stop();
+        mDecimatedPreview.stop();
+        boolean streaming = mState == STATE_STREAMING;
+        if (streaming) {
+            setState(STATE_RECONFIGURING);
         }
 
-        List<Size> sizeList = supportedSizesMap.get(size.type);
-        for (Size supportedSize : sizeList) {
-            if (supportedSize.width == size.width &&
-                    supportedSize.height == size.height &&
-                    supportedSize.fps == size.fps) {
-                return true;
+        try {
+            Log.d(TAG, "设置预览尺寸: " + size.type + ", " +
+                    size.width + "x" + size.height + ", " + size.fps + "fps");
+
+            detachPreviewSurface();
+            mCameraHelper.stopPreview();
+            mCameraHelper.setPreviewSize(size);
+            mPreviewSize = copySize(size);
+            armFrameCheck();
+            mCameraHelper.startPreview();
+            attachPreviewSurface();
+
+            notifyPreviewSizeChanged(size);
+
+            showToast(String.format("已应用格式: %s, %dx%d, %dfps",
+                    (size.type == UVCCamera.UVC_VS_FRAME_MJPEG ? "MJPEG" : "YUV"),
+                    size.width, size.height, size.fps));
+
+        } catch (Exception e) {
+            Log.e(TAG, "设置预览尺寸失败", e);
+            cancelFrameCheck();
+
+            // 不再以同一模式重试，按降级阶梯切换到更省带宽的模式
+            onStreamFailed(size);
+        } finally {
+            if (streaming) {
+                setState(STATE_STREAMING);
             }
         }
+    }
+
+    private void notifyPreviewSizeChanged(Size size) {
+        final Size copy = copySize(size);
+        mMainHandler.post(() -> {
+            if (mStateListener != null) {
+                mStateListener.onPreviewSizeChanged(copy);
+            }
+        });
+    }
+
+    private static Size copySize(Size size) {
+        return new Size(size.type, size.width, size.height, size.fps, null);
+    }
 
-        return false;
+    private static boolean isSameMode(Size a, Size b) {
+        return a.type == b.type && a.width == b.width && a.height == b.height && a.fps == b.fps;
     }
 
-    // 获取第一组支持的参数
-    private Size getFirstSupportedSize(HashMap<Integer, List<Size>> supportedSizesMap) {
-        // 优先尝试MJPEG格式
-        if (supportedSizesMap.containsKey(UVCCamera.UVC_VS_FRAME_MJPEG) &&
-                !supportedSizesMap.get(UVCCamera.UVC_VS_FRAME_MJPEG).isEmpty()) {
-            return supportedSizesMap.get(UVCCamera.UVC_VS_FRAME_MJPEG).get(0);
+    // 按相机配置安装距离分段曝光预设，配置没有分段或分段无效时关闭
+    private void installDistancePresets(CameraConfig config) {
+        DistanceExposurePresets presets = null;
+        try {
+            presets = DistanceExposurePresets.fromConfig(config);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "距离分段曝光配置无效: " + e.getMessage());
         }
+        if (presets != null) {
+            Log.d(TAG, "距离分段曝光: " + presets.getBandCount() + " 段");
+        }
+        setDistanceExposurePresets(presets);
+        // 在相机线程调用，立即更新接管状态，之后的批量应用按新的预设决定是否写入曝光
+        updateExposureManaged();
+    }
 
-        // 其次尝试YUV格式
-        if (supportedSizesMap.containsKey(UVCCamera.UVC_VS_FRAME_UNCOMPRESSED) &&
-                !supportedSizesMap.get(UVCCamera.UVC_VS_FRAME_UNCOMPRESSED).isEmpty()) {
-            return supportedSizesMap.get(UVCCamera.UVC_VS_FRAME_UNCOMPRESSED).get(0);
+    // 确定相机打开后使用的预览参数，返回null表示保持相机当前参数
+    private Size resolveOpenSize() {
+        Size pending;
+        synchronized (mPendingLock) {
+            pending = mPendingSize;
+            mPendingSize = null;
         }
 
+        try {
+            CameraCapabilities capabilities = mCapabilities;
+            if (capabilities == null || capabilities.isEmpty()) {
+                Log.w(TAG, "无法获取相机支持的格式列表，使用默认参数");
+                return null;
+            }
+
+            if (pending != null) {
+                Log.d(TAG, "应用打开过程中请求的参数");
+                return resolveNearestSize(capabilities, pending);
+            }
+
+            Size configSize = mSavedSize;
+            if (configSize != null) {
+                Log.d(TAG, "加载已保存的相机参数: 格式=" + configSize.type +
+                        ", 分辨率=" + configSize.width + "x" + configSize.height +
+                        ", 帧率=" + configSize.fps);
+                return resolveNearestSize(capabilities, configSize);
+            }
+
+            Log.d(TAG, "未找到已保存的配置，自动选择模式");
+            return planDefaultSize(capabilities);
+        } catch (Exception e) {
+            Log.e(TAG, "加载已保存的相机参数失败", e);
+        }
         return null;
     }
 
-    // 保存新的配置参数
-    private void saveNewConfigParameters(Size size) {
-        if (size == null) return;
+    // 目标参数受支持时原样返回(与在界面中直接选择该模式一致，不受带宽预算限制)，
+    // 否则返回预算内最接近的支持模式；不修改保存的配置
+    private Size resolveNearestSize(CameraCapabilities capabilities, Size target) {
+        // 已知在本设备上无法出流的模式，直接使用上次降级成功的模式
+        long working = ModeFallbackLadder.getWorkingMode(mContext, mCurrentVendorId, mCurrentProductId,
+                CameraCapabilities.mode(target));
+        if (working >= 0 && capabilities.isSupported(working)) {
+            Log.d(TAG, "参数曾无法出流，使用已记录的降级模式");
+            target = CameraCapabilities.toSize(working);
+        }
 
-        int exposure = 0;
-        int gain = 0;
-        int triggerPeriod = 0;
-        int isAutoExposure = 1;  // 默认自动曝光
-        int isColorMode = 1;     // 默认彩色模式
+        if (capabilities.isSupported(target)) {
+            return target;
+        }
 
-        // 尝试从已有配置读取其他参数
-        JSONObject config = ConfigManager.loadConfig(mContext, mCurrentVendorId, mCurrentProductId);
-        if (config != null) {
-            exposure = config.optInt("exposure", 0);
-            gain = config.optInt("gain", 0);
-            triggerPeriod = config.optInt("triggerPeriod", 0);
-            isAutoExposure = config.optInt("isAutoExposure", 1);
-            isColorMode = config.optInt("isColorMode", 1);
+        Size nearest = new ModeResolver(capabilities, mModePlanner).resolve(target);
+        if (nearest == null) {
+            // 预算内没有任何模式时，不再限制带宽
+            nearest = new ModeResolver(capabilities).resolve(target);
+        }
+        if (nearest != null) {
+            Log.w(TAG, "参数不受支持，使用最接近的模式: 格式=" + nearest.type +
+                    ", 分辨率=" + nearest.width + "x" + nearest.height +
+                    ", 帧率=" + nearest.fps);
+        } else {
+            Log.e(TAG, "无法找到相机支持的参数，使用默认值");
         }
+        return nearest;
+    }
 
-        // 保存更新后的配置
-        ConfigManager.saveConfig(mContext, mCurrentVendorId, mCurrentProductId,
-                size.type, size.width, size.height, size.fps,
-                exposure, gain, triggerPeriod, "", "",
-                isAutoExposure, isColorMode);
+    // 没有保存的配置时：默认分辨率以上帧率最高的模式，其次是30fps以上分辨率最高的模式
+    private Size planDefaultSize(CameraCapabilities capabilities) {
+        ModePlanner planner = mModePlanner;
+        Size planned = planner.planMaxFps(capabilities,
+                UVCCamera.DEFAULT_PREVIEW_WIDTH, UVCCamera.DEFAULT_PREVIEW_HEIGHT);
+        if (planned == null) {
+            planned = planner.planMaxResolution(capabilities, UVCCamera.DEFAULT_PREVIEW_FPS);
+        }
+        if (planned == null) {
+            return resolveNearestSize(capabilities, mPreviewSize);
+        }
 
-        Log.d(TAG, "已更新配置文件，保存新使用的参数");
+        Log.d(TAG, "按带宽预算选择模式: 格式=" + planned.type +
+                ", 分辨率=" + planned.width + "x" + planned.height +
+                ", 帧率=" + planned.fps +
+                ", 估算数据量=" + ModePlanner.estimateBandwidth(planned) + "B/s");
+        return resolveNearestSize(capabilities, planned);
     }
 
     public List<UsbDevice> getDeviceList() {
-        if (mCameraHelper != null) {
-            return mCameraHelper.getDeviceList();
+        ICameraHelper helper = mCameraHelper;
+        if (helper != null) {
+            return helper.getDeviceList();
         }
         return null;
     }
 
     public void setDefaultPreviewSize(Size size) {
         if (size != null) {
-            mPreviewFormat = size.type;
-            mPreviewWidth = size.width;
-            mPreviewHeight = size.height;
-            mPreviewFps = size.fps;
+            mPreviewSize = copySize(size);
 
-            Log.d(TAG, "设置默认预览尺寸: 格式=" + mPreviewFormat +
-                    ", 分辨率=" + mPreviewWidth + "x" + mPreviewHeight +
-                    ", 帧率=" + mPreviewFps);
+            Log.d(TAG, "设置默认预览尺寸: 格式=" + size.type +
+                    ", 分辨率=" + size.width + "x" + size.height +
+                    ", 帧率=" + size.fps);
         }
     }
 
     // 退出参数面板时重新加载参数
     public void reloadSavedParameters() {
+        ConfigManager.loadConfigAsync(mContext, mCurrentIdentity, this::applyReloadedParameters);
+    }
+
+    private void applyReloadedParameters(CameraConfig config) {
         try {
-            JSONObject config = ConfigManager.loadConfig(mContext, mCurrentVendorId, mCurrentProductId);
             if (config != null) {
                 // 加载并应用预览尺寸
-                int format = config.optInt("format", mPreviewFormat);
-                int width = config.optInt("width", mPreviewWidth);
-                int height = config.optInt("height", mPreviewHeight);
-                int fps = config.optInt("fps", mPreviewFps);
-
-                Log.d(TAG, "重新加载相机参数: 格式=" + format +
-                        ", 分辨率=" + width + "x" + height +
-                        ", 帧率=" + fps);
-
-                Size savedSize = new Size(format, width, height, fps, null);
-                setPreviewSize(savedSize);
-
-                // 获取UVC控制接口
-                UVCControl control = getUVCControl();
-                if (control != null) {
-                    // 加载并应用曝光设置
-                    boolean isAutoExposure = config.optInt("isAutoExposure", 1) == 1;
-                    control.setExposureTimeAuto(isAutoExposure);
-
-                    // 如果是手动曝光，应用曝光时间和增益
-                    if (!isAutoExposure) {
-                        int exposure = config.optInt("exposure", 0);
-                        if (exposure > 0 && control.isExposureTimeAbsoluteEnable()) {
-                            control.setExposureTimeAbsolute(exposure);
-                        }
-
-                        int gain = config.optInt("gain", 0);
-                        if (gain > 0 && control.isGainEnable()) {
-                            control.setGain(gain);
-                        }
-                    }
+                Log.d(TAG, "重新加载相机参数: 格式=" + config.getFormat() +
+                        ", 分辨率=" + config.getWidth() + "x" + config.getHeight() +
+                        ", 帧率=" + config.getFps());
 
-                    // 加载并应用彩色/黑白模式
-                    boolean isColorMode = config.optInt("isColorMode", 1) == 1;
-                    if (isColorMode) {
-                        control.resetSaturation();
-                    } else {
-                        control.setSaturation(0);
-                    }
+                setPreviewSize(config.getPreviewSize());
 
+                // 在相机线程只写入与相机当前状态不同的控制参数
+                submitControl(CONTROL_APPLY, controls -> {
+                    int writes = controls.apply(config);
                     Log.d(TAG, "已重新应用曝光和颜色设置: " +
-                            "自动曝光=" + isAutoExposure +
-                            ", 彩色模式=" + isColorMode);
-                }
+                            "自动曝光=" + config.isAutoExposure() +
+                            ", 彩色模式=" + config.isColorMode() +
+                            ", 写入" + writes + "次");
+                    return writes;
+                });
             }
         } catch (Exception e) {
             Log.e(TAG, "重新加载相机参数失败", e);
         }
     }
-}
\ No newline at end of file
+
+    // ==================== 相机线程：配置方案 ====================
+
+    // 按设备支持的模式验证方案的预览参数，没有模式索引时原样返回
+    private CameraConfig validateProfile(CameraConfig config) {
+        CameraCapabilities capabilities = mCapabilities;
+        if (capabilities == null) {
+            capabilities = CameraCapabilities.getCached(mContext, mCurrentVendorId, mCurrentProductId);
+        }
+        if (capabilities == null || capabilities.isEmpty()) {
+            Log.w(TAG, "无法获取相机支持的格式列表，方案参数未经验证");
+            return config;
+        }
+
+        Size resolved = resolveNearestSize(capabilities, config.getPreviewSize());
+        return resolved != null ? config.toBuilder().setPreviewSize(resolved).build() : config;
+    }
+
+    private void handleSwitchProfile(String name, CompletionFuture<CameraConfig> future) {
+        CameraIdentity identity = mCurrentIdentity;
+        CameraConfig profile = identity != null ? ConfigManager.loadProfile(mContext, identity, name) : null;
+        if (profile == null) {
+            future.completeExceptionally(new IllegalArgumentException("配置方案不存在: " + name));
+            return;
+        }
+
+        // 串口指令与工位接线有关，不随方案切换
+        CameraConfig active = ConfigManager.loadConfigOrDefault(mContext, identity);
+        CameraConfig target = profile.toBuilder()
+                .setSerial1(active.getSerial1())
+                .setSerial2(active.getSerial2())
+                .build();
+
+        // 先安装方案的距离预设，方案有预设时控制参数不写入曝光，由下一次距离数据应用分段
+        installDistancePresets(target);
+        if (mState == STATE_STREAMING) {
+            // 方案保存时已验证，这里只在模式已知无法出流时替换为降级模式
+            Size size = target.getPreviewSize();
+            CameraCapabilities capabilities = mCapabilities;
+            if (capabilities != null && !capabilities.isEmpty()) {
+                Size resolved = resolveNearestSize(capabilities, size);
+                if (resolved != null) {
+                    size = resolved;
+                }
+            }
+            if (!isSameMode(size, mPreviewSize)) {
+                mFallbackLadder = null;
+                applyPreviewSize(size);
+            }
+
+            CameraControls controls = mControls;
+            int writes = 0;
+            try {
+                writes = controls != null ? controls.apply(target) : 0;
+            } catch (Exception e) {
+                Log.e(TAG, "应用配置方案的控制参数失败", e);
+            }
+            Log.d(TAG, "已切换到配置方案: " + name + "，控制参数写入 " + writes + " 次");
+        } else {
+            if (mState == STATE_OPENING) {
+                synchronized (mPendingLock) {
+                    mPendingSize = target.getPreviewSize();
+                }
+            }
+            Log.d(TAG, "相机未在预览，配置方案 " + name + " 在相机打开后生效");
+        }
+
+        ConfigManager.saveConfig(mContext, identity, target);
+        ConfigManager.setActiveProfile(mContext, identity, name);
+        future.complete(target);
+    }
+}
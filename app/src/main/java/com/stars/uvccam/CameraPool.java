@@ -0,0 +1,237 @@
+package com.stars.uvccam;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多相机同时采集
+ * 每台相机由独立的 CameraManager 管理：各自的相机线程、控制参数和预览参数，一台相机的打开、切换或停顿不影响其他相机。
+ * 每个实例通过 bindCamera 绑定一台相机，不会打开其他实例的设备；已有的实例(如采集服务的主相机)可通过 adoptCamera 加入。
+ * captureAll 以同一触发时刻向所有相机线程插队下发拍照，文件名使用同一时间戳和相机编号，便于按触发分组
+ */
+public class CameraPool {
+    private static final String TAG = "CameraPool";
+
+    private final Context mContext;
+    // 相机编号即在列表中的位置，触发线程和主线程都会读取
+    private final List<CameraManager> mCameras = new CopyOnWriteArrayList<>();
+    private final List<CameraIdentity> mIdentities = new CopyOnWriteArrayList<>();
+    // 由调用方创建和释放的实例，destroy 时不释放
+    private final List<CameraManager> mAdopted = new CopyOnWriteArrayList<>();
+
+    public CameraPool(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * 为所有已连接且尚未加入的UVC相机各创建一个 CameraManager 并初始化，返回新加入的数量
+     * 初始化后每个实例会在设备连接回调中自动打开绑定的相机
+     */
+    public int addConnectedCameras() {
+        int added = 0;
+        for (UsbDevice device : UsbDeviceDetector.findCameraDevices(mContext)) {
+            if (indexOf(device) < 0) {
+                addCamera(CameraIdentity.of(device));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 加入指定的相机并初始化，返回管理这台相机的实例
+     */
+    public CameraManager addCamera(CameraIdentity identity) {
+        if (identity == null || !identity.isValid()) {
+            throw new IllegalArgumentException("无效的相机标识: " + identity);
+        }
+
+        CameraManager camera = new CameraManager(mContext, "CameraThread-" + mCameras.size());
+        camera.bindCamera(identity);
+        mIdentities.add(identity);
+        mCameras.add(camera);
+        camera.initialize();
+        Log.i(TAG, "加入相机" + (mCameras.size() - 1) + ": " + identity);
+        return camera;
+    }
+
+    /**
+     * 加入已初始化的实例并绑定到指定的相机，实例仍由调用方释放
+     */
+    public void adoptCamera(CameraManager camera, CameraIdentity identity) {
+        if (identity == null || !identity.isValid()) {
+            throw new IllegalArgumentException("无效的相机标识: " + identity);
+        }
+
+        camera.bindCamera(identity);
+        mIdentities.add(identity);
+        mCameras.add(camera);
+        mAdopted.add(camera);
+        Log.i(TAG, "加入相机" + (mCameras.size() - 1) + ": " + identity);
+    }
+
+    private int indexOf(UsbDevice device) {
+        for (int i = 0; i < mIdentities.size(); i++) {
+            if (mIdentities.get(i).matches(device)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return mCameras.size();
+    }
+
+    public CameraManager getCamera(int index) {
+        return mCameras.get(index);
+    }
+
+    public List<CameraManager> getCameras() {
+        return Collections.unmodifiableList(mCameras);
+    }
+
+    public void openAll() {
+        for (CameraManager camera : mCameras) {
+            camera.openCamera();
+        }
+    }
+
+    /**
+     * 关闭所有相机，各相机线程并行关闭，全部完成后返回的结果完成
+     */
+    public CompletionFuture<Void> closeAll() {
+        List<CompletionFuture<Void>> futures = new ArrayList<>();
+        for (CameraManager camera : mCameras) {
+            futures.add(camera.closeCamera());
+        }
+        return whenAllDone(futures);
+    }
+
+    /**
+     * 释放所有相机助手，各相机线程并行释放
+     */
+    public CompletionFuture<Void> releaseAll() {
+        List<CompletionFuture<Void>> futures = new ArrayList<>();
+        for (CameraManager camera : mCameras) {
+            futures.add(camera.release());
+        }
+        return whenAllDone(futures);
+    }
+
+    /**
+     * 释放所有相机并结束相机线程，之后需要重新加入相机；通过 adoptCamera 加入的实例不释放
+     */
+    public void destroy() {
+        for (CameraManager camera : mCameras) {
+            if (!mAdopted.contains(camera)) {
+                camera.destroy();
+            }
+        }
+        mCameras.clear();
+        mIdentities.clear();
+        mAdopted.clear();
+    }
+
+    /**
+     * 以当前时刻为触发时刻拍照，见 captureAll(long)
+     */
+    public CompletionFuture<List<File>> captureAll() {
+        return captureAll(SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * 所有相机同时拍照，可在任意线程调用(例如触发器的串口读取线程)
+     * 先准备好所有文件名再集中下发，缩短各相机之间的下发间隔；拍照请求插到各相机线程队列的最前面。
+     * 返回的列表按相机编号排列，拍照失败的相机对应null；所有相机都失败时以异常完成
+     *
+     * @param triggerNanos 触发时刻(SystemClock.elapsedRealtimeNanos)
+     */
+    public CompletionFuture<List<File>> captureAll(long triggerNanos) {
+        CompletionFuture<List<File>> result = new CompletionFuture<>();
+        List<CameraManager> cameras = new ArrayList<>(mCameras);
+        if (cameras.isEmpty()) {
+            result.completeExceptionally(new IllegalStateException("没有可用的相机"));
+            return result;
+        }
+
+        String basePath;
+        try {
+            basePath = Utils.getSavePhotoPath(mContext);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        basePath = basePath.substring(0, basePath.lastIndexOf('.'));
+        File[] files = new File[cameras.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(basePath + "_cam" + i + ".jpg");
+        }
+
+        List<CompletionFuture<File>> futures = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            futures.add(cameras.get(i).captureImage(files[i], triggerNanos));
+        }
+        long dispatchMicros = (SystemClock.elapsedRealtimeNanos() - triggerNanos) / 1000;
+
+        CompletionFuture<List<File>> saved = whenAll(futures, null);
+        saved.addListener(() -> {
+            List<File> list = saved.getNow(null);
+            int failed = 0;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == null) {
+                    failed++;
+                    Log.w(TAG, "相机" + i + "拍照失败", futures.get(i).getError());
+                }
+            }
+            Log.i(TAG, "同步拍照完成: " + (list.size() - failed) + "/" + list.size() +
+                    "，下发耗时: " + dispatchMicros + "us" +
+                    "，总耗时: " + (SystemClock.elapsedRealtimeNanos() - triggerNanos) / 1000000 + "ms");
+            if (failed == list.size()) {
+                result.completeExceptionally(futures.get(0).getError());
+            } else {
+                result.complete(list);
+            }
+        }, Runnable::run);
+        return result;
+    }
+
+    private static CompletionFuture<Void> whenAllDone(List<CompletionFuture<Void>> futures) {
+        CompletionFuture<Void> done = new CompletionFuture<>();
+        whenAll(futures, null).addListener(() -> done.complete(null), Runnable::run);
+        return done;
+    }
+
+    // 等待所有结果完成，按顺序收集结果，异常完成的结果以fallback代替
+    private static <T> CompletionFuture<List<T>> whenAll(List<CompletionFuture<T>> futures, T fallback) {
+        CompletionFuture<List<T>> result = new CompletionFuture<>();
+        if (futures.isEmpty()) {
+            result.complete(new ArrayList<>());
+            return result;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+        Runnable onDone = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                List<T> values = new ArrayList<>(futures.size());
+                for (CompletionFuture<T> future : futures) {
+                    values.add(future.getNow(fallback));
+                }
+                result.complete(values);
+            }
+        };
+        for (CompletionFuture<T> future : futures) {
+            future.addListener(onDone, Runnable::run);
+        }
+        return result;
+    }
+}
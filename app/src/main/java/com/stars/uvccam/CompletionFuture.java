@@ -0,0 +1,154 @@
+package com.stars.uvccam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 可手动完成的异步结果
+ * minSdk 21 无法使用 CompletableFuture，这里提供相机异步操作所需的最小实现
+ */
+public class CompletionFuture<T> implements Future<T> {
+    private final Object mLock = new Object();
+    private boolean mDone = false;
+    private boolean mCancelled = false;
+    private T mValue;
+    private Throwable mError;
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    /**
+     * 创建已完成的结果
+     */
+    public static <T> CompletionFuture<T> completed(T value) {
+        CompletionFuture<T> future = new CompletionFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * 以正常结果完成，已完成时返回false
+     */
+    public boolean complete(T value) {
+        return finish(value, null, false);
+    }
+
+    /**
+     * 以异常完成，已完成时返回false
+     */
+    public boolean completeExceptionally(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException(), true);
+    }
+
+    private boolean finish(T value, Throwable error, boolean cancelled) {
+        List<Runnable> listeners;
+        synchronized (mLock) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mCancelled = cancelled;
+            mValue = value;
+            mError = error;
+            listeners = mListeners;
+            mListeners = null;
+            mLock.notifyAll();
+        }
+
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * 添加完成监听，已完成时立即通过executor执行
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        Runnable task = () -> executor.execute(listener);
+        synchronized (mLock) {
+            if (!mDone) {
+                mListeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mDone;
+        }
+    }
+
+    /**
+     * 获取异常结果，未完成或正常完成时返回null
+     */
+    public Throwable getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    /**
+     * 获取结果，未完成或异常完成时返回fallback
+     */
+    public T getNow(T fallback) {
+        synchronized (mLock) {
+            return mDone && mError == null ? mValue : fallback;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (mLock) {
+            while (!mDone) {
+                mLock.wait();
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (!mDone) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+            }
+            return report();
+        }
+    }
+
+    private T report() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mValue;
+    }
+}
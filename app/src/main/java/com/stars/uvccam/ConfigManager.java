@@ -1,6 +1,10 @@
 package com.stars.uvccam;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -12,60 +16,325 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
+/**
+ * 相机配置管理类
+ * 每个设备的配置只从文件读取一次并缓存在内存中，保存时先更新缓存，
+ * 再由后台写线程延迟写入文件，短时间内的多次修改合并为一次写入。
+ * 写入先写临时文件并同步到磁盘，再通过重命名替换，上一份有效配置保留为 .bak，
+ * 配置文件损坏或缺失时自动从备份恢复。
+ * 配置按相机标识区分：有序列号的相机单独保存(cam_vvvv_pppp_sn_序列号.json)，没有序列号时按物理端口保存
+ * (cam_vvvv_pppp_port_端口链.json)，两者都没有时同型号共用(cam_vvvv_pppp.json)。
+ * 每个设备另有若干命名的配置方案，保存在 profiles_标识.json 中，与配置使用相同的缓存和写入方式。
+ * 读取文件也在写线程执行：相机标识确定后调用 preload 预先载入缓存，主线程通过 loadConfigAsync 获取配置
+ */
 public class ConfigManager {
     private static final String TAG = "ConfigManager";
     private static final String CONFIG_DIR = "camera_configs";
+    // 延迟写入的合并窗口
+    private static final long WRITE_DELAY_MS = 500;
+    // 配置格式版本，没有 version 字段的旧配置视为版本0，字段相同可直接读取
+    private static final int CONFIG_VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String BACKUP_SUFFIX = ".bak";
 
-    public static void saveConfig(Context context, int vendorId, int productId,
-                                  int format, int width, int height, int fps,
-                                  int exposure, int gain, int triggerPeriod, String serial1, String serial2,
-                                  int isAutoExposure, int isColorMode) {
-        if (vendorId <= 0 || productId <= 0 || context == null) {
+    // 配置缓存，键为相机标识 CameraIdentity.getKey()；文件不存在的设备缓存为 NO_CONFIG
+    private static final HashMap<String, CameraConfig> sCache = new HashMap<>();
+    private static final CameraConfig NO_CONFIG = new CameraConfig.Builder().build();
+    // 配置方案缓存，键与配置缓存相同
+    private static final HashMap<String, ProfileSet> sProfiles = new HashMap<>();
+
+    // 待写入的配置，同一设备只保留最后一次
+    private static final LinkedHashMap<File, String> sPendingWrites = new LinkedHashMap<>();
+    private static Handler sWriteHandler;
+    private static Handler sMainHandler;
+    // 已确认内容完整的配置文件(读取成功或由本进程写入)，替换时无需再次校验即可作为备份
+    private static final HashSet<File> sVerifiedFiles = new HashSet<>();
+
+    /**
+     * 保存配置：立即更新缓存，文件延迟写入
+     */
+    public static void saveConfig(Context context, CameraIdentity identity, CameraConfig config) {
+        if (identity == null || !identity.isValid() || context == null || config == null) {
             Log.e(TAG, "无效的参数，无法保存配置");
             return;
         }
 
-        JSONObject config = new JSONObject();
-        try {
-            config.put("format", format);
-            config.put("width", width);
-            config.put("height", height);
-            config.put("fps", fps);
-            config.put("exposure", exposure);
-            config.put("gain", gain);
-            config.put("triggerPeriod", triggerPeriod);
-            config.put("serial1", serial1 != null ? serial1 : "");
-            config.put("serial2", serial2 != null ? serial2 : "");
-            config.put("isAutoExposure", isAutoExposure);
-            config.put("isColorMode", isColorMode);
-
-            String filename = getConfigFilename(vendorId, productId);
-            File configDir = new File(context.getFilesDir(), CONFIG_DIR);
-            if (!configDir.exists() && !configDir.mkdirs()) {
-                Log.e(TAG, "无法创建配置目录");
-                return;
+        String filename = getConfigFilename(identity);
+        File configFile = new File(new File(context.getFilesDir(), CONFIG_DIR), filename);
+        synchronized (sCache) {
+            if (config.equals(sCache.get(identity.getKey()))) {
+                return;  // 配置未变化
             }
+            sCache.put(identity.getKey(), config);
+            sPendingWrites.put(configFile, config.toJson(CONFIG_VERSION));
+        }
+        scheduleWrite(WRITE_DELAY_MS);
+        Log.d(TAG, "配置已更新: " + filename);
+    }
+
+    /**
+     * 加载配置，没有配置时返回null
+     * 只有设备第一次加载时读取文件，之后直接返回缓存的不可变对象；
+     * 单元级标识还没有自己的配置时，继承同型号的配置，保存后写入自己的文件
+     */
+    public static CameraConfig loadConfig(Context context, CameraIdentity identity) {
+        if (identity == null || !identity.isValid() || context == null) {
+            Log.e(TAG, "无效的参数，无法加载配置");
+            return null;
+        }
 
-            File configFile = new File(configDir, filename);
-            try (FileOutputStream fos = new FileOutputStream(configFile)) {
-                fos.write(config.toString().getBytes());
+        String key = identity.getKey();
+        synchronized (sCache) {
+            CameraConfig cached = sCache.get(key);
+            if (cached != null) {
+                return cached == NO_CONFIG ? null : cached;
             }
-            Log.d(TAG, "配置已保存: " + filename);
-        } catch (JSONException | IOException e) {
-            Log.e(TAG, "保存配置失败", e);
+        }
+
+        CameraConfig config = readConfigFile(context, identity);
+        if (config == null && identity.isUnit()) {
+            config = loadConfig(context, identity.toModel());
+        }
+        synchronized (sCache) {
+            // 读取文件期间可能已经保存了新的配置，以缓存为准
+            CameraConfig cached = sCache.get(key);
+            if (cached == null) {
+                cached = config != null ? config : NO_CONFIG;
+                sCache.put(key, cached);
+            }
+            return cached == NO_CONFIG ? null : cached;
         }
     }
 
-    public static JSONObject loadConfig(Context context, int vendorId, int productId) {
-        if (vendorId <= 0 || productId <= 0 || context == null) {
+    /**
+     * 配置加载回调
+     */
+    public interface LoadCallback {
+        /**
+         * @param config 加载的配置，没有配置时为null
+         */
+        void onLoaded(CameraConfig config);
+    }
+
+    /**
+     * 在写线程预先读取设备的配置和配置方案到缓存，之后的加载直接命中缓存
+     */
+    public static void preload(Context context, CameraIdentity identity) {
+        if (identity == null || !identity.isValid() || context == null) {
+            return;
+        }
+        getWriteHandler().post(() -> {
+            loadConfig(context, identity);
+            loadProfileSet(context, identity);
+        });
+    }
+
+    /**
+     * 加载配置，供主线程使用：已缓存时直接在调用线程回调，否则在写线程读取文件后回到主线程回调
+     */
+    public static void loadConfigAsync(Context context, CameraIdentity identity, LoadCallback callback) {
+        if (identity == null || !identity.isValid() || context == null) {
             Log.e(TAG, "无效的参数，无法加载配置");
+            callback.onLoaded(null);
+            return;
+        }
+
+        CameraConfig cached;
+        synchronized (sCache) {
+            cached = sCache.get(identity.getKey());
+        }
+        if (cached != null) {
+            callback.onLoaded(cached == NO_CONFIG ? null : cached);
+            return;
+        }
+
+        getWriteHandler().post(() -> {
+            CameraConfig config = loadConfig(context, identity);
+            getMainHandler().post(() -> callback.onLoaded(config));
+        });
+    }
+
+    /**
+     * 加载配置，没有配置时返回默认配置
+     */
+    public static CameraConfig loadConfigOrDefault(Context context, CameraIdentity identity) {
+        CameraConfig config = loadConfig(context, identity);
+        return config != null ? config : new CameraConfig.Builder().build();
+    }
+
+    /**
+     * 立即写入所有待写入的配置，不阻塞调用线程
+     */
+    public static void flush() {
+        scheduleWrite(0);
+    }
+
+    // ==================== 配置方案 ====================
+
+    /**
+     * 保存配置方案，同名方案被替换；模式应由调用方预先验证
+     */
+    public static void saveProfile(Context context, CameraIdentity identity, String name, CameraConfig config) {
+        if (TextUtils.isEmpty(name) || config == null) {
+            Log.e(TAG, "无效的配置方案");
+            return;
+        }
+
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
+            return;
+        }
+        synchronized (sCache) {
+            if (config.equals(set.profiles.put(name, config))) {
+                return;
+            }
+            sPendingWrites.put(set.file, set.toJson());
+        }
+        scheduleWrite(WRITE_DELAY_MS);
+        Log.d(TAG, "配置方案已更新: " + name);
+    }
+
+    /**
+     * 加载配置方案，不存在时返回null
+     */
+    public static CameraConfig loadProfile(Context context, CameraIdentity identity, String name) {
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
             return null;
         }
+        synchronized (sCache) {
+            return set.profiles.get(name);
+        }
+    }
 
-        String filename = getConfigFilename(vendorId, productId);
-        File configFile = new File(new File(context.getFilesDir(), CONFIG_DIR), filename);
+    public static void deleteProfile(Context context, CameraIdentity identity, String name) {
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
+            return;
+        }
+        synchronized (sCache) {
+            if (set.profiles.remove(name) == null) {
+                return;
+            }
+            if (name.equals(set.active)) {
+                set.active = null;
+            }
+            sPendingWrites.put(set.file, set.toJson());
+        }
+        scheduleWrite(WRITE_DELAY_MS);
+    }
+
+    /**
+     * 获取设备的所有配置方案名称，按保存顺序排列
+     */
+    public static List<String> getProfileNames(Context context, CameraIdentity identity) {
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
+            return new ArrayList<>();
+        }
+        synchronized (sCache) {
+            return new ArrayList<>(set.profiles.keySet());
+        }
+    }
+
+    /**
+     * 获取当前使用的配置方案名称，没有时返回null
+     */
+    public static String getActiveProfile(Context context, CameraIdentity identity) {
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
+            return null;
+        }
+        synchronized (sCache) {
+            return set.active;
+        }
+    }
+
+    public static void setActiveProfile(Context context, CameraIdentity identity, String name) {
+        ProfileSet set = loadProfileSet(context, identity);
+        if (set == null) {
+            return;
+        }
+        synchronized (sCache) {
+            if (TextUtils.equals(name, set.active) || (name != null && !set.profiles.containsKey(name))) {
+                return;
+            }
+            set.active = name;
+            sPendingWrites.put(set.file, set.toJson());
+        }
+        scheduleWrite(WRITE_DELAY_MS);
+    }
+
+    // 设备的配置方案集合，与配置一样只读取一次文件，之后由缓存提供；单元没有方案文件时继承同型号的方案
+    private static ProfileSet loadProfileSet(Context context, CameraIdentity identity) {
+        if (identity == null || !identity.isValid() || context == null) {
+            Log.e(TAG, "无效的参数，无法加载配置方案");
+            return null;
+        }
+
+        String key = identity.getKey();
+        synchronized (sCache) {
+            ProfileSet set = sProfiles.get(key);
+            if (set != null) {
+                return set;
+            }
+        }
+
+        File dir = new File(context.getFilesDir(), CONFIG_DIR);
+        File file = new File(dir, getProfilesFilename(identity));
+        JSONObject json = readJsonFile(file);
+        if (json == null && identity.isUnit()) {
+            json = readJsonFile(new File(dir, getProfilesFilename(identity.toModel())));
+        }
+        ProfileSet loaded = ProfileSet.fromJson(file, json);
+        synchronized (sCache) {
+            ProfileSet set = sProfiles.get(key);
+            if (set == null) {
+                set = loaded;
+                sProfiles.put(key, set);
+            }
+            return set;
+        }
+    }
 
+    private static CameraConfig readConfigFile(Context context, CameraIdentity identity) {
+        File configFile = new File(new File(context.getFilesDir(), CONFIG_DIR), getConfigFilename(identity));
+        JSONObject json = readJsonFile(configFile);
+        return json != null ? CameraConfig.fromJson(json) : null;
+    }
+
+    // 读取配置文件，文件缺失或损坏(写入过程中断电)时从上一份有效内容恢复
+    private static JSONObject readJsonFile(File configFile) {
+        JSONObject json = parseJsonFile(configFile);
+        if (json != null) {
+            synchronized (sCache) {
+                sVerifiedFiles.add(configFile);
+            }
+            return json;
+        }
+
+        File backupFile = new File(configFile.getPath() + BACKUP_SUFFIX);
+        json = parseJsonFile(backupFile);
+        if (json != null) {
+            Log.w(TAG, "配置文件无效，已从备份恢复: " + configFile.getName());
+            synchronized (sCache) {
+                if (!sPendingWrites.containsKey(configFile)) {
+                    sPendingWrites.put(configFile, json.toString());
+                }
+            }
+            scheduleWrite(0);
+        }
+        return json;
+    }
+
+    private static JSONObject parseJsonFile(File configFile) {
         if (!configFile.exists()) {
             return null;
         }
@@ -77,14 +346,200 @@ public class ConfigManager {
             while ((line = reader.readLine()) != null) {
                 sb.append(line);
             }
-            return new JSONObject(sb.toString());
+            JSONObject json = new JSONObject(sb.toString());
+            int version = json.optInt("version", 0);
+            if (version > CONFIG_VERSION) {
+                Log.w(TAG, "配置版本 " + version + " 高于当前支持的版本 " + CONFIG_VERSION + "，只读取已知字段");
+            }
+            return json;
         } catch (IOException | JSONException e) {
-            Log.e(TAG, "加载配置失败", e);
+            Log.e(TAG, "加载配置失败: " + configFile.getName(), e);
+            return null;
+        }
+    }
+
+    private static void scheduleWrite(long delayMs) {
+        Handler handler = getWriteHandler();
+        handler.removeCallbacks(sWriteRunnable);
+        handler.postDelayed(sWriteRunnable, delayMs);
+    }
+
+    private static Handler getWriteHandler() {
+        synchronized (sCache) {
+            if (sWriteHandler == null) {
+                HandlerThread thread = new HandlerThread("ConfigWriter");
+                thread.start();
+                sWriteHandler = new Handler(thread.getLooper());
+            }
+            return sWriteHandler;
+        }
+    }
+
+    private static Handler getMainHandler() {
+        synchronized (sCache) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+            return sMainHandler;
+        }
+    }
+
+    // 写线程：取出所有待写入的配置并写入文件
+    private static final Runnable sWriteRunnable = () -> {
+        List<File> files;
+        List<String> contents;
+        synchronized (sCache) {
+            files = new ArrayList<>(sPendingWrites.keySet());
+            contents = new ArrayList<>(sPendingWrites.values());
+            sPendingWrites.clear();
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            writeConfigFile(files.get(i), contents.get(i));
+        }
+    };
+
+    // 写入临时文件并同步到磁盘，当前配置改名为备份后再将临时文件改名为配置文件；
+    // 任何时刻中断，配置文件或备份文件中至少有一份完整的配置
+    private static void writeConfigFile(File configFile, String content) {
+        File configDir = configFile.getParentFile();
+        if (configDir != null && !configDir.exists() && !configDir.mkdirs()) {
+            Log.e(TAG, "无法创建配置目录");
+            return;
+        }
+
+        File tempFile = writeTempFile(configFile, content);
+        if (tempFile == null) {
+            return;
+        }
+
+        // 只有内容完整的配置才能覆盖备份，损坏的配置直接丢弃
+        File backupFile = new File(configFile.getPath() + BACKUP_SUFFIX);
+        if (configFile.exists()) {
+            boolean verified;
+            synchronized (sCache) {
+                verified = sVerifiedFiles.contains(configFile);
+            }
+            if (verified || parseJsonFile(configFile) != null) {
+                if (!configFile.renameTo(backupFile)) {
+                    Log.w(TAG, "备份配置失败: " + configFile.getName());
+                }
+            } else if (!configFile.delete()) {
+                Log.w(TAG, "删除损坏的配置失败: " + configFile.getName());
+            }
+        }
+
+        if (!tempFile.renameTo(configFile)) {
+            Log.e(TAG, "替换配置文件失败: " + configFile.getName());
+            return;
+        }
+        synchronized (sCache) {
+            sVerifiedFiles.add(configFile);
+        }
+        Log.d(TAG, "配置已保存: " + configFile.getName());
+    }
+
+    /**
+     * 原子写入文件：写入临时文件并同步到磁盘后改名替换，中断时原文件保持完整
+     * 用于可以重新生成的缓存文件(模式索引、降级记录)，不保留备份
+     */
+    static boolean writeFileAtomically(File file, String content) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "无法创建目录: " + dir.getName());
+            return false;
+        }
+
+        File tempFile = writeTempFile(file, content);
+        if (tempFile == null) {
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            Log.e(TAG, "替换文件失败: " + file.getName());
+            if (!tempFile.delete()) {
+                Log.w(TAG, "删除临时文件失败: " + tempFile.getName());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // 将内容写入目标文件旁的临时文件并同步到磁盘，失败时删除临时文件并返回null
+    private static File writeTempFile(File file, String content) {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            fos.write(content.getBytes());
+            fos.getFD().sync();
+            return tempFile;
+        } catch (IOException e) {
+            Log.e(TAG, "写入文件失败: " + file.getName(), e);
+            if (!tempFile.delete()) {
+                Log.w(TAG, "删除临时文件失败: " + tempFile.getName());
+            }
             return null;
         }
     }
 
-    private static String getConfigFilename(int vendorId, int productId) {
-        return String.format("cam_%04x_%04x.json", vendorId, productId);
+    // 型号级标识的文件名与旧版相同，已有配置无需迁移
+    private static String getConfigFilename(CameraIdentity identity) {
+        return "cam_" + identity.getKey() + ".json";
+    }
+
+    private static String getProfilesFilename(CameraIdentity identity) {
+        return "profiles_" + identity.getKey() + ".json";
+    }
+
+    // 一个设备的配置方案，字段由 sCache 锁保护
+    private static final class ProfileSet {
+        final File file;
+        final LinkedHashMap<String, CameraConfig> profiles = new LinkedHashMap<>();
+        String active;
+
+        ProfileSet(File file) {
+            this.file = file;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder(64 + profiles.size() * 224);
+            sb.append("{\"version\":").append(CONFIG_VERSION);
+            if (active != null) {
+                sb.append(",\"active\":").append(JSONObject.quote(active));
+            }
+            sb.append(",\"profiles\":{");
+            boolean first = true;
+            for (HashMap.Entry<String, CameraConfig> entry : profiles.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(JSONObject.quote(entry.getKey())).append(':')
+                        .append(entry.getValue().toJson(CONFIG_VERSION));
+            }
+            return sb.append("}}").toString();
+        }
+
+        static ProfileSet fromJson(File file, JSONObject json) {
+            ProfileSet set = new ProfileSet(file);
+            if (json == null) {
+                return set;
+            }
+
+            JSONObject profiles = json.optJSONObject("profiles");
+            if (profiles != null) {
+                Iterator<String> names = profiles.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    JSONObject profile = profiles.optJSONObject(name);
+                    if (profile != null) {
+                        set.profiles.put(name, CameraConfig.fromJson(profile));
+                    }
+                }
+            }
+            String active = json.optString("active", null);
+            if (active != null && set.profiles.containsKey(active)) {
+                set.active = active;
+            }
+            return set;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,356 @@
+package com.stars.uvccam;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import com.serenegiant.usb.UVCCamera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 抽帧缩小的预览输出
+ * 采集按相机的完整帧率和分辨率进行，显示只需要看清画面：按显示帧率抽帧，按最大宽度整数倍缩小，
+ * 在独立的显示线程转换颜色并绘制到Surface。帧回调线程只做一次稀疏拷贝，
+ * 显示线程还在绘制上一帧时直接丢弃新帧，显示再慢也不会拖慢采集。
+ * 缩小后的缓冲从 FrameMemoryManager 申请，超出预算时不输出预览
+ */
+public class DecimatedPreview {
+    private static final String TAG = "DecimatedPreview";
+
+    public static final int DEFAULT_DISPLAY_FPS = 10;
+    public static final int DEFAULT_MAX_WIDTH = 640;
+
+    // 缩小后的画面和绘制用的缓冲，画面尺寸或格式变化时整体替换
+    private static final class Staging {
+        final int width;
+        final int height;
+        final int step;
+        final int sourceWidth;
+        final int sourceHeight;
+        final int pixelFormat;
+        final int maxWidth;
+        // 每个输出像素的 Y、U、V
+        final byte[] yuv;
+        final int[] pixels;
+        Bitmap bitmap;
+
+        Staging(int sourceWidth, int sourceHeight, int pixelFormat, int maxWidth) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.pixelFormat = pixelFormat;
+            this.maxWidth = maxWidth;
+            this.step = stepFor(sourceWidth, maxWidth);
+            this.width = sourceWidth / step;
+            this.height = sourceHeight / step;
+            this.yuv = new byte[width * height * 3];
+            this.pixels = new int[width * height];
+        }
+
+        // 整数倍缩小，保证UV采样位置对齐
+        static int stepFor(int sourceWidth, int maxWidth) {
+            int step = 1;
+            while (sourceWidth / step > maxWidth) {
+                step++;
+            }
+            return step;
+        }
+
+        // YUV、ARGB像素和位图占用的内存
+        static long bytesFor(int sourceWidth, int sourceHeight, int maxWidth) {
+            int step = stepFor(sourceWidth, maxWidth);
+            return (long) (sourceWidth / step) * (sourceHeight / step) * (3 + 4 + 4);
+        }
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Object mSurfaceLock = new Object();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDestination = new Rect();
+    private final FrameMemoryManager.Pool mMemory;
+    // 当前缓冲申请的内存，只在相机线程访问
+    private long mReservedBytes = 0;
+
+    private volatile Surface mSurface;
+    private volatile Staging mStaging;
+    private volatile int mDisplayFps = DEFAULT_DISPLAY_FPS;
+    private volatile int mMaxWidth = DEFAULT_MAX_WIDTH;
+    // 显示线程正在绘制，帧回调线程不再提交
+    private volatile boolean mDrawing = false;
+
+    // 只在帧回调线程访问
+    private long mLastFrameNanos;
+
+    // 指标
+    private volatile long mFramesIn;
+    private volatile long mFramesShown;
+    private volatile long mFramesDropped;
+    private volatile long mMaxDrawNanos;
+
+    /**
+     * @param name 缓冲池名称，用于帧内存报告
+     */
+    public DecimatedPreview(String name) {
+        mMemory = FrameMemoryManager.register(name, null);
+        mThread = new HandlerThread("PreviewThread");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public void setDisplayFps(int fps) {
+        mDisplayFps = Math.max(1, fps);
+    }
+
+    public int getDisplayFps() {
+        return mDisplayFps;
+    }
+
+    /**
+     * 设置显示的最大宽度，下次 start 时生效
+     */
+    public void setMaxWidth(int maxWidth) {
+        mMaxWidth = Math.max(16, maxWidth);
+    }
+
+    /**
+     * 开始输出，在相机线程调用；参数与当前相同时保持原有缓冲
+     *
+     * @param pixelFormat 帧回调的像素格式：PIXEL_FORMAT_RAW(YUYV)或PIXEL_FORMAT_NV21
+     */
+    public void start(int width, int height, int pixelFormat) {
+        Staging staging = mStaging;
+        int maxWidth = mMaxWidth;
+        if (staging != null && staging.sourceWidth == width && staging.sourceHeight == height
+                && staging.pixelFormat == pixelFormat && staging.maxWidth == maxWidth) {
+            return;
+        }
+
+        stop();
+        long bytes = Staging.bytesFor(width, height, maxWidth);
+        if (!mMemory.reserve(bytes)) {
+            Log.w(TAG, "帧内存不足，不输出预览: " + width + "x" + height);
+            return;
+        }
+        mReservedBytes = bytes;
+        staging = new Staging(width, height, pixelFormat, maxWidth);
+        mStaging = staging;
+        Log.d(TAG, "预览输出: " + width + "x" + height + " -> " + staging.width + "x" + staging.height +
+                ", " + mDisplayFps + "fps");
+    }
+
+    /**
+     * 停止输出，帧尺寸或格式即将变化时调用
+     */
+    public void stop() {
+        mStaging = null;
+        if (mReservedBytes > 0) {
+            mMemory.free(mReservedBytes);
+            mReservedBytes = 0;
+        }
+    }
+
+    public boolean isRunning() {
+        return mStaging != null;
+    }
+
+    public void setSurface(Surface surface) {
+        synchronized (mSurfaceLock) {
+            mSurface = surface;
+        }
+    }
+
+    /**
+     * 移除Surface，返回后显示线程不会再绘制到这个Surface，可在 surfaceDestroyed 中同步调用
+     */
+    public void detachSurface(Surface surface) {
+        synchronized (mSurfaceLock) {
+            if (mSurface == surface) {
+                mSurface = null;
+            }
+        }
+    }
+
+    /**
+     * 释放显示线程，之后不能再使用
+     */
+    public void release() {
+        setSurface(null);
+        mStaging = null;
+        mReservedBytes = 0;
+        mMemory.close();
+        mThread.quitSafely();
+    }
+
+    /**
+     * 每帧调用，在帧回调线程执行
+     */
+    public void onFrame(ByteBuffer frame) {
+        Staging staging = mStaging;
+        if (staging == null || mSurface == null) {
+            return;
+        }
+        mFramesIn++;
+
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (now - mLastFrameNanos < 1000000000L / mDisplayFps) {
+            return;
+        }
+        if (mDrawing) {
+            mFramesDropped++;
+            return;
+        }
+        if (!copyFrame(frame, staging)) {
+            return;
+        }
+
+        mLastFrameNanos = now;
+        mDrawing = true;
+        mHandler.post(() -> draw(staging));
+    }
+
+    // 按步长稀疏拷贝 Y、U、V，帧数据不完整时返回false
+    private static boolean copyFrame(ByteBuffer frame, Staging staging) {
+        int width = staging.sourceWidth;
+        int height = staging.sourceHeight;
+        int step = staging.step;
+        byte[] yuv = staging.yuv;
+        int index = 0;
+
+        if (staging.pixelFormat == UVCCamera.PIXEL_FORMAT_RAW) {
+            // YUYV：每两个像素 Y0 U Y1 V
+            if ((long) width * height * 2 > frame.capacity()) {
+                return false;
+            }
+            for (int oy = 0; oy < staging.height; oy++) {
+                int row = oy * step * width;
+                for (int ox = 0; ox < staging.width; ox++) {
+                    int x = ox * step;
+                    int pair = (row + (x & ~1)) * 2;
+                    yuv[index++] = frame.get((row + x) * 2);
+                    yuv[index++] = frame.get(pair + 1);
+                    yuv[index++] = frame.get(pair + 3);
+                }
+            }
+        } else {
+            // NV21：Y平面之后是交错的 V U，宽高各减半
+            if ((long) width * height * 3 / 2 > frame.capacity()) {
+                return false;
+            }
+            int chroma = width * height;
+            for (int oy = 0; oy < staging.height; oy++) {
+                int y = oy * step;
+                int row = y * width;
+                int chromaRow = chroma + (y >> 1) * width;
+                for (int ox = 0; ox < staging.width; ox++) {
+                    int x = ox * step;
+                    int vu = chromaRow + (x & ~1);
+                    yuv[index++] = frame.get(row + x);
+                    yuv[index++] = frame.get(vu + 1);
+                    yuv[index++] = frame.get(vu);
+                }
+            }
+        }
+        return true;
+    }
+
+    // 显示线程：转换为ARGB并按比例居中绘制
+    private void draw(Staging staging) {
+        long start = System.nanoTime();
+        try {
+            toArgb(staging);
+            if (staging.bitmap == null) {
+                staging.bitmap = Bitmap.createBitmap(staging.width, staging.height, Bitmap.Config.ARGB_8888);
+            }
+            staging.bitmap.setPixels(staging.pixels, 0, staging.width, 0, 0, staging.width, staging.height);
+
+            synchronized (mSurfaceLock) {
+                Surface surface = mSurface;
+                if (surface == null || !surface.isValid()) {
+                    return;
+                }
+                Canvas canvas = surface.lockCanvas(null);
+                if (canvas == null) {
+                    return;
+                }
+                try {
+                    canvas.drawColor(Color.BLACK);
+                    fitCenter(staging.width, staging.height, canvas.getWidth(), canvas.getHeight());
+                    canvas.drawBitmap(staging.bitmap, null, mDestination, mPaint);
+                } finally {
+                    surface.unlockCanvasAndPost(canvas);
+                }
+            }
+            mFramesShown++;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Surface已被销毁
+            Log.w(TAG, "绘制预览失败: " + e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > mMaxDrawNanos) {
+                mMaxDrawNanos = elapsed;
+            }
+            mDrawing = false;
+        }
+    }
+
+    private void fitCenter(int width, int height, int canvasWidth, int canvasHeight) {
+        int drawWidth = canvasWidth;
+        int drawHeight = (int) ((long) canvasWidth * height / width);
+        if (drawHeight > canvasHeight) {
+            drawHeight = canvasHeight;
+            drawWidth = (int) ((long) canvasHeight * width / height);
+        }
+        int left = (canvasWidth - drawWidth) / 2;
+        int top = (canvasHeight - drawHeight) / 2;
+        mDestination.set(left, top, left + drawWidth, top + drawHeight);
+    }
+
+    // BT.601 有限范围 YUV 转 ARGB
+    private static void toArgb(Staging staging) {
+        byte[] yuv = staging.yuv;
+        int[] pixels = staging.pixels;
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            int c = Math.max(0, (yuv[j] & 0xFF) - 16) * 298;
+            int d = (yuv[j + 1] & 0xFF) - 128;
+            int e = (yuv[j + 2] & 0xFF) - 128;
+            int r = clamp((c + 409 * e + 128) >> 8);
+            int g = clamp((c - 100 * d - 208 * e + 128) >> 8);
+            int b = clamp((c + 516 * d + 128) >> 8);
+            pixels[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    // ==================== 指标 ====================
+
+    public long getFramesShown() {
+        return mFramesShown;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public String getReport() {
+        Staging staging = mStaging;
+        return "=== 预览输出报告 ===\n" +
+                "状态: " + (staging != null ? "运行中" : "已停止") + "\n" +
+                (staging != null ? "显示尺寸: " + staging.width + "x" + staging.height + "\n" : "") +
+                "显示帧率: " + mDisplayFps + "fps\n" +
+                "收到帧数: " + mFramesIn + "\n" +
+                "显示帧数: " + mFramesShown + "\n" +
+                "绘制未完成丢弃: " + mFramesDropped + "\n" +
+                "最长绘制耗时: " + mMaxDrawNanos / 1000000 + "ms\n";
+    }
+}
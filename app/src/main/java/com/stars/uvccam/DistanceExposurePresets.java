@@ -0,0 +1,155 @@
+package com.stars.uvccam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 距离分段曝光预设
+ * 按超声距离把测量范围分为若干段，每段对应一组曝光时间和增益。
+ * 构建时预先计算每厘米所属的分段，查找只是一次数组下标访问；
+ * 离开当前分段时要求越过边界一定距离(回差)，避免在边界附近来回切换，只有分段变化时才需要写入控制参数
+ */
+public final class DistanceExposurePresets {
+    // 超声传感器的最大量程(cm)
+    public static final int MAX_DISTANCE_CM = 1023;
+    public static final int DEFAULT_HYSTERESIS_CM = 3;
+    public static final int NO_BAND = -1;
+    // update 返回值：分段未变化
+    public static final int UNCHANGED = -2;
+
+    // 每厘米所属的分段，不在任何分段内为 NO_BAND
+    private final byte[] mBandByDistance;
+    private final int[] mExposures;
+    private final int[] mGains;
+    // 加上回差后每个分段的保持范围
+    private final int[] mHoldLow;
+    private final int[] mHoldHigh;
+
+    // 当前分段，只在距离数据线程访问
+    private int mCurrentBand = NO_BAND;
+    // 控制参数未生效(相机重新打开或写入失败)时置位，下次数据重新应用当前分段
+    private volatile boolean mInvalidated = false;
+
+    private DistanceExposurePresets(Builder builder) {
+        int count = builder.mBands.size();
+        mBandByDistance = new byte[MAX_DISTANCE_CM + 1];
+        Arrays.fill(mBandByDistance, (byte) NO_BAND);
+        mExposures = new int[count];
+        mGains = new int[count];
+        mHoldLow = new int[count];
+        mHoldHigh = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int[] band = builder.mBands.get(i);
+            Arrays.fill(mBandByDistance, band[0], band[1] + 1, (byte) i);
+            mExposures[i] = band[2];
+            mGains[i] = band[3];
+            mHoldLow[i] = band[0] - builder.mHysteresis;
+            mHoldHigh[i] = band[1] + builder.mHysteresis;
+        }
+    }
+
+    /**
+     * 处理一次距离数据，在距离数据线程调用，不阻塞、不分配内存
+     * 分段变化(或需要重新应用)时返回新的分段，否则返回 UNCHANGED；不在任何分段内时保持当前分段
+     */
+    public int update(int distanceCm) {
+        int current = mCurrentBand;
+        boolean invalidated = mInvalidated;
+        if (current != NO_BAND && !invalidated
+                && distanceCm >= mHoldLow[current] && distanceCm <= mHoldHigh[current]) {
+            return UNCHANGED;
+        }
+
+        int band = distanceCm >= 0 && distanceCm <= MAX_DISTANCE_CM ? mBandByDistance[distanceCm] : NO_BAND;
+        if (band == NO_BAND) {
+            band = current;
+        }
+        if (band == NO_BAND || (band == current && !invalidated)) {
+            return UNCHANGED;
+        }
+
+        mInvalidated = false;
+        mCurrentBand = band;
+        return band;
+    }
+
+    /**
+     * 下次距离数据时重新应用当前分段，可在任意线程调用
+     */
+    public void invalidate() {
+        mInvalidated = true;
+    }
+
+    public int getCurrentBand() {
+        return mCurrentBand;
+    }
+
+    public int getBandCount() {
+        return mExposures.length;
+    }
+
+    public int getExposure(int band) {
+        return mExposures[band];
+    }
+
+    /**
+     * 分段的增益，小于等于0表示不修改增益
+     */
+    public int getGain(int band) {
+        return mGains[band];
+    }
+
+    /**
+     * 按配置中的距离分段创建预设，配置没有分段时返回null；分段无效(范围越界或重叠)时抛出 IllegalArgumentException
+     */
+    public static DistanceExposurePresets fromConfig(CameraConfig config) {
+        if (config == null || !config.hasDistanceBands()) {
+            return null;
+        }
+        int[] bands = config.getDistanceBands();
+        Builder builder = new Builder().setHysteresis(config.getDistanceHysteresis());
+        for (int i = 0; i < bands.length; i += 4) {
+            builder.addBand(bands[i], bands[i + 1], bands[i + 2], bands[i + 3]);
+        }
+        return builder.build();
+    }
+
+    public static final class Builder {
+        // {最小距离, 最大距离, 曝光时间, 增益}
+        private final ArrayList<int[]> mBands = new ArrayList<>();
+        private int mHysteresis = DEFAULT_HYSTERESIS_CM;
+
+        /**
+         * 添加分段，距离范围包含两端，分段之间不能重叠
+         */
+        public Builder addBand(int minCm, int maxCm, int exposure, int gain) {
+            if (minCm < 0 || maxCm > MAX_DISTANCE_CM || minCm > maxCm) {
+                throw new IllegalArgumentException("无效的距离范围: " + minCm + "-" + maxCm);
+            }
+            if (exposure <= 0) {
+                throw new IllegalArgumentException("无效的曝光时间: " + exposure);
+            }
+            if (mBands.size() >= Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("分段数量过多");
+            }
+            for (int[] band : mBands) {
+                if (minCm <= band[1] && maxCm >= band[0]) {
+                    throw new IllegalArgumentException("距离范围重叠: " + minCm + "-" + maxCm +
+                            " 与 " + band[0] + "-" + band[1]);
+                }
+            }
+            mBands.add(new int[]{minCm, maxCm, exposure, gain});
+            return this;
+        }
+
+        public Builder setHysteresis(int hysteresisCm) {
+            mHysteresis = Math.max(0, hysteresisCm);
+            return this;
+        }
+
+        public DistanceExposurePresets build() {
+            return new DistanceExposurePresets(this);
+        }
+    }
+}
@@ -1,33 +1,33 @@
 package com.stars.uvccam;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Spinner;
-import com.serenegiant.usb.Format;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCCamera;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 
 public class FormatManager {
     private static final String TAG = "FormatManager";
-    private static final String RESOLUTION_SEPARATOR = "x";
+    // 下拉框连续修改的合并窗口
+    private static final long FORMAT_CHANGE_DEBOUNCE_MS = 400;
 
     private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private CameraManager mPendingCameraManager;
 
-    // 视频格式数据结构
-    private List<Format> mFormatList = new ArrayList<>();
-    private List<Integer> mTypeList = new ArrayList<>();
-    private LinkedHashMap<String, List<Integer>> mResolutionMap = new LinkedHashMap<>();
-    private List<String> mResolutionList = new ArrayList<>();
-    private List<Integer> mFrameRateList = new ArrayList<>();
-    private final LinkedHashMap<Integer, String> mTypeAndNameMap = new LinkedHashMap<>();
-    private final LinkedHashMap<Integer, LinkedHashMap<String, List<Integer>>> mTypeAndResolutionMap = new LinkedHashMap<>();
+    // 视频格式数据，来自相机的支持模式索引；分辨率打包为 width << 16 | height
+    private CameraCapabilities mCapabilities;
+    private int[] mTypeList = new int[0];
+    private int[] mResolutionList = new int[0];
+    private int[] mFrameRateList = new int[0];
 
     // 适配器
     private ArrayAdapter<String> mFormatAdapter;
@@ -45,12 +45,43 @@ public class FormatManager {
         mContext = context;
     }
 
-    private void applyFormatChange(CameraManager cameraManager) {
-        if (cameraManager != null && cameraManager.isCameraOpened()) {
+    // 格式、分辨率、帧率的修改先记录在 mCurrentSize 中，停止操作一段时间后作为一次变更提交
+    private void scheduleFormatChange(CameraManager cameraManager) {
+        mPendingCameraManager = cameraManager;
+        mHandler.removeCallbacks(mCommitFormatChange);
+        mHandler.postDelayed(mCommitFormatChange, FORMAT_CHANGE_DEBOUNCE_MS);
+    }
+
+    private final Runnable mCommitFormatChange = new Runnable() {
+        @Override
+        public void run() {
+            CameraManager cameraManager = mPendingCameraManager;
+            mPendingCameraManager = null;
+            if (cameraManager == null || !cameraManager.isCameraOpened()) {
+                return;
+            }
+
+            Size activeSize = cameraManager.getPreviewSize();
+            if (activeSize != null && activeSize.type == mCurrentSize.type &&
+                    activeSize.width == mCurrentSize.width &&
+                    activeSize.height == mCurrentSize.height &&
+                    activeSize.fps == mCurrentSize.fps) {
+                Log.d(TAG, "格式未变化，跳过切换");
+                return;
+            }
+
             Log.d(TAG, "应用格式变更: " + mCurrentSize.type + ", " +
                     mCurrentSize.width + "x" + mCurrentSize.height + ", " + mCurrentSize.fps + "fps");
             cameraManager.setPreviewSize(mCurrentSize);
         }
+    };
+
+    /**
+     * 丢弃尚未提交的格式变更，由保存或取消操作统一处理
+     */
+    public void cancelPendingChange() {
+        mHandler.removeCallbacks(mCommitFormatChange);
+        mPendingCameraManager = null;
     }
 
     public void initialize(View settingView, CameraManager cameraManager) {
@@ -84,13 +115,13 @@ public class FormatManager {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 if (cameraManager != null && cameraManager.isCameraOpened()) {
-                    if (position >= 0 && position < mTypeList.size()) {
-                        int selectedType = mTypeList.get(position);
+                    if (position >= 0 && position < mTypeList.length) {
+                        int selectedType = mTypeList[position];
                         if (mCurrentSize.type != selectedType) {
                             mCurrentSize.type = selectedType;
                             refreshResolutionSpinner();
                             refreshFrameRateSpinner();
-                            applyFormatChange(cameraManager);
+                            scheduleFormatChange(cameraManager);
                         }
                     }
                 }
@@ -105,16 +136,15 @@ public class FormatManager {
         resolutionSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                if (cameraManager != null && cameraManager.isCameraOpened() && !mResolutionList.isEmpty()) {
-                    if (position >= 0 && position < mResolutionList.size()) {
-                        String[] resolutions = mResolutionList.get(position).split(RESOLUTION_SEPARATOR);
-                        int width = Integer.parseInt(resolutions[0]);
-                        int height = Integer.parseInt(resolutions[1]);
+                if (cameraManager != null && cameraManager.isCameraOpened()) {
+                    if (position >= 0 && position < mResolutionList.length) {
+                        int width = CameraCapabilities.resolutionWidth(mResolutionList[position]);
+                        int height = CameraCapabilities.resolutionHeight(mResolutionList[position]);
                         if (mCurrentSize.width != width || mCurrentSize.height != height) {
                             mCurrentSize.width = width;
                             mCurrentSize.height = height;
                             refreshFrameRateSpinner();
-                            applyFormatChange(cameraManager);
+                            scheduleFormatChange(cameraManager);
                         }
                     }
                 }
@@ -129,12 +159,12 @@ public class FormatManager {
         frameRateSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                if (cameraManager != null && cameraManager.isCameraOpened() && !mFrameRateList.isEmpty()) {
-                    if (position >= 0 && position < mFrameRateList.size()) {
-                        int fps = mFrameRateList.get(position);
+                if (cameraManager != null && cameraManager.isCameraOpened()) {
+                    if (position >= 0 && position < mFrameRateList.length) {
+                        int fps = mFrameRateList[position];
                         if (mCurrentSize.fps != fps) {
                             mCurrentSize.fps = fps;
-                            applyFormatChange(cameraManager);
+                            scheduleFormatChange(cameraManager);
                         }
                     }
                 }
@@ -158,51 +188,13 @@ public class FormatManager {
             mCurrentSize = currentSize;
         }
 
-        // 清除旧数据
-        mTypeAndNameMap.clear();
-        mTypeAndResolutionMap.clear();
-
-        // 获取支持的格式列表
-        mFormatList = cameraManager.getSupportedFormatList();
-        if (mFormatList == null || mFormatList.isEmpty()) {
+        // 获取支持模式索引
+        mCapabilities = cameraManager.getCapabilities();
+        if (mCapabilities == null || mCapabilities.isEmpty()) {
             Log.w(TAG, "没有找到支持的格式");
             return;
         }
 
-        // 处理格式数据
-        for (Format format : mFormatList) {
-            if (format.type == UVCCamera.UVC_VS_FORMAT_UNCOMPRESSED) {
-                int type = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
-                mTypeAndNameMap.put(type, "YUV");
-                mTypeAndResolutionMap.put(type, new LinkedHashMap<>());
-            } else if (format.type == UVCCamera.UVC_VS_FORMAT_MJPEG) {
-                int type = UVCCamera.UVC_VS_FRAME_MJPEG;
-                mTypeAndNameMap.put(type, "MJPEG");
-                mTypeAndResolutionMap.put(type, new LinkedHashMap<>());
-            }
-
-            // 处理每种格式的帧描述符
-            for (Format.Descriptor descriptor : format.frameDescriptors) {
-                LinkedHashMap<String, List<Integer>> resolutionAndFpsMap = mTypeAndResolutionMap.get(descriptor.type);
-                if (resolutionAndFpsMap != null) {
-                    String resolution = descriptor.width + RESOLUTION_SEPARATOR + descriptor.height;
-                    List<Integer> fpsList = resolutionAndFpsMap.get(resolution);
-
-                    if (fpsList == null) {
-                        fpsList = new ArrayList<>();
-                        resolutionAndFpsMap.put(resolution, fpsList);
-                    }
-
-                    // 添加帧率列表
-                    for (Format.Interval interval : descriptor.intervals) {
-                        if (!fpsList.contains(interval.fps)) {
-                            fpsList.add(interval.fps);
-                        }
-                    }
-                }
-            }
-        }
-
         // 更新UI
         refreshFormatSpinner();
         refreshResolutionSpinner();
@@ -211,18 +203,21 @@ public class FormatManager {
 
     // 刷新格式下拉框
     private void refreshFormatSpinner() {
-        mTypeList = new ArrayList<>(mTypeAndNameMap.keySet());
-        List<String> formatTextList = new ArrayList<>(mTypeAndNameMap.values());
+        mTypeList = mCapabilities.getFormats();
+        List<String> formatTextList = new ArrayList<>();
+        for (int type : mTypeList) {
+            formatTextList.add(type == UVCCamera.UVC_VS_FRAME_MJPEG ? "MJPEG" : "YUV");
+        }
 
         mFormatAdapter.clear();
         mFormatAdapter.addAll(formatTextList);
         mFormatAdapter.notifyDataSetChanged();
 
         // 设置当前选中项
-        int index = mTypeList.indexOf(mCurrentSize.type);
-        if (index == -1 && !mTypeList.isEmpty()) {
+        int index = indexOf(mTypeList, mCurrentSize.type);
+        if (index == -1 && mTypeList.length > 0) {
             index = 0;
-            mCurrentSize.type = mTypeList.get(0);
+            mCurrentSize.type = mTypeList[0];
         }
 
         if (index >= 0 && index < mFormatAdapter.getCount()) {
@@ -235,28 +230,24 @@ public class FormatManager {
 
     // 刷新分辨率下拉框
     private void refreshResolutionSpinner() {
-        // 获取当前格式对应的分辨率映射
-        mResolutionMap = mTypeAndResolutionMap.get(mCurrentSize.type);
-        if (mResolutionMap == null) {
-            mResolutionMap = new LinkedHashMap<>();
-        }
-
-        // 更新分辨率列表
-        mResolutionList = new ArrayList<>(mResolutionMap.keySet());
+        // 获取当前格式对应的分辨率列表
+        mResolutionList = mCapabilities != null ? mCapabilities.getResolutions(mCurrentSize.type) : new int[0];
 
         mResolutionAdapter.clear();
-        mResolutionAdapter.addAll(mResolutionList);
+        for (int resolution : mResolutionList) {
+            mResolutionAdapter.add(CameraCapabilities.resolutionWidth(resolution) + "x" +
+                    CameraCapabilities.resolutionHeight(resolution));
+        }
         mResolutionAdapter.notifyDataSetChanged();
 
         // 设置当前选中项
-        String resolution = mCurrentSize.width + RESOLUTION_SEPARATOR + mCurrentSize.height;
-        int index = mResolutionList.indexOf(resolution);
+        int index = indexOf(mResolutionList,
+                CameraCapabilities.resolution(mCurrentSize.width, mCurrentSize.height));
 
-        if (index == -1 && !mResolutionList.isEmpty()) {
+        if (index == -1 && mResolutionList.length > 0) {
             index = 0;
-            String[] resolutions = mResolutionList.get(0).split(RESOLUTION_SEPARATOR);
-            mCurrentSize.width = Integer.parseInt(resolutions[0]);
-            mCurrentSize.height = Integer.parseInt(resolutions[1]);
+            mCurrentSize.width = CameraCapabilities.resolutionWidth(mResolutionList[0]);
+            mCurrentSize.height = CameraCapabilities.resolutionHeight(mResolutionList[0]);
         }
 
         if (index >= 0 && index < mResolutionAdapter.getCount()) {
@@ -276,25 +267,22 @@ public class FormatManager {
     // 刷新帧率下拉框
     private void refreshFrameRateSpinner() {
         // 获取当前分辨率对应的帧率列表
-        String resolution = mCurrentSize.width + RESOLUTION_SEPARATOR + mCurrentSize.height;
-        mFrameRateList = mResolutionMap.get(resolution);
-
-        if (mFrameRateList == null) {
-            mFrameRateList = new ArrayList<>();
-        }
+        mFrameRateList = mCapabilities != null
+                ? mCapabilities.getFrameRates(mCurrentSize.type, mCurrentSize.width, mCurrentSize.height)
+                : new int[0];
 
         mFrameRateAdapter.clear();
-        for (Integer fps : mFrameRateList) {
+        for (int fps : mFrameRateList) {
             mFrameRateAdapter.add(fps + " fps");
         }
         mFrameRateAdapter.notifyDataSetChanged();
 
         // 设置当前选中项
-        int index = mFrameRateList.indexOf(mCurrentSize.fps);
+        int index = indexOf(mFrameRateList, mCurrentSize.fps);
 
-        if (index == -1 && !mFrameRateList.isEmpty()) {
+        if (index == -1 && mFrameRateList.length > 0) {
             index = 0;
-            mCurrentSize.fps = mFrameRateList.get(0);
+            mCurrentSize.fps = mFrameRateList[0];
         }
 
         if (index >= 0 && index < mFrameRateAdapter.getCount()) {
@@ -305,20 +293,26 @@ public class FormatManager {
         }
     }
 
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
     // 根据下拉框选择获取Size对象
     public Size getSelectedSize(int formatPosition, int resolutionPosition, int frameratePosition) {
-        if (formatPosition < 0 || formatPosition >= mTypeList.size() ||
-                resolutionPosition < 0 || resolutionPosition >= mResolutionList.size() ||
-                frameratePosition < 0 || frameratePosition >= mFrameRateList.size()) {
+        if (formatPosition < 0 || formatPosition >= mTypeList.length ||
+                resolutionPosition < 0 || resolutionPosition >= mResolutionList.length ||
+                frameratePosition < 0 || frameratePosition >= mFrameRateList.length) {
             Log.e(TAG, "无效的选择位置");
             return null;
         }
 
-        int format = mTypeList.get(formatPosition);
-        String[] resolutions = mResolutionList.get(resolutionPosition).split(RESOLUTION_SEPARATOR);
-        int width = Integer.parseInt(resolutions[0]);
-        int height = Integer.parseInt(resolutions[1]);
-        int fps = mFrameRateList.get(frameratePosition);
+        int format = mTypeList[formatPosition];
+        int width = CameraCapabilities.resolutionWidth(mResolutionList[resolutionPosition]);
+        int height = CameraCapabilities.resolutionHeight(mResolutionList[resolutionPosition]);
+        int fps = mFrameRateList[frameratePosition];
 
         return new Size(format, width, height, fps, null);
     }
@@ -343,18 +337,17 @@ public class FormatManager {
         int resolutionPosition = resolutionSpinner.getSelectedItemPosition();
         int frameratePosition = frameRateSpinner.getSelectedItemPosition();
 
-        if (formatPosition < 0 || formatPosition >= mTypeList.size() ||
-                resolutionPosition < 0 || resolutionPosition >= mResolutionList.size() ||
-                frameratePosition < 0 || frameratePosition >= mFrameRateList.size()) {
+        if (formatPosition < 0 || formatPosition >= mTypeList.length ||
+                resolutionPosition < 0 || resolutionPosition >= mResolutionList.length ||
+                frameratePosition < 0 || frameratePosition >= mFrameRateList.length) {
             Log.w(TAG, "下拉菜单选择位置无效，返回当前内存中的值");
             return mCurrentSize;
         }
 
-        int format = mTypeList.get(formatPosition);
-        String[] resolutions = mResolutionList.get(resolutionPosition).split(RESOLUTION_SEPARATOR);
-        int width = Integer.parseInt(resolutions[0]);
-        int height = Integer.parseInt(resolutions[1]);
-        int fps = mFrameRateList.get(frameratePosition);
+        int format = mTypeList[formatPosition];
+        int width = CameraCapabilities.resolutionWidth(mResolutionList[resolutionPosition]);
+        int height = CameraCapabilities.resolutionHeight(mResolutionList[resolutionPosition]);
+        int fps = mFrameRateList[frameratePosition];
 
         return new Size(format, width, height, fps, null);
     }
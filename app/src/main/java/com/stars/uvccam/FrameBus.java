@@ -0,0 +1,553 @@
+package com.stars.uvccam;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单生产者多消费者的帧总线
+ * 库提供的帧数据只在回调期间有效，发布时拷贝一次到池化的缓冲，之后所有订阅者共享同一缓冲，按引用计数回收。
+ * 每个订阅者有自己的环形队列(读写游标)和分发线程，队列满时按订阅时指定的策略处理：
+ * DROP_OLDEST(默认) 丢弃最旧的未读帧，DROP_NEWEST 丢弃新帧，两者都只丢该订阅者自己的帧；
+ * BLOCK 的订阅者不丢帧：未读的帧由它的游标持有，队列满时生产者丢弃整帧(所有订阅者都收不到，也不拷贝)。
+ * 生产者在任何策略下都不等待，帧回调线程不会被慢的订阅者拖住；缓冲池耗尽时新帧被丢弃。
+ * 缓冲从 FrameMemoryManager 申请，内存紧张时订阅队列减半、停止向可丢弃的订阅者投递，空闲缓冲不再保留
+ */
+public class FrameBus {
+    private static final String TAG = "FrameBus";
+
+    public static final int POLICY_BLOCK = 0;
+    public static final int POLICY_DROP_OLDEST = 1;
+    public static final int POLICY_DROP_NEWEST = 2;
+    public static final int DEFAULT_POLICY = POLICY_DROP_OLDEST;
+
+    /**
+     * 订阅者回调，在订阅者自己的分发线程执行
+     * 回调返回后帧即被释放；需要在回调之后继续使用时调用 retain，用完后调用 release
+     */
+    public interface Consumer {
+        void onFrame(Frame frame);
+    }
+
+    /**
+     * 池化的帧，数据只读且被多个订阅者共享：只能用 get(int) 等绝对位置读取，不能修改 position 和 limit
+     */
+    public static final class Frame {
+        private final FrameBus mBus;
+        private final AtomicInteger mRefCount = new AtomicInteger();
+        private ByteBuffer mData;
+        private int mWidth;
+        private int mHeight;
+        private int mPixelFormat;
+        private long mSequence;
+        private long mTimestampNanos;
+
+        private Frame(FrameBus bus, int capacity) {
+            mBus = bus;
+            mData = ByteBuffer.allocateDirect(capacity);
+        }
+
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getPixelFormat() {
+            return mPixelFormat;
+        }
+
+        /**
+         * 发布序号，从1开始连续递增，订阅者可据此判断丢帧
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * 发布时刻 (SystemClock.elapsedRealtimeNanos)
+         */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        public void retain() {
+            mRefCount.incrementAndGet();
+        }
+
+        public void release() {
+            int count = mRefCount.decrementAndGet();
+            if (count == 0) {
+                mBus.recycle(this);
+            } else if (count < 0) {
+                throw new IllegalStateException("帧被重复释放");
+            }
+        }
+    }
+
+    /**
+     * 订阅，持有订阅者的环形队列和分发线程
+     */
+    public final class Subscription {
+        private final String mName;
+        private final int mPolicy;
+        private final boolean mExpendable;
+        private final Consumer mConsumer;
+        private final Frame[] mRing;
+        private final Thread mThread;
+        // 读写游标，只在 mRing 的锁内修改
+        private long mReadCursor = 0;
+        private long mWriteCursor = 0;
+        private boolean mClosed = false;
+
+        // 指标
+        private volatile long mDelivered;
+        private volatile long mDropped;
+
+        private Subscription(String name, int capacity, int policy, boolean expendable, Consumer consumer) {
+            mName = name;
+            mPolicy = policy;
+            mExpendable = expendable;
+            mConsumer = consumer;
+            mRing = new Frame[capacity];
+            mThread = new Thread(this::dispatchLoop, "FrameBus-" + name);
+        }
+
+        // 生产者线程：BLOCK 的订阅者积压是否已达到 capacity，此时整帧丢弃
+        private boolean isBlocking(int capacity) {
+            if (mPolicy != POLICY_BLOCK) {
+                return false;
+            }
+            synchronized (mRing) {
+                return !mClosed && mWriteCursor - mReadCursor >= capacity;
+            }
+        }
+
+        // 生产者线程：放入一帧，积压达到 capacity 时按策略处理，不等待；返回是否放入
+        private boolean offer(Frame frame, int capacity) {
+            synchronized (mRing) {
+                if (mClosed) {
+                    return false;
+                }
+                if (mWriteCursor - mReadCursor >= capacity) {
+                    if (mPolicy != POLICY_DROP_OLDEST) {
+                        mDropped++;
+                        return false;
+                    }
+                    // 队列缩短后可能需要丢弃多帧
+                    while (mWriteCursor - mReadCursor >= capacity) {
+                        int oldest = (int) (mReadCursor % mRing.length);
+                        Frame dropped = mRing[oldest];
+                        mRing[oldest] = null;
+                        mReadCursor++;
+                        mDropped++;
+                        dropped.release();
+                    }
+                }
+
+                frame.retain();
+                mRing[(int) (mWriteCursor % mRing.length)] = frame;
+                mWriteCursor++;
+                mRing.notifyAll();
+            }
+            return true;
+        }
+
+        // 生产者线程：内存紧张时跳过可丢弃的订阅者
+        private void skip() {
+            mDropped++;
+        }
+
+        // 生产者线程：缓冲池耗尽时，DROP_OLDEST 的订阅者放弃最旧的未读帧；返回是否释放了帧
+        private boolean dropOldest() {
+            if (mPolicy != POLICY_DROP_OLDEST) {
+                return false;
+            }
+            Frame dropped;
+            synchronized (mRing) {
+                if (mWriteCursor == mReadCursor) {
+                    return false;
+                }
+                int oldest = (int) (mReadCursor % mRing.length);
+                dropped = mRing[oldest];
+                mRing[oldest] = null;
+                mReadCursor++;
+                mDropped++;
+            }
+            dropped.release();
+            return true;
+        }
+
+        private void dispatchLoop() {
+            while (true) {
+                Frame frame;
+                synchronized (mRing) {
+                    while (!mClosed && mReadCursor == mWriteCursor) {
+                        try {
+                            mRing.wait();
+                        } catch (InterruptedException e) {
+                            mClosed = true;
+                        }
+                    }
+                    if (mClosed) {
+                        break;
+                    }
+                    int index = (int) (mReadCursor % mRing.length);
+                    frame = mRing[index];
+                    mRing[index] = null;
+                    mReadCursor++;
+                }
+
+                try {
+                    mConsumer.onFrame(frame);
+                    mDelivered++;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "订阅者 " + mName + " 处理帧失败", e);
+                } finally {
+                    frame.release();
+                }
+            }
+            // 分发线程被中断时同样退出订阅，归还队列中的帧和池容量
+            drain();
+            unsubscribe(this);
+        }
+
+        // 释放队列中未读的帧
+        private void drain() {
+            synchronized (mRing) {
+                while (mReadCursor < mWriteCursor) {
+                    int index = (int) (mReadCursor % mRing.length);
+                    Frame frame = mRing[index];
+                    mRing[index] = null;
+                    mReadCursor++;
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 取消订阅，分发线程在当前回调返回后释放未读的帧并结束
+         */
+        public void close() {
+            synchronized (mRing) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                mRing.notifyAll();
+            }
+            unsubscribe(this);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getDelivered() {
+            return mDelivered;
+        }
+
+        public long getDropped() {
+            return mDropped;
+        }
+
+        public int getBacklog() {
+            synchronized (mRing) {
+                return (int) (mWriteCursor - mReadCursor);
+            }
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    private final FrameMemoryManager.Pool mMemory;
+    private final Object mPoolLock = new Object();
+    private final ArrayDeque<Frame> mFreeFrames = new ArrayDeque<>();
+    // 池中已分配的帧数和上限，上限为各订阅者的队列容量加上正在处理的一帧
+    private int mAllocated = 0;
+    private int mPoolLimit = 0;
+    private volatile Runnable mSubscribersChangedListener;
+    private volatile boolean mClosed = false;
+
+    // 只在生产者线程访问
+    private long mSequence = 0;
+    private boolean mMemoryDenied = false;
+
+    // 指标
+    private volatile long mPublished;
+    private volatile long mDroppedNoBuffer;
+    private volatile long mDroppedBlocked;
+
+    /**
+     * @param name 缓冲池名称，用于帧内存报告
+     */
+    public FrameBus(String name) {
+        mMemory = FrameMemoryManager.register(name, () -> trimFree(true));
+    }
+
+    /**
+     * 以默认策略(DROP_OLDEST)订阅帧总线
+     *
+     * @param capacity 队列容量，处理慢于帧率时最多积压的帧数
+     */
+    public Subscription subscribe(String name, int capacity, Consumer consumer) {
+        return subscribe(name, capacity, DEFAULT_POLICY, false, consumer);
+    }
+
+    /**
+     * 订阅帧总线
+     *
+     * @param capacity 队列容量，处理慢于帧率时最多积压的帧数
+     * @param policy   队列满时的处理策略
+     */
+    public Subscription subscribe(String name, int capacity, int policy, Consumer consumer) {
+        return subscribe(name, capacity, policy, false, consumer);
+    }
+
+    /**
+     * 订阅帧总线
+     *
+     * @param expendable 是否可丢弃(例如分析)，内存紧张时首先停止向这类订阅者投递
+     */
+    public Subscription subscribe(String name, int capacity, int policy, boolean expendable, Consumer consumer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + capacity);
+        }
+        if (policy != POLICY_BLOCK && policy != POLICY_DROP_OLDEST && policy != POLICY_DROP_NEWEST) {
+            throw new IllegalArgumentException("未知的队列策略: " + policy);
+        }
+        if (mClosed) {
+            throw new IllegalStateException("帧总线已关闭");
+        }
+
+        Subscription subscription = new Subscription(name, capacity, policy, expendable, consumer);
+        synchronized (mPoolLock) {
+            mPoolLimit += capacity + 1;
+        }
+        mSubscriptions.add(subscription);
+        subscription.mThread.start();
+        Log.d(TAG, "订阅者 " + name + " 已加入，队列容量 " + capacity);
+        notifySubscribersChanged();
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        if (!mSubscriptions.remove(subscription)) {
+            return;
+        }
+        synchronized (mPoolLock) {
+            mPoolLimit -= subscription.mRing.length + 1;
+        }
+        trimFree(false);
+        Log.d(TAG, "订阅者 " + subscription.mName + " 已退出");
+        notifySubscribersChanged();
+    }
+
+    public boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * 订阅者增减时的回调，用于按需注册帧回调
+     */
+    public void setOnSubscribersChangedListener(Runnable listener) {
+        mSubscribersChangedListener = listener;
+    }
+
+    // 总线关闭后不再通知，监听者(相机线程)可能已经结束
+    private void notifySubscribersChanged() {
+        Runnable listener = mSubscribersChangedListener;
+        if (listener != null && !mClosed) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 发布一帧，在帧回调线程调用；没有订阅者时不拷贝
+     * 拷贝后恢复源数据的 position，不影响同一回调中的其他读取
+     */
+    public void publish(ByteBuffer source, int width, int height, int pixelFormat) {
+        if (mSubscriptions.isEmpty()) {
+            return;
+        }
+
+        // BLOCK 的订阅者队列已满时整帧丢弃，生产者不等待
+        boolean underPressure = FrameMemoryManager.isUnderPressure();
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.isBlocking(capacityOf(subscription, underPressure))) {
+                mDroppedBlocked++;
+                return;
+            }
+        }
+
+        int size = source.limit();
+        Frame frame = acquire(size);
+        if (frame == null) {
+            mDroppedNoBuffer++;
+            return;
+        }
+
+        int position = source.position();
+        source.position(0);
+        ByteBuffer data = frame.mData;
+        data.clear();
+        data.put(source);
+        data.flip();
+        source.position(position);
+
+        frame.mWidth = width;
+        frame.mHeight = height;
+        frame.mPixelFormat = pixelFormat;
+        frame.mSequence = ++mSequence;
+        frame.mTimestampNanos = SystemClock.elapsedRealtimeNanos();
+        mPublished++;
+
+        // 发布期间持有一个引用，避免第一个订阅者处理完就回收
+        frame.retain();
+        for (Subscription subscription : mSubscriptions) {
+            if (underPressure && subscription.mExpendable) {
+                subscription.skip();
+                continue;
+            }
+            subscription.offer(frame, capacityOf(subscription, underPressure));
+        }
+        frame.release();
+    }
+
+    // 订阅者当前的有效队列容量，内存紧张时减半
+    private static int capacityOf(Subscription subscription, boolean underPressure) {
+        int capacity = subscription.mRing.length;
+        return underPressure ? Math.max(1, capacity / 2) : capacity;
+    }
+
+    // 从池中取出至少能容纳 size 字节的帧，池已满时先让 DROP_OLDEST 的订阅者放弃最旧的帧，
+    // 超出内存预算时释放各缓冲池的空闲缓冲后再试一次
+    private Frame acquire(int size) {
+        mMemoryDenied = false;
+        Frame frame = pollFree(size);
+        if (frame != null) {
+            return frame;
+        }
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.dropOldest()) {
+                frame = pollFree(size);
+                if (frame != null) {
+                    return frame;
+                }
+            }
+        }
+        if (mMemoryDenied) {
+            FrameMemoryManager.trimIdle();
+            return pollFree(size);
+        }
+        return null;
+    }
+
+    // 申请内存时不持有 mPoolLock，trimIdle 会依次获取各缓冲池的锁
+    private Frame pollFree(int size) {
+        Frame frame;
+        synchronized (mPoolLock) {
+            frame = mFreeFrames.poll();
+            if (frame == null) {
+                if (mAllocated >= mPoolLimit) {
+                    return null;
+                }
+                mAllocated++;
+            }
+        }
+        if (frame != null && frame.mData.capacity() >= size) {
+            return frame;
+        }
+
+        // 新分配，或帧尺寸变大时丢弃旧缓冲
+        if (frame != null) {
+            mMemory.free(frame.mData.capacity());
+        }
+        if (!mMemory.reserve(size)) {
+            mMemoryDenied = true;
+            synchronized (mPoolLock) {
+                mAllocated--;
+            }
+            return null;
+        }
+        if (frame == null) {
+            return new Frame(this, size);
+        }
+        frame.mData = ByteBuffer.allocateDirect(size);
+        return frame;
+    }
+
+    // 引用计数归零，内存紧张或超出上限时直接丢弃，否则放回空闲列表
+    private void recycle(Frame frame) {
+        synchronized (mPoolLock) {
+            if (mAllocated <= mPoolLimit && !FrameMemoryManager.isUnderPressure()) {
+                mFreeFrames.add(frame);
+                return;
+            }
+            mAllocated--;
+        }
+        mMemory.free(frame.mData.capacity());
+    }
+
+    // 释放空闲帧：all 为false时只释放超出上限的部分(订阅者退出后)
+    private void trimFree(boolean all) {
+        long freed = 0;
+        synchronized (mPoolLock) {
+            while (!mFreeFrames.isEmpty() && (all || mAllocated > mPoolLimit)) {
+                freed += mFreeFrames.poll().mData.capacity();
+                mAllocated--;
+            }
+        }
+        if (freed > 0) {
+            mMemory.free(freed);
+        }
+    }
+
+    /**
+     * 关闭所有订阅并注销缓冲池，之后不能再使用；不再通知订阅者变化
+     */
+    public void close() {
+        mClosed = true;
+        for (Subscription subscription : mSubscriptions) {
+            subscription.close();
+        }
+        mMemory.close();
+    }
+
+    // ==================== 指标 ====================
+
+    public long getPublished() {
+        return mPublished;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("=== 帧总线报告 ===\n");
+        report.append("发布帧数: ").append(mPublished).append("\n");
+        report.append("缓冲不足丢弃: ").append(mDroppedNoBuffer).append("\n");
+        report.append("BLOCK订阅者积压丢弃: ").append(mDroppedBlocked).append("\n");
+        synchronized (mPoolLock) {
+            report.append("缓冲池: ").append(mAllocated).append("/").append(mPoolLimit)
+                    .append("，空闲 ").append(mFreeFrames.size())
+                    .append("，内存 ").append(mMemory.getUsed() / 1024).append("KB\n");
+        }
+        for (Subscription subscription : mSubscriptions) {
+            report.append(subscription.mName)
+                    .append(": 已处理 ").append(subscription.getDelivered())
+                    .append("，丢弃 ").append(subscription.getDropped())
+                    .append("，积压 ").append(subscription.getBacklog()).append("\n");
+        }
+        return report.toString();
+    }
+}
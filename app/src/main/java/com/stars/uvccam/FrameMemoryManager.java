@@ -0,0 +1,215 @@
+package com.stars.uvccam;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 帧内存预算管理类
+ * 所有相机的帧缓冲池(帧总线、预览缓冲)都从这里申请内存，总量不超过预算，按缓冲池记录用量。
+ * 用量超过高水位时进入内存紧张状态：缓冲池不再保留空闲缓冲，帧总线缩短订阅队列并停止向可丢弃的订阅者(分析)投递；
+ * 用量回落到低水位以下才退出，避免用量在高水位附近波动时反复切换；
+ * 超过预算的申请被拒绝，由缓冲池丢弃当前帧，而不是继续分配直到进程被系统杀死
+ */
+public final class FrameMemoryManager {
+    private static final String TAG = "FrameMemoryManager";
+
+    // 用量达到预算的这个比例时进入内存紧张状态
+    public static final float HIGH_WATERMARK = 0.8f;
+    // 内存紧张时用量低于预算的这个比例才恢复
+    public static final float LOW_WATERMARK = 0.7f;
+
+    /**
+     * 释放缓冲池中的空闲缓冲，调用时不持有任何缓冲池的锁
+     */
+    public interface Trimmer {
+        void trimIdle();
+    }
+
+    /**
+     * 缓冲池的内存账户
+     */
+    public static final class Pool {
+        private final String mName;
+        private final Trimmer mTrimmer;
+        // 以下字段在 sLock 内修改
+        private long mUsed;
+        private long mPeak;
+        private long mDenied;
+        private boolean mClosed;
+
+        private Pool(String name, Trimmer trimmer) {
+            mName = name;
+            mTrimmer = trimmer;
+        }
+
+        /**
+         * 申请内存，超出预算时返回false，调用方不能分配
+         */
+        public boolean reserve(long bytes) {
+            synchronized (sLock) {
+                if (mClosed) {
+                    return false;
+                }
+                if (sUsed + bytes > sBudget) {
+                    mDenied++;
+                    sDenied++;
+                    return false;
+                }
+                mUsed += bytes;
+                sUsed += bytes;
+                if (mUsed > mPeak) {
+                    mPeak = mUsed;
+                }
+                updatePressureLocked();
+                return true;
+            }
+        }
+
+        /**
+         * 归还内存，缓冲被丢弃后调用
+         */
+        public void free(long bytes) {
+            synchronized (sLock) {
+                if (mClosed) {
+                    return;
+                }
+                long freed = Math.min(bytes, mUsed);
+                mUsed -= freed;
+                sUsed -= freed;
+                updatePressureLocked();
+            }
+        }
+
+        /**
+         * 注销缓冲池并归还全部用量，之后的申请都被拒绝
+         */
+        public void close() {
+            synchronized (sLock) {
+                if (mClosed) {
+                    return;
+                }
+                sUsed -= mUsed;
+                mUsed = 0;
+                mClosed = true;
+                sPools.remove(this);
+                updatePressureLocked();
+            }
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getUsed() {
+            synchronized (sLock) {
+                return mUsed;
+            }
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static final ArrayList<Pool> sPools = new ArrayList<>();
+    // 默认取堆上限的1/4，帧缓冲(包括直接缓冲)计入Java堆
+    private static long sBudget = Runtime.getRuntime().maxMemory() / 4;
+    private static long sUsed = 0;
+    private static long sDenied = 0;
+    private static volatile boolean sUnderPressure = false;
+
+    private FrameMemoryManager() {
+    }
+
+    /**
+     * 注册缓冲池
+     *
+     * @param trimmer 内存紧张时释放空闲缓冲，可以为null
+     */
+    public static Pool register(String name, Trimmer trimmer) {
+        Pool pool = new Pool(name, trimmer);
+        synchronized (sLock) {
+            sPools.add(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * 设置帧内存预算(字节)，预算减小时立即释放各缓冲池的空闲缓冲
+     */
+    public static void setBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("无效的内存预算: " + bytes);
+        }
+        synchronized (sLock) {
+            sBudget = bytes;
+            updatePressureLocked();
+        }
+        Log.i(TAG, "帧内存预算: " + bytes / 1024 / 1024 + "MB");
+        if (sUnderPressure) {
+            trimIdle();
+        }
+    }
+
+    public static long getBudget() {
+        synchronized (sLock) {
+            return sBudget;
+        }
+    }
+
+    public static long getUsed() {
+        synchronized (sLock) {
+            return sUsed;
+        }
+    }
+
+    /**
+     * 是否处于内存紧张状态，帧回调线程每帧读取，不加锁
+     */
+    public static boolean isUnderPressure() {
+        return sUnderPressure;
+    }
+
+    /**
+     * 释放所有缓冲池的空闲缓冲，申请被拒绝后或系统内存不足时调用；不能在持有缓冲池锁时调用
+     */
+    public static void trimIdle() {
+        List<Pool> pools;
+        synchronized (sLock) {
+            pools = new ArrayList<>(sPools);
+        }
+        for (Pool pool : pools) {
+            if (pool.mTrimmer != null) {
+                pool.mTrimmer.trimIdle();
+            }
+        }
+    }
+
+    private static void updatePressureLocked() {
+        boolean underPressure = sUnderPressure
+                ? sUsed >= sBudget * LOW_WATERMARK
+                : sUsed >= sBudget * HIGH_WATERMARK;
+        if (underPressure != sUnderPressure) {
+            sUnderPressure = underPressure;
+            Log.w(TAG, (underPressure ? "帧内存紧张" : "帧内存恢复") + ": " +
+                    sUsed / 1024 + "KB/" + sBudget / 1024 + "KB");
+        }
+    }
+
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("=== 帧内存报告 ===\n");
+        synchronized (sLock) {
+            report.append("总用量: ").append(sUsed / 1024).append("KB/")
+                    .append(sBudget / 1024).append("KB")
+                    .append(sUnderPressure ? " (紧张)" : "").append("\n");
+            report.append("拒绝申请: ").append(sDenied).append("\n");
+            for (Pool pool : sPools) {
+                report.append(pool.mName)
+                        .append(": ").append(pool.mUsed / 1024).append("KB")
+                        .append("，峰值 ").append(pool.mPeak / 1024).append("KB")
+                        .append("，拒绝 ").append(pool.mDenied).append("\n");
+            }
+        }
+        return report.toString();
+    }
+}
@@ -1,11 +1,14 @@
 package com.stars.uvccam;
 
 import android.app.Dialog;
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.LayoutInflater;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.View;
 import android.widget.Button;
@@ -19,10 +22,8 @@ import android.widget.FrameLayout;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import java.util.ArrayList;
 import java.util.List;
-import android.hardware.usb.UsbDevice;
-import org.json.JSONObject;
-import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCCamera;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
@@ -36,15 +37,27 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private View mMainControlPanelView;
     private View mParamSettingView;
 
-    // 管理器
+    // 管理器：相机和串口由采集服务持有，绑定后获取
+    private AcquisitionService mService;
     private CameraManager mCameraManager;
     private UIManager mUIManager;
     private FormatManager mFormatManager;
     private SettingsManager mSettingsManager;
-    private UltrasonicSerialManager mUltrasonicManager;
-    private TriggerSerialManager mTriggerManager;
-    private Handler mDeviceMonitorHandler;
     private int mCurrentDistance = -1;
+    // 绑定前已创建的预览Surface，绑定后再交给相机
+    private Surface mPendingSurface;
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            onAcquisitionServiceConnected(((AcquisitionService.LocalBinder) binder).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,121 +68,38 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         checkAndRequestPermissions();
         initViews();
 
-        // 初始化管理器
-        mCameraManager = new CameraManager(this);
         mFormatManager = new FormatManager(this);
-        mSettingsManager = new SettingsManager(this, mCameraManager, mFormatManager);
-        mUIManager = new UIManager(this, mCameraManager, mFormatManager, mSettingsManager);
-        mDeviceMonitorHandler = new Handler(Looper.getMainLooper());
-
-        initSerialManagers();
         setupCameraPreview();
-    }
-
-    private void initSerialManagers() {
-        String ultrasonicPath = UsbDeviceDetector.findUltrasonicDevice();
-        String triggerPath = UsbDeviceDetector.findTriggerDevice();
 
-        if (ultrasonicPath == null) {
-            Toast.makeText(this, "未找到超声传感器设备", Toast.LENGTH_LONG).show();
-            Log.e(TAG, UsbDeviceDetector.getDeviceStatusReport());
-            return;
-        }
+        // 采集服务独立于界面运行，界面只绑定服务进行预览和控制
+        AcquisitionService.start(this);
+        bindService(new Intent(this, AcquisitionService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+    }
 
-        if (triggerPath == null) {
-            Toast.makeText(this, "未找到触发器设备", Toast.LENGTH_LONG).show();
-            Log.e(TAG, UsbDeviceDetector.getDeviceStatusReport());
+    private void onAcquisitionServiceConnected(AcquisitionService service) {
+        mService = service;
+        if (mCameraManager != null) {
             return;
         }
 
-        // 使用检测到的路径初始化
-        mUltrasonicManager = new UltrasonicSerialManager(ultrasonicPath, 9600);
-        mTriggerManager = new TriggerSerialManager(triggerPath, 115200);
-
-        Log.i(TAG, "设备路径自动配置:");
-        Log.i(TAG, "超声传感器: " + ultrasonicPath);
-        Log.i(TAG, "触发器: " + triggerPath);
-        mUltrasonicManager.setOnDistanceDataListener(new UltrasonicSerialManager.OnDistanceDataListener() {
-            @Override
-            public void onDistanceReceived(int distance) {
-                mCurrentDistance = distance;
-                updateDistanceDisplay();
-            }
-
-            @Override
-            public void onInvalidFrame(String frameHex, String error) {
-                // 可以选择显示错误信息
-            }
+        mCameraManager = service.getCameraManager();
+        mSettingsManager = new SettingsManager(this, mCameraManager, mFormatManager);
+        mUIManager = new UIManager(this, mCameraManager, mFormatManager, mSettingsManager);
 
-            @Override
-            public void onError(String error) {
-                Toast.makeText(MainActivity.this, "超声传感器错误: " + error, Toast.LENGTH_SHORT).show();
-            }
+        mCurrentDistance = service.getCurrentDistance();
+        updateDistanceDisplay();
+        service.setDistanceListener(distance -> {
+            mCurrentDistance = distance;
+            updateDistanceDisplay();
         });
-    }
-
-    private void startDeviceMonitoring() {
-        mDeviceMonitorHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (mUltrasonicManager != null &&
-                        !UsbDeviceDetector.isDeviceConnected(mUltrasonicManager.getDevicePath())) {
-                    Toast.makeText(MainActivity.this, "超声传感器设备断开连接", Toast.LENGTH_SHORT).show();
-                    mUltrasonicManager.stop();
-                }
-
-                if (mTriggerManager != null &&
-                        !UsbDeviceDetector.isDeviceConnected(mTriggerManager.getDevicePath())) {
-                    Toast.makeText(MainActivity.this, "触发器设备断开连接", Toast.LENGTH_SHORT).show();
-                    mTriggerManager.stop();
-                }
-
-                // 继续监控
-                mDeviceMonitorHandler.postDelayed(this, 5000);
-            }
-        }, 5000);
-    }
-
-    private void stopDeviceMonitoring() {
-        if (mDeviceMonitorHandler != null) {
-            mDeviceMonitorHandler.removeCallbacksAndMessages(null);
-        }
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
 
-        if (mCameraManager != null) {
-            mCameraManager.initialize();
-
-            // 如果相机已连接，尝试获取设备ID并加载配置
-            List<UsbDevice> devices = mCameraManager.getDeviceList();
-            if (devices != null && !devices.isEmpty()) {
-                UsbDevice device = devices.get(0);
-                int vendorId = device.getVendorId();
-                int productId = device.getProductId();
-
-                JSONObject config = ConfigManager.loadConfig(this, vendorId, productId);
-                if (config != null) {
-                    int format = config.optInt("format", UVCCamera.UVC_VS_FRAME_MJPEG);
-                    int width = config.optInt("width", UVCCamera.DEFAULT_PREVIEW_WIDTH);
-                    int height = config.optInt("height", UVCCamera.DEFAULT_PREVIEW_HEIGHT);
-                    int fps = config.optInt("fps", UVCCamera.DEFAULT_PREVIEW_FPS);
-
-                    Size savedSize = new Size(format, width, height, fps, null);
-                    mCameraManager.setDefaultPreviewSize(savedSize);
-
-                    if (mCameraPreview != null) {
-                        mCameraPreview.setAspectRatio(width, height);
-                    }
-                }
-            }
-        }
-        if (mUltrasonicManager != null) {
-            mUltrasonicManager.start();
+        // 相机仍在开流(旋转或宽限期内返回)时只同步界面并换上新的预览Surface，不重新打开相机
+        mUIManager.syncCameraState();
+        mSettingsManager.syncCameraState();
+        Surface surface = mPendingSurface;
+        if (surface != null) {
+            mCameraManager.addSurface(surface);
         }
-        startDeviceMonitoring();
     }
 
     @Override
@@ -177,46 +107,52 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         if (mSettingsManager != null) {
             mSettingsManager.saveCurrentConfig();
         }
-
-        if (mCameraManager != null) {
-            mCameraManager.release();
-        }
-
-        stopDeviceMonitoring();
-
-        if (mUltrasonicManager != null) {
-            mUltrasonicManager.stop();
-        }
-        if (mTriggerManager != null) {
-            mTriggerManager.stop();
-        }
+        // 界面不可见后进程可能被回收，不再等待合并窗口
+        ConfigManager.flush();
 
         super.onStop();
     }
 
     @Override
     protected void onDestroy() {
+        // 用户退出界面时停止采集，相机在宽限期内保持打开，期间重新进入可立即恢复；旋转等重建时服务继续运行
+        if (mService != null) {
+            mService.setDistanceListener(null);
+            if (isFinishing()) {
+                mService.requestStop();
+            }
+        } else if (isFinishing()) {
+            AcquisitionService.stop(this);
+        }
         if (mCameraManager != null) {
-            mCameraManager.release();
+            mCameraManager.setStateListener(null);
             mCameraManager = null;
         }
-        if (mUltrasonicManager != null) {
-            mUltrasonicManager.destroy();
-        }
-        if (mTriggerManager != null) {
-            mTriggerManager.destroy();
-        }
+        unbindService(mServiceConnection);
+        mService = null;
         super.onDestroy();
     }
 
     private void checkAndRequestPermissions() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            List<String> permissions = new ArrayList<>();
             if (checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE)
                     != PackageManager.PERMISSION_GRANTED) {
-                requestPermissions(new String[] {
-                        Manifest.permission.WRITE_EXTERNAL_STORAGE,
-                        Manifest.permission.READ_EXTERNAL_STORAGE
-                }, REQUEST_STORAGE_PERMISSION);
+                permissions.add(Manifest.permission.WRITE_EXTERNAL_STORAGE);
+                permissions.add(Manifest.permission.READ_EXTERNAL_STORAGE);
+            }
+            // 访问USB相机和相机类型的前台服务都需要相机权限
+            if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+                permissions.add(Manifest.permission.CAMERA);
+            }
+            // 前台服务的通知
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                    && checkSelfPermission(Manifest.permission.POST_NOTIFICATIONS)
+                    != PackageManager.PERMISSION_GRANTED) {
+                permissions.add(Manifest.permission.POST_NOTIFICATIONS);
+            }
+            if (!permissions.isEmpty()) {
+                requestPermissions(permissions.toArray(new String[0]), REQUEST_STORAGE_PERMISSION);
             }
         }
     }
@@ -226,10 +162,15 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                                            @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == REQUEST_STORAGE_PERMISSION) {
-            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                Toast.makeText(this, "存储权限已授予，可以保存图像", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "存储权限被拒绝，无法保存图像", Toast.LENGTH_SHORT).show();
+            for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+                boolean granted = grantResults[i] == PackageManager.PERMISSION_GRANTED;
+                if (Manifest.permission.WRITE_EXTERNAL_STORAGE.equals(permissions[i])) {
+                    Toast.makeText(this, granted ? "存储权限已授予，可以保存图像" : "存储权限被拒绝，无法保存图像",
+                            Toast.LENGTH_SHORT).show();
+                } else if (Manifest.permission.CAMERA.equals(permissions[i]) && granted) {
+                    // 取得相机权限后以前台服务运行
+                    AcquisitionService.start(this);
+                }
             }
         }
     }
@@ -253,6 +194,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             mCameraPreview.getHolder().addCallback(new SurfaceHolder.Callback() {
                 @Override
                 public void surfaceCreated(@NonNull SurfaceHolder holder) {
+                    mPendingSurface = holder.getSurface();
                     if (mCameraManager != null) {
                         mCameraManager.addSurface(holder.getSurface());
                     }
@@ -265,6 +207,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
                 @Override
                 public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
+                    mPendingSurface = null;
                     if (mCameraManager != null) {
                         mCameraManager.removeSurface(holder.getSurface());
                     }
@@ -284,18 +227,22 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         } else if (id == R.id.close_camera_button) {
             if (mCameraManager != null) mCameraManager.closeCamera();
         } else if (id == R.id.open_test_1_button) {
+            if (mUIManager == null) return;
+            TriggerSerialManager triggerManager = getTriggerManager();
             boolean isTest1Running = mUIManager.onStartTest1();
             if (!isTest1Running){
                 Toast.makeText(this, "开始测试 1", Toast.LENGTH_SHORT).show();
-                mTriggerManager.start();
+                if (triggerManager != null) triggerManager.start();
             }else{
                 mCameraManager.captureImage();
-                if (mTriggerManager.isRunning()) mTriggerManager.stop();
+                if (triggerManager != null && triggerManager.isRunning()) triggerManager.stop();
             }
         } else if (id == R.id.close_test_1_button) {
+            if (mUIManager == null) return;
             Toast.makeText(this, "关闭测试 1", Toast.LENGTH_SHORT).show();
             mUIManager.onStopTest1();
-            if (mTriggerManager.isRunning()) mTriggerManager.stop();
+            TriggerSerialManager triggerManager = getTriggerManager();
+            if (triggerManager != null && triggerManager.isRunning()) triggerManager.stop();
         } else if (id == R.id.open_test_2_button) {
             Toast.makeText(this, "开始测试 2", Toast.LENGTH_SHORT).show();
             // 在这里添加测试2的逻辑
@@ -328,6 +275,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    private TriggerSerialManager getTriggerManager() {
+        AcquisitionService service = mService;
+        return service != null ? service.getTriggerManager() : null;
+    }
+
     private void updateDistanceDisplay() {
         runOnUiThread(() -> {
             // 需要在布局中添加一个TextView来显示距离
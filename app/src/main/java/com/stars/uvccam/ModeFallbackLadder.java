@@ -0,0 +1,218 @@
+package com.stars.uvccam;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 模式降级阶梯
+ * 某个模式无法出流(开流失败或超时没有画面)时，按"降低帧率 -> 改用MJPEG -> 降低分辨率"的顺序
+ * 生成逐级更省带宽的候选模式。降级结果按设备记录，下次打开时直接使用可用的模式
+ */
+public final class ModeFallbackLadder {
+    private static final String TAG = "ModeFallbackLadder";
+    private static final String CAPS_DIR = "camera_caps";
+    private static final int FALLBACK_VERSION = 1;
+
+    // 阶梯最多尝试的候选数，避免在坏线缆上长时间逐一尝试所有模式
+    public static final int MAX_STEPS = 6;
+
+    // 降级记录缓存，键为 (vendorId << 16) | productId，值为 失败模式 -> 可用模式
+    private static final HashMap<Integer, HashMap<Long, Long>> sOutcomes = new HashMap<>();
+
+    private ModeFallbackLadder() {
+    }
+
+    /**
+     * 生成 failed 模式的降级候选，按尝试顺序排列，只包含总线占用低于 failed 的支持模式(见 ModePlanner.isCheaper)
+     */
+    public static long[] build(CameraCapabilities capabilities, Size failed) {
+        long failedMode = CameraCapabilities.mode(failed);
+        long failedPixels = (long) failed.width * failed.height;
+
+        // 候选数不超过128个，排序键低7位存放候选序号
+        long[] candidates = new long[0x80];
+        long[] keys = new long[0x80];
+        int count = 0;
+        for (long mode : capabilities.getModes()) {
+            int format = CameraCapabilities.formatOf(mode);
+            int width = CameraCapabilities.widthOf(mode);
+            int height = CameraCapabilities.heightOf(mode);
+            int fps = CameraCapabilities.fpsOf(mode);
+            long pixels = (long) width * height;
+            if (pixels > failedPixels || !ModePlanner.isCheaper(mode, failedMode)) {
+                continue;
+            }
+
+            // 阶段: 0 同格式同分辨率降帧率，1 同分辨率改用MJPEG，2 降低分辨率
+            int stage;
+            if (width == failed.width && height == failed.height) {
+                if (format == failed.type) {
+                    stage = 0;
+                } else if (format == UVCCamera.UVC_VS_FRAME_MJPEG) {
+                    stage = 1;
+                } else {
+                    continue;  // 同分辨率换成非MJPEG格式不会更省带宽
+                }
+            } else {
+                stage = 2;
+            }
+
+            // 排序键: 阶段 | 像素数降序 | MJPEG优先 | 帧率降序 | 序号
+            keys[count] = ((long) stage << 60)
+                    | ((0xFFFFFFFL - Math.min(pixels, 0xFFFFFFFL)) << 32)
+                    | ((format == UVCCamera.UVC_VS_FRAME_MJPEG ? 0L : 1L) << 31)
+                    | ((long) (0xFFFF - fps) << 7)
+                    | count;
+            candidates[count++] = mode;
+            if (count == candidates.length) {
+                break;
+            }
+        }
+
+        long[] sorted = Arrays.copyOf(keys, count);
+        Arrays.sort(sorted);
+
+        long[] ladder = new long[Math.min(count, MAX_STEPS)];
+        for (int i = 0; i < ladder.length; i++) {
+            ladder[i] = candidates[(int) (sorted[i] & 0x7F)];
+        }
+        return ladder;
+    }
+
+    // ==================== 降级记录 ====================
+
+    /**
+     * 记录降级结果：failedMode 无法出流，workingMode 可以出流
+     */
+    public static void recordOutcome(Context context, int vendorId, int productId, long failedMode, long workingMode) {
+        HashMap<Long, Long> outcomes = getOutcomes(context, vendorId, productId);
+        synchronized (sOutcomes) {
+            Long previous = outcomes.put(failedMode, workingMode);
+            if (previous != null && previous == workingMode) {
+                return;
+            }
+        }
+        save(context, vendorId, productId, outcomes);
+    }
+
+    /**
+     * 模式恢复可用时清除其降级记录
+     */
+    public static void clearOutcome(Context context, int vendorId, int productId, long mode) {
+        HashMap<Long, Long> outcomes = getOutcomes(context, vendorId, productId);
+        synchronized (sOutcomes) {
+            if (outcomes.remove(mode) == null) {
+                return;
+            }
+        }
+        save(context, vendorId, productId, outcomes);
+    }
+
+    /**
+     * 查询已知无法出流的模式对应的可用模式，没有记录时返回-1
+     */
+    public static long getWorkingMode(Context context, int vendorId, int productId, long mode) {
+        HashMap<Long, Long> outcomes = getOutcomes(context, vendorId, productId);
+        synchronized (sOutcomes) {
+            Long working = outcomes.get(mode);
+            return working != null ? working : -1;
+        }
+    }
+
+    private static HashMap<Long, Long> getOutcomes(Context context, int vendorId, int productId) {
+        int key = (vendorId << 16) | (productId & 0xFFFF);
+        synchronized (sOutcomes) {
+            HashMap<Long, Long> outcomes = sOutcomes.get(key);
+            if (outcomes == null) {
+                outcomes = load(context, vendorId, productId);
+                sOutcomes.put(key, outcomes);
+            }
+            return outcomes;
+        }
+    }
+
+    private static void save(Context context, int vendorId, int productId, HashMap<Long, Long> outcomes) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            JSONObject fallbacks = new JSONObject();
+            synchronized (sOutcomes) {
+                for (HashMap.Entry<Long, Long> entry : outcomes.entrySet()) {
+                    fallbacks.put(String.valueOf(entry.getKey()), (long) entry.getValue());
+                }
+            }
+            JSONObject json = new JSONObject();
+            json.put("version", FALLBACK_VERSION);
+            json.put("fallbacks", fallbacks);
+
+            File file = new File(new File(context.getFilesDir(), CAPS_DIR), getFallbackFilename(vendorId, productId));
+            if (!ConfigManager.writeFileAtomically(file, json.toString())) {
+                Log.e(TAG, "保存降级记录失败: " + file.getName());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "保存降级记录失败", e);
+        }
+    }
+
+    private static HashMap<Long, Long> load(Context context, int vendorId, int productId) {
+        HashMap<Long, Long> outcomes = new HashMap<>();
+        if (context == null) {
+            return outcomes;
+        }
+
+        File file = new File(new File(context.getFilesDir(), CAPS_DIR), getFallbackFilename(vendorId, productId));
+        if (!file.exists()) {
+            return outcomes;
+        }
+
+        try (FileInputStream fis = new FileInputStream(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(fis))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line);
+            }
+
+            JSONObject json = new JSONObject(sb.toString());
+            if (json.optInt("version", 0) != FALLBACK_VERSION) {
+                return outcomes;
+            }
+
+            JSONObject fallbacks = json.getJSONObject("fallbacks");
+            Iterator<String> keys = fallbacks.keys();
+            while (keys.hasNext()) {
+                String failed = keys.next();
+                outcomes.put(Long.parseLong(failed), fallbacks.getLong(failed));
+            }
+        } catch (IOException | JSONException | NumberFormatException e) {
+            // 旧版本写入中断留下的不完整文件，删除后重新记录
+            Log.e(TAG, "加载降级记录失败，删除记录: " + file.getName(), e);
+            outcomes.clear();
+            if (!file.delete()) {
+                Log.w(TAG, "删除降级记录失败: " + file.getName());
+            }
+        }
+        return outcomes;
+    }
+
+    private static String getFallbackFilename(int vendorId, int productId) {
+        return String.format("fallback_%04x_%04x.json", vendorId, productId);
+    }
+}
@@ -0,0 +1,149 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * 带宽感知的模式选择类
+ * 每个模式按未压缩的YUY2字节数乘帧率估算数据量，按格式与各自的预算比较：
+ * YUV在总线上原样传输，与USB总线预算比较，超出预算的YUV模式在我们的集线器上无法出流；
+ * MJPEG压缩后的码率由相机决定，无法从描述符得知，与单独的MJPEG预算(主机解码后的数据量)比较，默认不限制。
+ * 预算只用于自动选择模式和为不受支持的参数选择替代模式，相机支持的已保存参数不受预算限制
+ */
+public class ModePlanner {
+    // USB 2.0 高速等时传输的实际上限：每微帧3×1024字节，每秒8000个微帧
+    public static final long DEFAULT_YUV_BUDGET = 3L * 1024 * 8000;
+    // MJPEG默认不限制，与只按描述符选择模式时一致
+    public static final long DEFAULT_MJPEG_BUDGET = Long.MAX_VALUE;
+
+    // YUY2每像素2字节
+    private static final int YUV_BYTES_PER_PIXEL = 2;
+
+    private final long mYuvBudget;
+    private final long mMjpegBudget;
+
+    public ModePlanner() {
+        this(DEFAULT_YUV_BUDGET, DEFAULT_MJPEG_BUDGET);
+    }
+
+    /**
+     * @param yuvBudget   YUV模式的总线预算(字节/秒)
+     * @param mjpegBudget MJPEG模式解码后的预算(字节/秒)
+     */
+    public ModePlanner(long yuvBudget, long mjpegBudget) {
+        mYuvBudget = yuvBudget;
+        mMjpegBudget = mjpegBudget;
+    }
+
+    public long getYuvBudget() {
+        return mYuvBudget;
+    }
+
+    public long getMjpegBudget() {
+        return mMjpegBudget;
+    }
+
+    /**
+     * 估算模式每秒未压缩的数据量(YUY2字节数)，对YUV即总线字节数
+     */
+    public static long estimateBandwidth(int format, int width, int height, int fps) {
+        return (long) width * height * YUV_BYTES_PER_PIXEL * fps;
+    }
+
+    public static long estimateBandwidth(Size size) {
+        return estimateBandwidth(size.type, size.width, size.height, size.fps);
+    }
+
+    /**
+     * 模式是否在对应格式的预算内
+     */
+    public boolean fits(int format, int width, int height, int fps) {
+        long budget = format == UVCCamera.UVC_VS_FRAME_MJPEG ? mMjpegBudget : mYuvBudget;
+        return estimateBandwidth(format, width, height, fps) <= budget;
+    }
+
+    public boolean fits(Size size) {
+        return fits(size.type, size.width, size.height, size.fps);
+    }
+
+    /**
+     * 模式占用的总线带宽是否低于 other：同格式比较数据量；
+     * MJPEG在数据量不高于YUV时总线占用更低，YUV与MJPEG比较时只能按数据量判断
+     */
+    public static boolean isCheaper(long mode, long other) {
+        long bandwidth = bandwidthOf(mode);
+        long otherBandwidth = bandwidthOf(other);
+        if (CameraCapabilities.formatOf(mode) == UVCCamera.UVC_VS_FRAME_MJPEG
+                && CameraCapabilities.formatOf(other) != UVCCamera.UVC_VS_FRAME_MJPEG) {
+            return bandwidth <= otherBandwidth;
+        }
+        return bandwidth < otherBandwidth;
+    }
+
+    /**
+     * 在分辨率不低于 minWidth x minHeight 的模式中选帧率最高的一组，
+     * 帧率相同时选分辨率最接近下限、带宽最低的，没有满足条件的模式时返回null
+     */
+    public Size planMaxFps(CameraCapabilities capabilities, int minWidth, int minHeight) {
+        long best = -1;
+        for (long mode : capabilities.getModes()) {
+            int width = CameraCapabilities.widthOf(mode);
+            int height = CameraCapabilities.heightOf(mode);
+            if (width < minWidth || height < minHeight || !fits(mode)) {
+                continue;
+            }
+            if (best < 0 || compare(CameraCapabilities.fpsOf(mode), CameraCapabilities.fpsOf(best),
+                    pixelsOf(best), pixelsOf(mode), mode, best) > 0) {
+                best = mode;
+            }
+        }
+        return best >= 0 ? CameraCapabilities.toSize(best) : null;
+    }
+
+    /**
+     * 在帧率不低于 minFps 的模式中选分辨率最高的一组，
+     * 分辨率相同时选帧率最高、带宽最低的，没有满足条件的模式时返回null
+     */
+    public Size planMaxResolution(CameraCapabilities capabilities, int minFps) {
+        long best = -1;
+        for (long mode : capabilities.getModes()) {
+            if (CameraCapabilities.fpsOf(mode) < minFps || !fits(mode)) {
+                continue;
+            }
+            if (best < 0 || compare(pixelsOf(mode), pixelsOf(best),
+                    CameraCapabilities.fpsOf(mode), CameraCapabilities.fpsOf(best), mode, best) > 0) {
+                best = mode;
+            }
+        }
+        return best >= 0 ? CameraCapabilities.toSize(best) : null;
+    }
+
+    private boolean fits(long mode) {
+        return fits(CameraCapabilities.formatOf(mode), CameraCapabilities.widthOf(mode),
+                CameraCapabilities.heightOf(mode), CameraCapabilities.fpsOf(mode));
+    }
+
+    // 依次比较主目标、次目标，最后总线占用低者优先
+    private static int compare(long primary, long otherPrimary,
+                               long secondary, long otherSecondary, long mode, long other) {
+        if (primary != otherPrimary) {
+            return primary > otherPrimary ? 1 : -1;
+        }
+        if (secondary != otherSecondary) {
+            return secondary > otherSecondary ? 1 : -1;
+        }
+        if (isCheaper(mode, other)) {
+            return 1;
+        }
+        return isCheaper(other, mode) ? -1 : 0;
+    }
+
+    private static long bandwidthOf(long mode) {
+        return estimateBandwidth(CameraCapabilities.formatOf(mode), CameraCapabilities.widthOf(mode),
+                CameraCapabilities.heightOf(mode), CameraCapabilities.fpsOf(mode));
+    }
+
+    private static long pixelsOf(long mode) {
+        return (long) CameraCapabilities.widthOf(mode) * CameraCapabilities.heightOf(mode);
+    }
+}
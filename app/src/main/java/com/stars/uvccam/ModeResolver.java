@@ -0,0 +1,200 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+
+import java.util.Arrays;
+
+/**
+ * 最近模式解析类
+ * 保存的模式不受支持时(例如换了同系列的其他型号)，在支持模式中选出与目标最接近的一组，
+ * 而不是退回到描述符中的第一组。每种格式的分辨率按像素数排序，帧率按数值排序，查找使用二分查找
+ */
+public class ModeResolver {
+    // 低于目标的分辨率/帧率代价加倍，优先选择不低于目标的模式
+    private static final double DOWNGRADE_WEIGHT = 2.0;
+    // 格式不同的额外代价，约等于分辨率差一档
+    private static final double FORMAT_PENALTY = 0.25;
+
+    private final CameraCapabilities mCapabilities;
+    private final int[] mFormats;
+    // 每种格式的分辨率(打包值)按像素数升序排列，mPixels 为对应的像素数
+    private final int[][] mResolutions;
+    private final long[][] mPixels;
+    // 每种格式每个分辨率的帧率，升序排列
+    private final int[][][] mFrameRates;
+
+    public ModeResolver(CameraCapabilities capabilities) {
+        this(capabilities, null);
+    }
+
+    /**
+     * 替代模式只从 planner 预算内的模式中选择，planner 为null时不限制；受支持的目标不受预算限制
+     */
+    public ModeResolver(CameraCapabilities capabilities, ModePlanner planner) {
+        mCapabilities = capabilities;
+        mFormats = capabilities.getFormats();
+        mResolutions = new int[mFormats.length][];
+        mPixels = new long[mFormats.length][];
+        mFrameRates = new int[mFormats.length][][];
+
+        for (int f = 0; f < mFormats.length; f++) {
+            int[] resolutions = capabilities.getResolutions(mFormats[f]);
+
+            // 按 (像素数, 打包值) 排序，像素数相同的分辨率相邻
+            long[] order = new long[resolutions.length];
+            for (int i = 0; i < resolutions.length; i++) {
+                order[i] = (pixelsOf(resolutions[i]) << 32) | (resolutions[i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(order);
+
+            int count = 0;
+            mResolutions[f] = new int[order.length];
+            mPixels[f] = new long[order.length];
+            mFrameRates[f] = new int[order.length][];
+            for (long entry : order) {
+                int resolution = (int) entry;
+                int width = CameraCapabilities.resolutionWidth(resolution);
+                int height = CameraCapabilities.resolutionHeight(resolution);
+                int[] rates = withinBudget(capabilities.getFrameRates(mFormats[f], width, height),
+                        mFormats[f], width, height, planner);
+                if (rates.length == 0) {
+                    continue;  // 所有帧率都超出带宽预算
+                }
+                mResolutions[f][count] = resolution;
+                mPixels[f][count] = entry >>> 32;
+                mFrameRates[f][count++] = rates;
+            }
+            mResolutions[f] = Arrays.copyOf(mResolutions[f], count);
+            mPixels[f] = Arrays.copyOf(mPixels[f], count);
+            mFrameRates[f] = Arrays.copyOf(mFrameRates[f], count);
+        }
+    }
+
+    /**
+     * 返回与目标最接近的支持模式，目标本身受支持时原样返回，没有任何支持模式时返回null
+     */
+    public Size resolve(Size target) {
+        if (mCapabilities.isSupported(target)) {
+            return target;
+        }
+
+        long best = -1;
+        double bestCost = Double.MAX_VALUE;
+        long targetPixels = (long) target.width * target.height;
+
+        for (int f = 0; f < mFormats.length; f++) {
+            long[] pixels = mPixels[f];
+            if (pixels.length == 0) {
+                continue;
+            }
+            double formatCost = mFormats[f] == target.type ? 0 : FORMAT_PENALTY;
+
+            // 像素数不小于目标的第一个分辨率，以及它前面像素数最接近的一组
+            int ceiling = lowerBound(pixels, targetPixels);
+            int floor = ceiling - 1;
+
+            for (int i = groupStart(pixels, floor); i <= groupEnd(pixels, ceiling); i++) {
+                int resolution = mResolutions[f][i];
+                double cost = formatCost
+                        + resolutionCost(resolution, target.width, target.height)
+                        + weightedLogDistance(pixels[i], targetPixels);
+
+                int[] rates = mFrameRates[f][i];
+                int fpsCeiling = lowerBound(rates, target.fps);
+                for (int r = Math.max(0, fpsCeiling - 1); r <= Math.min(rates.length - 1, fpsCeiling); r++) {
+                    double total = cost + weightedLogDistance(rates[r], target.fps);
+                    if (total < bestCost) {
+                        bestCost = total;
+                        best = CameraCapabilities.mode(mFormats[f],
+                                CameraCapabilities.resolutionWidth(resolution),
+                                CameraCapabilities.resolutionHeight(resolution), rates[r]);
+                    }
+                }
+            }
+        }
+
+        return best >= 0 ? CameraCapabilities.toSize(best) : null;
+    }
+
+    // 过滤超出带宽预算的帧率，结果升序排列
+    private static int[] withinBudget(int[] rates, int format, int width, int height, ModePlanner planner) {
+        int count = 0;
+        int[] result = new int[rates.length];
+        for (int fps : rates) {
+            if (planner == null || planner.fits(format, width, height, fps)) {
+                result[count++] = fps;
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // 宽高比不同的额外代价，避免选中像素数接近但画面比例不同的分辨率
+    private static double resolutionCost(int resolution, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double aspect = (double) CameraCapabilities.resolutionWidth(resolution)
+                / CameraCapabilities.resolutionHeight(resolution);
+        return Math.abs(Math.log(aspect * height / width));
+    }
+
+    // 按比例计算距离，低于目标的方向加权
+    private static double weightedLogDistance(long value, long target) {
+        if (value <= 0 || target <= 0) {
+            return value == target ? 0 : 1;
+        }
+        double distance = Math.log((double) value / target);
+        return distance < 0 ? -distance * DOWNGRADE_WEIGHT : distance;
+    }
+
+    private static long pixelsOf(int resolution) {
+        return (long) CameraCapabilities.resolutionWidth(resolution)
+                * CameraCapabilities.resolutionHeight(resolution);
+    }
+
+    // 像素数相同的一组分辨率的起止位置，越界时返回空区间的一端
+    private static int groupStart(long[] pixels, int index) {
+        if (index < 0) {
+            return 0;
+        }
+        while (index > 0 && pixels[index - 1] == pixels[index]) {
+            index--;
+        }
+        return index;
+    }
+
+    private static int groupEnd(long[] pixels, int index) {
+        if (index >= pixels.length) {
+            return pixels.length - 1;
+        }
+        while (index < pixels.length - 1 && pixels[index + 1] == pixels[index]) {
+            index++;
+        }
+        return index;
+    }
+
+    // 第一个不小于key的位置
+    private static int lowerBound(long[] array, long key) {
+        int index = Arrays.binarySearch(array, key);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && array[index - 1] == key) {
+            index--;
+        }
+        return index;
+    }
+
+    private static int lowerBound(int[] array, int key) {
+        int index = Arrays.binarySearch(array, key);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && array[index - 1] == key) {
+            index--;
+        }
+        return index;
+    }
+}
@@ -2,6 +2,8 @@ package com.stars.uvccam;
 
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
@@ -12,15 +14,15 @@ import android.widget.Toast;
 
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCCamera;
-import com.serenegiant.usb.UVCControl;
-import org.json.JSONObject;
 
 public class SettingsManager implements CameraManager.CameraStateListener {
     private static final String TAG = "SettingsManager";
+    private static final String EXPOSURE_MANAGED = "软件自动曝光或距离分段曝光开启时不能手动调整曝光";
 
     private final Context mContext;
     private final CameraManager mCameraManager;
     private final FormatManager mFormatManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     private MainActivity mMainActivity;
 
     // 当前相机设置
@@ -46,6 +48,8 @@ public class SettingsManager implements CameraManager.CameraStateListener {
     private boolean mIsAutoExposure = true;
     // 是否为彩色模式
     private boolean mIsColorMode = true;
+    // 最后加载的配置，保存时沿用界面上没有的距离分段曝光
+    private CameraConfig mLoadedConfig;
 
     public SettingsManager(Context context, CameraManager cameraManager, FormatManager formatManager) {
         mContext = context;
@@ -106,10 +110,11 @@ public class SettingsManager implements CameraManager.CameraStateListener {
             mCurrentSize = previewSize;
         }
 
-        // 加载并应用配置
-        loadSavedConfig();
-        applySavedConfigToCamera();
-        updateCameraParameters();
+        // 加载并应用配置，配置在打开相机时已读入缓存，通常立即回调
+        loadSavedConfig(() -> {
+            applySavedConfigToCamera();
+            updateCameraParameters();
+        });
     }
 
     @Override
@@ -122,57 +127,52 @@ public class SettingsManager implements CameraManager.CameraStateListener {
         // 不需要处理
     }
 
-    private void applySavedConfigToCamera() {
+    @Override
+    public void onPreviewSizeChanged(Size previewSize) {
+        if (previewSize != null) {
+            mCurrentSize = previewSize;
+        }
+    }
+
+    /**
+     * 界面重新绑定到仍在开流的相机时同步显示，不重新应用配置
+     */
+    public void syncCameraState() {
         if (mCameraManager == null || !mCameraManager.isCameraOpened()) {
-            Log.d(TAG, "相机未打开，无法应用配置");
             return;
         }
 
-        try {
-            // 应用相机格式和分辨率
-            mCameraManager.setPreviewSize(mCurrentSize);
-
-            // 应用曝光和增益设置
-            UVCControl control = mCameraManager.getUVCControl();
-            if (control != null) {
-                // 应用自动/手动曝光
-                control.setExposureTimeAuto(mIsAutoExposure);
-
-                if (!mIsAutoExposure && mExposureTimeInput != null && mGainInput != null) {
-                    // 如果是手动曝光，应用曝光和增益值
-                    String exposureText = mExposureTimeInput.getText().toString();
-                    if (!TextUtils.isEmpty(exposureText)) {
-                        try {
-                            int exposure = Integer.parseInt(exposureText);
-                            control.setExposureTimeAbsolute(exposure);
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "无效的曝光值", e);
-                        }
-                    }
+        loadSavedConfig(() -> {
+            mCurrentSize = mCameraManager.getPreviewSize();
+            updateCameraParameters();
+        });
+    }
 
-                    String gainText = mGainInput.getText().toString();
-                    if (!TextUtils.isEmpty(gainText)) {
-                        try {
-                            int gain = Integer.parseInt(gainText);
-                            control.setGain(gain);
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "无效的增益值", e);
-                        }
-                    }
-                }
+    private void applySavedConfigToCamera() {
+        if (mCameraManager == null || !mCameraManager.isCameraOpened()) {
+            Log.d(TAG, "相机未打开，无法应用配置");
+            return;
+        }
 
-                // 应用彩色/黑白模式
-                if (mIsColorMode) {
-                    control.resetSaturation();
-                } else {
-                    control.setSaturation(0);
-                }
-            }
+        // 应用相机格式和分辨率
+        mCameraManager.setPreviewSize(mCurrentSize);
 
-            Log.d(TAG, "已应用保存的配置到相机");
-        } catch (Exception e) {
-            Log.e(TAG, "应用配置到相机失败", e);
+        // 应用曝光、增益和彩色模式，在相机线程只写入与相机当前状态不同的参数
+        CameraConfig.Builder builder = new CameraConfig.Builder()
+                .setAutoExposure(mIsAutoExposure)
+                .setColorMode(mIsColorMode);
+        if (mExposureTimeInput != null && mGainInput != null) {
+            builder.setExposure(parseInput(mExposureTimeInput, "无效的曝光值"))
+                    .setGain(parseInput(mGainInput, "无效的增益值"));
         }
+        CameraConfig config = builder.build();
+        submitControl(CameraManager.CONTROL_APPLY, controls -> controls.apply(config), (writes, error) -> {
+            if (error != null) {
+                Log.e(TAG, "应用配置到相机失败", error);
+            } else {
+                Log.d(TAG, "已应用保存的配置到相机，写入" + writes + "次");
+            }
+        });
     }
 
     // 应用曝光设置
@@ -182,31 +182,42 @@ public class SettingsManager implements CameraManager.CameraStateListener {
             return;
         }
 
-        UVCControl control = mCameraManager.getUVCControl();
-        if (control == null || !control.isExposureTimeAbsoluteEnable()) {
-            showToast("曝光时间调整不支持");
+        String exposureText = mExposureTimeInput.getText().toString();
+        if (TextUtils.isEmpty(exposureText)) {
             return;
         }
 
-        String exposureText = mExposureTimeInput.getText().toString();
-        if (!TextUtils.isEmpty(exposureText)) {
-            try {
-                int exposureTime = Integer.parseInt(exposureText);
-                int[] limits = control.updateExposureTimeAbsoluteLimit();
+        int exposureTime;
+        try {
+            exposureTime = Integer.parseInt(exposureText);
+        } catch (NumberFormatException e) {
+            showToast("请输入有效的曝光时间数值");
+            return;
+        }
 
-                // 验证范围
-                if (exposureTime < limits[0] || exposureTime > limits[1]) {
-                    showToast(String.format("曝光时间需在%d-%d之间", limits[0], limits[1]));
-                    return;
-                }
+        submitControl(CameraManager.CONTROL_EXPOSURE, controls -> {
+            if (controls.isExposureManaged()) {
+                throw new IllegalStateException(EXPOSURE_MANAGED);
+            }
+            if (!controls.isExposureSupported()) {
+                throw new UnsupportedOperationException("曝光时间调整不支持");
+            }
 
-                control.setExposureTimeAbsolute(exposureTime);
-                showToast("曝光时间已设置为: " + exposureTime + " us");
-//                saveCurrentConfig();
-            } catch (NumberFormatException e) {
-                showToast("请输入有效的曝光时间数值");
+            // 验证范围
+            int[] limits = controls.getExposureLimits();
+            if (limits != null && (exposureTime < limits[0] || exposureTime > limits[1])) {
+                throw new IllegalArgumentException(String.format("曝光时间需在%d-%d之间", limits[0], limits[1]));
             }
-        }
+
+            controls.setExposure(exposureTime);
+            return exposureTime;
+        }, (exposure, error) -> {
+            if (error != null) {
+                showToast(error.getMessage());
+            } else {
+                showToast("曝光时间已设置为: " + exposure + " us");
+            }
+        });
     }
 
     // 应用增益设置
@@ -216,31 +227,42 @@ public class SettingsManager implements CameraManager.CameraStateListener {
             return;
         }
 
-        UVCControl control = mCameraManager.getUVCControl();
-        if (control == null || !control.isGainEnable()) {
-            showToast("增益调整不支持");
+        String gainText = mGainInput.getText().toString();
+        if (TextUtils.isEmpty(gainText)) {
             return;
         }
 
-        String gainText = mGainInput.getText().toString();
-        if (!TextUtils.isEmpty(gainText)) {
-            try {
-                int gain = Integer.parseInt(gainText);
-                int[] limits = control.updateGainLimit();
+        int gain;
+        try {
+            gain = Integer.parseInt(gainText);
+        } catch (NumberFormatException e) {
+            showToast("请输入有效的增益值数值");
+            return;
+        }
 
-                // 验证范围
-                if (gain < limits[0] || gain > limits[1]) {
-                    showToast(String.format("增益值需在%d-%d之间", limits[0], limits[1]));
-                    return;
-                }
+        submitControl(CameraManager.CONTROL_GAIN, controls -> {
+            if (controls.isExposureManaged()) {
+                throw new IllegalStateException(EXPOSURE_MANAGED);
+            }
+            if (!controls.isGainSupported()) {
+                throw new UnsupportedOperationException("增益调整不支持");
+            }
 
-                control.setGain(gain);
-                showToast("增益值已设置为: " + gain);
-//                saveCurrentConfig();
-            } catch (NumberFormatException e) {
-                showToast("请输入有效的增益值数值");
+            // 验证范围
+            int[] limits = controls.getGainLimits();
+            if (limits != null && (gain < limits[0] || gain > limits[1])) {
+                throw new IllegalArgumentException(String.format("增益值需在%d-%d之间", limits[0], limits[1]));
             }
-        }
+
+            controls.setGain(gain);
+            return gain;
+        }, (value, error) -> {
+            if (error != null) {
+                showToast(error.getMessage());
+            } else {
+                showToast("增益值已设置为: " + value);
+            }
+        });
     }
 
     // 应用触发周期设置
@@ -260,114 +282,116 @@ public class SettingsManager implements CameraManager.CameraStateListener {
         }
     }
 
-    // 切换自动曝光
+    // 切换自动曝光，界面立即切换，相机在相机线程更新
     public void toggleAutoExposure() {
         if (mCameraManager == null || !mCameraManager.isCameraOpened()) {
             showToast("请先打开相机");
             return;
         }
-
-        UVCControl control = mCameraManager.getUVCControl();
-        if (control == null) {
+        if (mCameraManager.isExposureManaged()) {
+            showToast(EXPOSURE_MANAGED);
             return;
         }
 
         mIsAutoExposure = !mIsAutoExposure;
+        final boolean isAutoExposure = mIsAutoExposure;
 
-        if (mIsAutoExposure) {
-            control.setExposureTimeAuto(true);
-            if (mAutoExposureButton != null) mAutoExposureButton.setText("自动曝光");
-            if (mExposureTimeInput != null) mExposureTimeInput.setEnabled(false);
-            if (mGainInput != null) mGainInput.setEnabled(false);
-            showToast("切换到自动曝光模式");
-        } else {
-            control.setExposureTimeAuto(false);
-            if (mAutoExposureButton != null) mAutoExposureButton.setText("手动曝光");
-            if (mExposureTimeInput != null) mExposureTimeInput.setEnabled(true);
-            if (mGainInput != null) mGainInput.setEnabled(true);
+        if (mAutoExposureButton != null) mAutoExposureButton.setText(isAutoExposure ? "自动曝光" : "手动曝光");
+        if (mExposureTimeInput != null) mExposureTimeInput.setEnabled(!isAutoExposure);
+        if (mGainInput != null) mGainInput.setEnabled(!isAutoExposure);
 
-            // 应用当前输入框中的曝光和增益值
-            try {
-                if (mExposureTimeInput != null) {
-                    String exposureText = mExposureTimeInput.getText().toString();
-                    if (!TextUtils.isEmpty(exposureText)) {
-                        int exposureTime = Integer.parseInt(exposureText);
-                        control.setExposureTimeAbsolute(exposureTime);
-                    }
-                }
-            } catch (NumberFormatException e) {
-                int[] limits = control.updateExposureTimeAbsoluteLimit();
-                showToast(String.format("曝光时间需在%d-%d之间", limits[0], limits[1]));
+        // 切换到手动曝光时应用当前输入框中的曝光和增益值，无效的输入为-1
+        final int exposureTime = isAutoExposure ? 0 : parseToggleInput(mExposureTimeInput);
+        final int gain = isAutoExposure ? 0 : parseToggleInput(mGainInput);
+
+        submitControl(CameraManager.CONTROL_AUTO_EXPOSURE, controls -> {
+            if (controls.isExposureManaged()) {
+                throw new IllegalStateException(EXPOSURE_MANAGED);
+            }
+            controls.setAutoExposure(isAutoExposure);
+            if (isAutoExposure) {
+                return "切换到自动曝光模式";
             }
 
-            try {
-                if (mGainInput != null) {
-                    String gainText = mGainInput.getText().toString();
-                    if (!TextUtils.isEmpty(gainText)) {
-                        int gain = Integer.parseInt(gainText);
-                        control.setGain(gain);
-                    }
+            if (exposureTime > 0) {
+                controls.setExposure(exposureTime);
+            } else if (exposureTime < 0) {
+                int[] limits = controls.getExposureLimits();
+                if (limits != null) {
+                    return String.format("曝光时间需在%d-%d之间", limits[0], limits[1]);
                 }
-            } catch (NumberFormatException e) {
-                int[] limits = control.updateGainLimit();
-                showToast(String.format("增益值需在%d-%d之间", limits[0], limits[1]));
             }
 
-            showToast("切换到手动曝光模式");
-        }
+            if (gain > 0) {
+                controls.setGain(gain);
+            } else if (gain < 0) {
+                int[] limits = controls.getGainLimits();
+                if (limits != null) {
+                    return String.format("增益值需在%d-%d之间", limits[0], limits[1]);
+                }
+            }
+            return "切换到手动曝光模式";
+        }, (message, error) -> {
+            if (error != null) {
+                showToast("切换曝光模式失败: " + error.getMessage());
+                // 界面已切换，按相机实际状态恢复
+                updateCameraParameters();
+            } else {
+                showToast(message);
+            }
+        });
 
 //        saveCurrentConfig();
     }
 
-    // 切换彩色/黑白模式
+    // 切换彩色/黑白模式，界面立即切换，相机在相机线程更新
     public void toggleColorMode() {
         if (mCameraManager == null || !mCameraManager.isCameraOpened()) {
             showToast("请先打开相机");
             return;
         }
 
-        UVCControl control = mCameraManager.getUVCControl();
-        if (control == null) {
-            return;
-        }
-
         mIsColorMode = !mIsColorMode;
-
-        if (mIsColorMode) {
-            // 设置为彩色模式
-            control.setHueAuto(true);
-            control.resetSaturation();
-            if (mColorModeButton != null) mColorModeButton.setText("彩色模式");
-            showToast("已切换到彩色模式");
-        } else {
-            // 设置为黑白模式
-            control.setHueAuto(false);
-            control.setSaturation(0);
-            if (mColorModeButton != null) mColorModeButton.setText("黑白模式");
-            showToast("已切换到黑白模式");
-        }
+        final boolean isColorMode = mIsColorMode;
+        if (mColorModeButton != null) mColorModeButton.setText(isColorMode ? "彩色模式" : "黑白模式");
+
+        submitControl(CameraManager.CONTROL_COLOR_MODE, controls -> controls.setColorMode(isColorMode),
+                (written, error) -> {
+                    if (error != null) {
+                        showToast("切换颜色模式失败: " + error.getMessage());
+                    } else {
+                        showToast(isColorMode ? "已切换到彩色模式" : "已切换到黑白模式");
+                    }
+                });
 
 //        saveCurrentConfig();
     }
 
-    // 更新相机参数显示
+    // 更新相机参数显示：在相机线程读取参数快照，范围只从设备读取一次，读取完成后在主线程更新界面
     public void updateCameraParameters() {
         if (mCameraManager == null || !mCameraManager.isCameraOpened()) {
             return;
         }
 
-        UVCControl control = mCameraManager.getUVCControl();
-        if (control == null) {
-            return;
-        }
+        submitControl(CameraManager.CONTROL_REFRESH, CameraControls::snapshot, (snapshot, error) -> {
+            if (error != null) {
+                Log.e(TAG, "更新相机参数失败", error);
+                return;
+            }
+
+            // 自动曝光状态
+            mIsAutoExposure = snapshot.autoExposure;
+            if (mAutoExposureButton != null) {
+                mAutoExposureButton.setText(mIsAutoExposure ? "自动曝光" : "手动曝光");
+            }
 
-        try {
             // 曝光时间
-            if (mExposureTimeInput != null && control.isExposureTimeAbsoluteEnable()) {
-                int[] exposureLimits = control.updateExposureTimeAbsoluteLimit();
-                int exposureValue = control.getExposureTimeAbsolute();
-                mExposureTimeInput.setText(String.valueOf(exposureValue));
-                mExposureTimeInput.setHint(String.format("范围: %d-%d", exposureLimits[0], exposureLimits[1]));
+            if (mExposureTimeInput != null && snapshot.exposureSupported) {
+                mExposureTimeInput.setText(String.valueOf(snapshot.exposure));
+                if (snapshot.exposureLimits != null) {
+                    mExposureTimeInput.setHint(String.format("范围: %d-%d",
+                            snapshot.exposureLimits[0], snapshot.exposureLimits[1]));
+                }
                 mExposureTimeInput.setEnabled(!mIsAutoExposure);
             } else if (mExposureTimeInput != null) {
                 mExposureTimeInput.setEnabled(false);
@@ -375,33 +399,23 @@ public class SettingsManager implements CameraManager.CameraStateListener {
             }
 
             // 增益值
-            if (mGainInput != null && control.isGainEnable()) {
-                int[] gainLimits = control.updateGainLimit();
-                int gainValue = control.getGain();
-                mGainInput.setText(String.valueOf(gainValue));
-                mGainInput.setHint(String.format("范围: %d-%d", gainLimits[0], gainLimits[1]));
+            if (mGainInput != null && snapshot.gainSupported) {
+                mGainInput.setText(String.valueOf(snapshot.gain));
+                if (snapshot.gainLimits != null) {
+                    mGainInput.setHint(String.format("范围: %d-%d", snapshot.gainLimits[0], snapshot.gainLimits[1]));
+                }
                 mGainInput.setEnabled(!mIsAutoExposure);
             } else if (mGainInput != null) {
                 mGainInput.setEnabled(false);
                 mGainInput.setHint("不支持增益调整");
             }
 
-            // 自动曝光状态
-            mIsAutoExposure = control.isExposureTimeAuto();
-            if (mAutoExposureButton != null) {
-                mAutoExposureButton.setText(mIsAutoExposure ? "自动曝光" : "手动曝光");
-            }
-
             // 彩色模式状态
-            int saturation = control.getSaturation();
-            mIsColorMode = saturation > 0;
+            mIsColorMode = snapshot.colorMode;
             if (mColorModeButton != null) {
                 mColorModeButton.setText(mIsColorMode ? "彩色模式" : "黑白模式");
             }
-
-        } catch (Exception e) {
-            Log.e(TAG, "更新相机参数失败", e);
-        }
+        });
     }
 
     // 从UI保存参数到相机
@@ -410,36 +424,17 @@ public class SettingsManager implements CameraManager.CameraStateListener {
             return;
         }
 
-        // 读取并应用曝光时间
-        if (mExposureTimeInput != null) {
-            try {
-                String exposureText = mExposureTimeInput.getText().toString();
-                if (!TextUtils.isEmpty(exposureText)) {
-                    int exposure = Integer.parseInt(exposureText);
-                    UVCControl control = mCameraManager.getUVCControl();
-                    if (control != null && control.isExposureTimeAbsoluteEnable()) {
-                        control.setExposureTimeAbsolute(exposure);
-                    }
-                }
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "无效的曝光值", e);
-            }
+        // 在相机线程应用曝光时间和增益，未变化的值不会写入相机；曝光被接管时不写入
+        int exposure = mExposureTimeInput != null ? parseInput(mExposureTimeInput, "无效的曝光值") : 0;
+        if (exposure > 0) {
+            submitControl(CameraManager.CONTROL_SAVE_EXPOSURE,
+                    controls -> !controls.isExposureManaged() && controls.setExposure(exposure), null);
         }
 
-        // 读取并应用增益
-        if (mGainInput != null) {
-            try {
-                String gainText = mGainInput.getText().toString();
-                if (!TextUtils.isEmpty(gainText)) {
-                    int gain = Integer.parseInt(gainText);
-                    UVCControl control = mCameraManager.getUVCControl();
-                    if (control != null && control.isGainEnable()) {
-                        control.setGain(gain);
-                    }
-                }
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "无效的增益值", e);
-            }
+        int gain = mGainInput != null ? parseInput(mGainInput, "无效的增益值") : 0;
+        if (gain > 0) {
+            submitControl(CameraManager.CONTROL_SAVE_GAIN,
+                    controls -> !controls.isExposureManaged() && controls.setGain(gain), null);
         }
 
         // 获取格式设置
@@ -450,6 +445,7 @@ public class SettingsManager implements CameraManager.CameraStateListener {
 
             // 应用格式设置
             Size newSize = mFormatManager.getSelectedSize(formatPosition, resolutionPosition, frameratePosition);
+            mFormatManager.cancelPendingChange();
             if (newSize != null) {
                 mCurrentSize = newSize;
                 mCameraManager.setPreviewSize(mCurrentSize);
@@ -459,48 +455,50 @@ public class SettingsManager implements CameraManager.CameraStateListener {
         saveCurrentConfig();
     }
 
-    // 加载保存的配置
-    private void loadSavedConfig() {
-        int vendorId = mCameraManager.getCurrentVendorId();
-        int productId = mCameraManager.getCurrentProductId();
-
-        if (vendorId <= 0 || productId <= 0) {
+    // 加载保存的配置，配置载入UI后在主线程执行 onLoaded
+    private void loadSavedConfig(Runnable onLoaded) {
+        CameraIdentity identity = mCameraManager.getCurrentIdentity();
+        if (identity == null) {
             return;
         }
 
-        JSONObject config = ConfigManager.loadConfig(mContext, vendorId, productId);
+        ConfigManager.loadConfigAsync(mContext, identity, config -> {
+            showSavedConfig(config);
+            onLoaded.run();
+        });
+    }
+
+    private void showSavedConfig(CameraConfig config) {
+        mLoadedConfig = config;
         if (config != null) {
             try {
                 // 加载格式、分辨率、帧率
-                mCurrentSize.type = config.optInt("format", mCurrentSize.type);
-                mCurrentSize.width = config.optInt("width", mCurrentSize.width);
-                mCurrentSize.height = config.optInt("height", mCurrentSize.height);
-                mCurrentSize.fps = config.optInt("fps", mCurrentSize.fps);
+                mCurrentSize = config.getPreviewSize();
 
                 // 加载其他参数
                 if (mExposureTimeInput != null) {
-                    mExposureTimeInput.setText(String.valueOf(config.optInt("exposure", 0)));
+                    mExposureTimeInput.setText(String.valueOf(config.getExposure()));
                 }
 
                 if (mGainInput != null) {
-                    mGainInput.setText(String.valueOf(config.optInt("gain", 0)));
+                    mGainInput.setText(String.valueOf(config.getGain()));
                 }
 
                 if (mTriggerPeriodInput != null) {
-                    mTriggerPeriodInput.setText(String.valueOf(config.optInt("triggerPeriod", 0)));
+                    mTriggerPeriodInput.setText(String.valueOf(config.getTriggerPeriod()));
                 }
 
                 if (mSerialCommandInput1 != null) {
-                    mSerialCommandInput1.setText(config.optString("serial1", ""));
+                    mSerialCommandInput1.setText(config.getSerial1());
                 }
 
                 if (mSerialCommandInput2 != null) {
-                    mSerialCommandInput2.setText(config.optString("serial2", ""));
+                    mSerialCommandInput2.setText(config.getSerial2());
                 }
 
                 // 加载模式状态
-                mIsAutoExposure = config.optInt("isAutoExposure", 1) == 1;
-                mIsColorMode = config.optInt("isColorMode", 1) == 1;
+                mIsAutoExposure = config.isAutoExposure();
+                mIsColorMode = config.isColorMode();
 
                 Log.d(TAG, "已加载设备配置");
             } catch (Exception e) {
@@ -511,74 +509,119 @@ public class SettingsManager implements CameraManager.CameraStateListener {
 
     // 保存当前配置
     public void saveCurrentConfig() {
-        int vendorId = mCameraManager.getCurrentVendorId();
-        int productId = mCameraManager.getCurrentProductId();
+        CameraIdentity identity = mCameraManager.getCurrentIdentity();
+        if (identity == null) {
+            return;
+        }
+
+        // 保存配置，内容未变化时不会写文件
+        ConfigManager.saveConfig(mContext, identity, buildConfigFromUI());
+    }
 
-        if (vendorId <= 0 || productId <= 0) {
+    /**
+     * 将当前参数保存为命名的配置方案
+     */
+    public void saveCurrentAsProfile(String name) {
+        if (TextUtils.isEmpty(name)) {
+            showToast("请输入方案名称");
             return;
         }
 
+        CompletionFuture<CameraConfig> future = mCameraManager.saveProfile(name, buildConfigFromUI());
+        future.addListener(() -> {
+            Throwable error = future.getError();
+            if (error != null) {
+                showToast("保存方案失败: " + error.getMessage());
+            } else {
+                showToast("已保存方案: " + name);
+            }
+        }, mMainHandler::post);
+    }
+
+    /**
+     * 切换到命名的配置方案，切换完成后刷新参数UI
+     */
+    public void switchProfile(String name) {
+        CompletionFuture<CameraConfig> future = mCameraManager.switchProfile(name);
+        future.addListener(() -> {
+            Throwable error = future.getError();
+            if (error != null) {
+                showToast("切换方案失败: " + error.getMessage());
+                return;
+            }
+            mLoadedConfig = future.getNow(null);
+            mCurrentSize = mLoadedConfig.getPreviewSize();
+            updateParamUIFromConfig();
+            showToast("已切换到方案: " + name);
+        }, mMainHandler::post);
+    }
+
+    // 从UI读取当前参数，无效的数值按0保存
+    private CameraConfig buildConfigFromUI() {
         // 获取当前选择的格式
         mCurrentSize = mFormatManager.getCurrentSelectedSize();
 
-        // 读取UI输入值
-        int exposure = 0;
-        int gain = 0;
-        int triggerPeriod = 0;
-        String serial1 = "";
-        String serial2 = "";
+        CameraConfig.Builder builder = new CameraConfig.Builder()
+                .setPreviewSize(mCurrentSize)
+                .setAutoExposure(mIsAutoExposure)
+                .setColorMode(mIsColorMode);
+
+        // 距离分段曝光不在界面上编辑，沿用加载的配置
+        if (mLoadedConfig != null) {
+            builder.setDistanceBands(mLoadedConfig.getDistanceBands())
+                    .setDistanceHysteresis(mLoadedConfig.getDistanceHysteresis());
+        }
 
         if (mExposureTimeInput != null) {
             try {
-                exposure = Integer.parseInt(mExposureTimeInput.getText().toString());
+                builder.setExposure(Integer.parseInt(mExposureTimeInput.getText().toString()));
             } catch (NumberFormatException ignored) {}
         }
 
         if (mGainInput != null) {
             try {
-                gain = Integer.parseInt(mGainInput.getText().toString());
+                builder.setGain(Integer.parseInt(mGainInput.getText().toString()));
             } catch (NumberFormatException ignored) {}
         }
 
         if (mTriggerPeriodInput != null) {
             try {
-                triggerPeriod = Integer.parseInt(mTriggerPeriodInput.getText().toString());
+                builder.setTriggerPeriod(Integer.parseInt(mTriggerPeriodInput.getText().toString()));
             } catch (NumberFormatException ignored) {}
         }
 
         if (mSerialCommandInput1 != null) {
-            serial1 = mSerialCommandInput1.getText().toString();
+            builder.setSerial1(mSerialCommandInput1.getText().toString());
         }
 
         if (mSerialCommandInput2 != null) {
-            serial2 = mSerialCommandInput2.getText().toString();
+            builder.setSerial2(mSerialCommandInput2.getText().toString());
         }
 
-        // 保存配置
-        ConfigManager.saveConfig(mContext, vendorId, productId,
-                mCurrentSize.type, mCurrentSize.width, mCurrentSize.height, mCurrentSize.fps,
-                exposure, gain, triggerPeriod, serial1, serial2,
-                mIsAutoExposure ? 1 : 0, mIsColorMode ? 1 : 0);
+        return builder.build();
     }
 
     public void updateParamUIFromConfig() {
         // 获取当前设备信息
-        int vendorId = mCameraManager.getCurrentVendorId();
-        int productId = mCameraManager.getCurrentProductId();
+        CameraIdentity identity = mCameraManager.getCurrentIdentity();
 
-        if (vendorId <= 0 || productId <= 0 || !mCameraManager.isCameraOpened()) {
+        if (identity == null || !mCameraManager.isCameraOpened()) {
             Log.d(TAG, "相机未打开或设备ID无效，无法更新UI");
             return;
         }
 
         // 从配置文件加载参数
-        JSONObject config = ConfigManager.loadConfig(mContext, vendorId, productId);
+        ConfigManager.loadConfigAsync(mContext, identity, this::showConfigInParamUI);
+    }
+
+    private void showConfigInParamUI(CameraConfig config) {
+        mLoadedConfig = config;
         if (config != null) {
             // 更新UI控件
             try {
                 // 曝光值
                 if (mExposureTimeInput != null) {
-                    int exposure = config.optInt("exposure", 0);
+                    int exposure = config.getExposure();
                     if (exposure > 0) {
                         mExposureTimeInput.setText(String.valueOf(exposure));
                     }
@@ -586,7 +629,7 @@ public class SettingsManager implements CameraManager.CameraStateListener {
 
                 // 增益值
                 if (mGainInput != null) {
-                    int gain = config.optInt("gain", 0);
+                    int gain = config.getGain();
                     if (gain > 0) {
                         mGainInput.setText(String.valueOf(gain));
                     }
@@ -594,7 +637,7 @@ public class SettingsManager implements CameraManager.CameraStateListener {
 
                 // 触发周期
                 if (mTriggerPeriodInput != null) {
-                    int triggerPeriod = config.optInt("triggerPeriod", 0);
+                    int triggerPeriod = config.getTriggerPeriod();
                     if (triggerPeriod > 0) {
                         mTriggerPeriodInput.setText(String.valueOf(triggerPeriod));
                     }
@@ -602,15 +645,15 @@ public class SettingsManager implements CameraManager.CameraStateListener {
 
                 // 串口指令
                 if (mSerialCommandInput1 != null) {
-                    mSerialCommandInput1.setText(config.optString("serial1", ""));
+                    mSerialCommandInput1.setText(config.getSerial1());
                 }
 
                 if (mSerialCommandInput2 != null) {
-                    mSerialCommandInput2.setText(config.optString("serial2", ""));
+                    mSerialCommandInput2.setText(config.getSerial2());
                 }
 
                 // 自动曝光状态
-                boolean isAutoExposure = config.optInt("isAutoExposure", 1) == 1;
+                boolean isAutoExposure = config.isAutoExposure();
                 mIsAutoExposure = isAutoExposure;
 
                 if (mAutoExposureButton != null) {
@@ -626,7 +669,7 @@ public class SettingsManager implements CameraManager.CameraStateListener {
                 }
 
                 // 彩色模式状态
-                boolean isColorMode = config.optInt("isColorMode", 1) == 1;
+                boolean isColorMode = config.isColorMode();
                 mIsColorMode = isColorMode;
 
                 if (mColorModeButton != null) {
@@ -664,6 +707,48 @@ public class SettingsManager implements CameraManager.CameraStateListener {
         updateCameraParameters();
     }
 
+    // 控制参数操作结果回调，在主线程执行，失败时 error 不为null；被同类新请求取代时不回调
+    private interface ControlResult<T> {
+        void onResult(T result, Throwable error);
+    }
+
+    private <T> void submitControl(int mergeKey, CameraManager.ControlTask<T> task, ControlResult<T> callback) {
+        CompletionFuture<T> future = mCameraManager.submitControl(mergeKey, task);
+        if (callback != null) {
+            future.addListener(() -> {
+                if (!future.isCancelled()) {
+                    callback.onResult(future.getNow(null), future.getError());
+                }
+            }, mMainHandler::post);
+        }
+    }
+
+    // 读取切换曝光模式时输入框中的整数，为空时返回0，无效时返回-1
+    private static int parseToggleInput(EditText input) {
+        if (input == null || TextUtils.isEmpty(input.getText().toString())) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(input.getText().toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 读取输入框中的整数，为空或无效时返回0
+    private static int parseInput(EditText input, String error) {
+        String text = input.getText().toString();
+        if (TextUtils.isEmpty(text)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, error, e);
+            return 0;
+        }
+    }
+
     private void showToast(String message) {
         if (mContext != null) {
             Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
@@ -0,0 +1,282 @@
+package com.stars.uvccam;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 软件自动曝光
+ * 相机保持手动曝光以保证成像一致，由这里根据画面亮度闭环调整曝光时间和增益，补偿光照漂移。
+ * 每隔N帧在稀疏网格上采样亮度并统计直方图，不分配内存，单次计算远小于1毫秒；
+ * 调整量按阻尼系数衰减并限制单次步长，变亮时先加曝光再加增益，变暗时先减增益再减曝光。
+ * 控制写入交给相机线程执行，写入完成并稳定一次采样周期后才进行下一次调整
+ */
+public class SoftwareAutoExposure {
+    private static final String TAG = "SoftwareAutoExposure";
+
+    public static final int DEFAULT_TARGET_LUMA = 118;
+    public static final int DEFAULT_FRAME_INTERVAL = 4;
+    // 目标亮度的容差，范围内不调整
+    private static final int DEADBAND = 8;
+    // 阻尼系数：每次只校正亮度误差(按比例)的这一部分
+    private static final double DAMPING = 0.5;
+    // 单次调整的最大倍率
+    private static final double MAX_STEP = 2.0;
+    // 过曝判定：亮度不低于该值的采样点超过比例时，即使平均亮度不高也降低曝光
+    private static final int CLIP_LEVEL = 250;
+    private static final int MAX_CLIPPED_PERCENT = 5;
+    // 增益范围按4档曝光量计算，每档为范围的1/4
+    private static final int GAIN_STOPS = 4;
+    // 采样网格
+    private static final int GRID_COLUMNS = 32;
+    private static final int GRID_ROWS = 24;
+
+    /**
+     * 控制写入，在帧回调线程调用，不能阻塞；写入完成后必须调用 onWriteComplete
+     */
+    public interface ControlWriter {
+        void write(int exposure, int gain);
+    }
+
+    private final ControlWriter mWriter;
+    private final int[] mHistogram = new int[256];
+
+    private volatile int mTargetLuma = DEFAULT_TARGET_LUMA;
+    private volatile int mFrameInterval = DEFAULT_FRAME_INTERVAL;
+
+    // 以下字段由 start 设置，之后只在帧回调线程访问；mRunning 的写入保证可见性
+    private volatile boolean mRunning = false;
+    private int mWidth;
+    private int mHeight;
+    private int mPixelStride;
+    private int mExposure;
+    private int mExposureMin;
+    private int mExposureMax;
+    private boolean mGainSupported;
+    private int mGain;
+    private int mGainMin;
+    private int mGainMax;
+    private int mFrameCounter;
+    private int mSettleSamples;
+
+    private volatile boolean mWritePending = false;
+
+    // 指标
+    private volatile int mLastMeanLuma = -1;
+    private volatile long mIterations;
+    private volatile long mAdjustments;
+    private volatile long mLastIterationNanos;
+    private volatile long mMaxIterationNanos;
+
+    public SoftwareAutoExposure(ControlWriter writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * 设置目标平均亮度(0-255)
+     */
+    public void setTargetLuma(int luma) {
+        mTargetLuma = Math.max(DEADBAND, Math.min(255 - DEADBAND, luma));
+    }
+
+    /**
+     * 设置采样间隔，每 interval 帧计算一次
+     */
+    public void setFrameInterval(int interval) {
+        mFrameInterval = Math.max(1, interval);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 开始调整，在相机线程调用
+     *
+     * @param pixelStride 亮度分量的间隔字节数：YUYV为2，NV21为1
+     * @param gainLimits  不支持增益时为null
+     */
+    public void start(int width, int height, int pixelStride,
+                      int exposure, int[] exposureLimits, int gain, int[] gainLimits) {
+        mRunning = false;
+        mWidth = width;
+        mHeight = height;
+        mPixelStride = pixelStride;
+        mExposureMin = exposureLimits[0];
+        mExposureMax = exposureLimits[1];
+        mExposure = clamp(exposure, mExposureMin, mExposureMax);
+        mGainSupported = gainLimits != null;
+        if (mGainSupported) {
+            mGainMin = gainLimits[0];
+            mGainMax = gainLimits[1];
+            mGain = clamp(gain, mGainMin, mGainMax);
+        }
+        mFrameCounter = 0;
+        mSettleSamples = 0;
+        mWritePending = false;
+        mRunning = true;
+        Log.d(TAG, "软件自动曝光已启动: 曝光=" + mExposure + " (" + mExposureMin + "-" + mExposureMax + ")" +
+                (mGainSupported ? ", 增益=" + mGain + " (" + mGainMin + "-" + mGainMax + ")" : ""));
+    }
+
+    public void stop() {
+        mRunning = false;
+    }
+
+    /**
+     * 控制写入完成，在相机线程调用；跳过一次采样等待新的曝光生效
+     */
+    public void onWriteComplete() {
+        mWritePending = false;
+    }
+
+    /**
+     * 每帧调用，在帧回调线程执行
+     */
+    public void onFrame(ByteBuffer frame) {
+        if (!mRunning || mWritePending) {
+            return;
+        }
+        if (++mFrameCounter < mFrameInterval) {
+            return;
+        }
+        mFrameCounter = 0;
+        if (mSettleSamples > 0) {
+            mSettleSamples--;
+            return;
+        }
+
+        long start = System.nanoTime();
+        int mean = sampleLuma(frame);
+        if (mean >= 0) {
+            adjust(mean);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        mLastIterationNanos = elapsed;
+        if (elapsed > mMaxIterationNanos) {
+            mMaxIterationNanos = elapsed;
+        }
+        mIterations++;
+    }
+
+    // 在稀疏网格上统计亮度直方图，返回平均亮度；帧数据不完整时返回-1
+    private int sampleLuma(ByteBuffer frame) {
+        int width = mWidth;
+        int height = mHeight;
+        int stride = mPixelStride;
+        if ((long) width * height * stride > frame.capacity()) {
+            return -1;
+        }
+
+        Arrays.fill(mHistogram, 0);
+        int stepX = Math.max(1, width / GRID_COLUMNS);
+        int stepY = Math.max(1, height / GRID_ROWS);
+        int count = 0;
+        long sum = 0;
+        for (int y = stepY / 2; y < height; y += stepY) {
+            int row = y * width;
+            for (int x = stepX / 2; x < width; x += stepX) {
+                int luma = frame.get((row + x) * stride) & 0xFF;
+                mHistogram[luma]++;
+                sum += luma;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+
+        int mean = (int) (sum / count);
+        mLastMeanLuma = mean;
+
+        int clipped = 0;
+        for (int i = CLIP_LEVEL; i < mHistogram.length; i++) {
+            clipped += mHistogram[i];
+        }
+        // 过曝区域过多时，按不低于目标亮度处理，只允许降低曝光
+        if (clipped * 100 > count * MAX_CLIPPED_PERCENT) {
+            mean = Math.max(mean, mTargetLuma + DEADBAND + 1);
+        }
+        return mean;
+    }
+
+    private void adjust(int mean) {
+        int target = mTargetLuma;
+        if (Math.abs(mean - target) <= DEADBAND) {
+            return;
+        }
+
+        // 按比例校正误差的一部分，并限制单次步长
+        double ratio = Math.pow((double) target / Math.max(mean, 1), DAMPING);
+        ratio = Math.max(1 / MAX_STEP, Math.min(MAX_STEP, ratio));
+        double stops = Math.log(ratio) / Math.log(2);
+
+        int exposure = mExposure;
+        int gain = mGain;
+        int gainPerStop = mGainSupported ? Math.max(1, (mGainMax - mGainMin) / GAIN_STOPS) : 0;
+        if (ratio > 1) {
+            // 变亮：先加曝光时间，曝光到上限后用增益补足剩余的部分
+            exposure = clamp((int) Math.ceil(mExposure * ratio), mExposureMin, mExposureMax);
+            double remaining = stops - Math.log((double) exposure / Math.max(mExposure, 1)) / Math.log(2);
+            if (mGainSupported && remaining > 0.05) {
+                gain = clamp(mGain + (int) Math.ceil(remaining * gainPerStop), mGainMin, mGainMax);
+            }
+        } else {
+            // 变暗：先减增益，增益到下限后再减曝光时间
+            if (mGainSupported && mGain > mGainMin) {
+                gain = clamp(mGain + (int) Math.floor(stops * gainPerStop), mGainMin, mGainMax);
+                double used = (double) (mGain - gain) / gainPerStop;
+                stops += used;
+            }
+            if (stops < -0.05) {
+                exposure = clamp((int) Math.floor(mExposure * Math.pow(2, stops)), mExposureMin, mExposureMax);
+            }
+        }
+
+        if (exposure == mExposure && gain == mGain) {
+            return;  // 已到调整范围的边界
+        }
+
+        mExposure = exposure;
+        mGain = gain;
+        mAdjustments++;
+        mSettleSamples = 1;
+        mWritePending = true;
+        mWriter.write(exposure, mGainSupported ? gain : -1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    // ==================== 指标 ====================
+
+    public int getLastMeanLuma() {
+        return mLastMeanLuma;
+    }
+
+    public long getIterations() {
+        return mIterations;
+    }
+
+    public long getAdjustments() {
+        return mAdjustments;
+    }
+
+    public long getMaxIterationMicros() {
+        return mMaxIterationNanos / 1000;
+    }
+
+    public String getReport() {
+        return "=== 软件自动曝光报告 ===\n" +
+                "状态: " + (mRunning ? "运行中" : "已停止") + "\n" +
+                "目标亮度: " + mTargetLuma + "\n" +
+                "最近平均亮度: " + mLastMeanLuma + "\n" +
+                "计算次数: " + mIterations + "\n" +
+                "调整次数: " + mAdjustments + "\n" +
+                "最近计算耗时: " + mLastIterationNanos / 1000 + "us\n" +
+                "最长计算耗时: " + mMaxIterationNanos / 1000 + "us\n";
+    }
+}
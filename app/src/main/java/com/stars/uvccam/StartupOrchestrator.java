@@ -0,0 +1,236 @@
+package com.stars.uvccam;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 启动流程编排类
+ * 将启动工作拆分为带依赖关系的任务，无依赖的任务并行执行，
+ * 后台任务运行在线程池中，需要访问UI或相机助手的任务运行在主线程
+ */
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+
+    // 后台并行任务的线程数
+    private static final int WORKER_THREADS = 3;
+
+    /**
+     * 启动任务
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * 启动流程监听器，回调均在主线程执行
+     */
+    public interface Listener {
+        void onTaskFinished(String name, long durationMs, Throwable error);
+        void onAllFinished(long totalMs);
+    }
+
+    private static class Node {
+        final String name;
+        final boolean onMainThread;
+        final Task task;
+        final String[] dependsOn;
+        final List<Node> dependents = new ArrayList<>();
+        int pendingDependencies;
+        boolean failed;
+
+        Node(String name, boolean onMainThread, Task task, String[] dependsOn) {
+            this.name = name;
+            this.onMainThread = onMainThread;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final String mName;
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor;
+    private Listener mListener;
+
+    // 以下字段只在主线程访问
+    private int mRemaining;
+    private long mStartTime;
+    private boolean mStarted = false;
+    private volatile boolean mCancelled = false;
+
+    public StartupOrchestrator(String name) {
+        mName = name;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 添加后台任务
+     */
+    public StartupOrchestrator addTask(String name, Task task, String... dependsOn) {
+        return addTask(name, false, task, dependsOn);
+    }
+
+    /**
+     * 添加主线程任务
+     */
+    public StartupOrchestrator addMainThreadTask(String name, Task task, String... dependsOn) {
+        return addTask(name, true, task, dependsOn);
+    }
+
+    private StartupOrchestrator addTask(String name, boolean onMainThread, Task task, String... dependsOn) {
+        if (mStarted) {
+            throw new IllegalStateException("启动流程已开始，无法添加任务: " + name);
+        }
+        if (mNodes.containsKey(name)) {
+            throw new IllegalArgumentException("重复的启动任务: " + name);
+        }
+        mNodes.put(name, new Node(name, onMainThread, task, dependsOn));
+        return this;
+    }
+
+    /**
+     * 开始执行启动流程，必须在主线程调用
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+
+        // 建立依赖关系
+        for (Node node : mNodes.values()) {
+            for (String dependency : node.dependsOn) {
+                Node parent = mNodes.get(dependency);
+                if (parent == null) {
+                    throw new IllegalArgumentException(node.name + " 依赖的任务不存在: " + dependency);
+                }
+                parent.dependents.add(node);
+                node.pendingDependencies++;
+            }
+        }
+
+        mRemaining = mNodes.size();
+        mStartTime = SystemClock.elapsedRealtime();
+        mExecutor = Executors.newFixedThreadPool(WORKER_THREADS);
+
+        if (mRemaining == 0) {
+            finish();
+            return;
+        }
+
+        for (Node node : mNodes.values()) {
+            if (node.pendingDependencies == 0) {
+                schedule(node);
+            }
+        }
+    }
+
+    /**
+     * 取消尚未执行的任务，已在执行的任务会执行完毕
+     */
+    public void cancel() {
+        mCancelled = true;
+        mMainHandler.removeCallbacksAndMessages(null);
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void schedule(Node node) {
+        if (mCancelled) {
+            return;
+        }
+
+        Runnable runnable = () -> execute(node);
+        if (node.onMainThread) {
+            mMainHandler.post(runnable);
+        } else {
+            mExecutor.execute(runnable);
+        }
+    }
+
+    private void execute(Node node) {
+        if (mCancelled) {
+            return;
+        }
+
+        long begin = SystemClock.elapsedRealtime();
+        Throwable error = null;
+        try {
+            node.task.run();
+        } catch (Throwable t) {
+            error = t;
+        }
+        long duration = SystemClock.elapsedRealtime() - begin;
+
+        final Throwable result = error;
+        if (node.onMainThread) {
+            onNodeFinished(node, duration, result);
+        } else {
+            mMainHandler.post(() -> onNodeFinished(node, duration, result));
+        }
+    }
+
+    private void onNodeFinished(Node node, long durationMs, Throwable error) {
+        if (mCancelled) {
+            return;
+        }
+
+        if (error != null) {
+            node.failed = true;
+            Log.e(TAG, "[" + mName + "] 任务失败: " + node.name + " (" + durationMs + "ms)", error);
+        } else {
+            Log.d(TAG, "[" + mName + "] 任务完成: " + node.name + " (" + durationMs + "ms)");
+        }
+
+        if (mListener != null) {
+            mListener.onTaskFinished(node.name, durationMs, error);
+        }
+        mRemaining--;
+
+        for (Node dependent : node.dependents) {
+            if (node.failed) {
+                dependent.failed = true;
+            }
+            if (--dependent.pendingDependencies == 0) {
+                if (dependent.failed) {
+                    // 依赖失败的任务不再执行，直接按失败处理
+                    onNodeFinished(dependent, 0,
+                            new IllegalStateException("依赖任务失败，跳过: " + dependent.name));
+                } else {
+                    schedule(dependent);
+                }
+            }
+        }
+
+        if (mRemaining == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        long total = SystemClock.elapsedRealtime() - mStartTime;
+        Log.i(TAG, "[" + mName + "] 启动流程完成，总耗时: " + total + "ms");
+        mExecutor.shutdown();
+
+        if (mListener != null) {
+            mListener.onAllFinished(total);
+        }
+    }
+}
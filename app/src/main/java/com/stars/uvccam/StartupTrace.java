@@ -0,0 +1,77 @@
+package com.stars.uvccam;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 冷启动耗时记录类
+ * 记录进程启动、首个距离数据、相机打开和首帧画面的时间点，每个时间点只记录第一次
+ */
+public class StartupTrace {
+    private static final String TAG = "StartupTrace";
+
+    // 时间点
+    public static final int PROCESS_START = 0;
+    public static final int FIRST_DISTANCE = 1;
+    public static final int CAMERA_OPEN = 2;
+    public static final int FIRST_FRAME = 3;
+
+    private static final String[] NAMES = {"进程启动", "首个距离数据", "相机打开", "首帧画面"};
+
+    // 未记录的时间点为0，时间基准为 SystemClock.elapsedRealtime()
+    private static final AtomicLongArray sTimestamps = new AtomicLongArray(NAMES.length);
+
+    static {
+        long processStart;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            processStart = Process.getStartElapsedRealtime();
+        } else {
+            // 低版本无法获取进程启动时间，以类加载时间近似
+            processStart = SystemClock.elapsedRealtime();
+        }
+        sTimestamps.set(PROCESS_START, processStart);
+    }
+
+    private StartupTrace() {
+    }
+
+    /**
+     * 记录时间点，已记录过的时间点忽略
+     */
+    public static void mark(int milestone) {
+        long now = SystemClock.elapsedRealtime();
+        if (sTimestamps.compareAndSet(milestone, 0, now)) {
+            Log.i(TAG, NAMES[milestone] + ": +" + (now - sTimestamps.get(PROCESS_START)) + "ms");
+        }
+    }
+
+    /**
+     * 获取时间点相对进程启动的耗时，未记录时返回-1
+     */
+    public static long getElapsedSinceProcessStart(int milestone) {
+        long timestamp = sTimestamps.get(milestone);
+        if (timestamp == 0) {
+            return -1;
+        }
+        return timestamp - sTimestamps.get(PROCESS_START);
+    }
+
+    /**
+     * 获取所有时间点的报告
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("=== 启动耗时报告 ===\n");
+        for (int i = 1; i < NAMES.length; i++) {
+            long elapsed = getElapsedSinceProcessStart(i);
+            report.append(NAMES[i]).append(": ")
+                    .append(elapsed >= 0 ? "+" + elapsed + "ms" : "未记录")
+                    .append("\n");
+        }
+        return report.toString();
+    }
+}
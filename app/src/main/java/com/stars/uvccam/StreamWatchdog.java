@@ -0,0 +1,254 @@
+package com.stars.uvccam;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * 视频流停顿监测类
+ * 记录每帧到达时间，超过阈值没有新帧时判定为停顿，先尝试重启预览，仍无画面再重新打开相机，
+ * 重新打开的间隔逐次加倍。停顿次数和恢复耗时作为指标对外提供
+ */
+public class StreamWatchdog {
+    private static final String TAG = "StreamWatchdog";
+
+    // 恢复动作
+    public static final int ACTION_RESTART_PREVIEW = 0;
+    public static final int ACTION_REOPEN = 1;
+
+    public static final long DEFAULT_STALL_THRESHOLD_MS = 2000;
+    // 重新打开相机的最大间隔
+    private static final long MAX_REOPEN_INTERVAL_MS = 30000;
+
+    /**
+     * 恢复动作回调，在监测线程执行
+     */
+    public interface RecoveryHandler {
+        void onStall(int action, long stalledMs);
+    }
+
+    private final Handler mHandler;
+    private final RecoveryHandler mRecoveryHandler;
+    private volatile long mThresholdMs = DEFAULT_STALL_THRESHOLD_MS;
+
+    // 帧回调线程写入
+    private volatile long mLastFrameTime;
+    private volatile long mFrameCount;
+
+    // 以下字段只在监测线程访问
+    private boolean mRunning = false;
+    private int mAttempts;
+    private long mNextActionTime;
+
+    // 当前停顿的检出时间，未停顿时为0；监测线程置位，帧回调线程清零
+    private volatile long mStallStartTime = 0;
+
+    // 指标
+    private final Object mMetricsLock = new Object();
+    private int mStallCount;
+    private int mPreviewRestartCount;
+    private int mReopenCount;
+    private int mRecoveryCount;
+    private long mLastRecoveryMs = -1;
+    private long mMaxRecoveryMs;
+    private long mTotalRecoveryMs;
+
+    public StreamWatchdog(Handler handler, RecoveryHandler recoveryHandler) {
+        mHandler = handler;
+        mRecoveryHandler = recoveryHandler;
+    }
+
+    /**
+     * 设置停顿阈值，小于等于0时关闭监测
+     */
+    public void setThreshold(long thresholdMs) {
+        mThresholdMs = thresholdMs;
+    }
+
+    public long getThreshold() {
+        return mThresholdMs;
+    }
+
+    public boolean isEnabled() {
+        return mThresholdMs > 0;
+    }
+
+    /**
+     * 每帧调用，只记录时间戳，不分配内存
+     */
+    public void onFrame() {
+        long now = SystemClock.elapsedRealtime();
+        mLastFrameTime = now;
+        mFrameCount++;
+
+        long stallStart = mStallStartTime;
+        if (stallStart != 0) {
+            mStallStartTime = 0;
+            recordRecovery(now - stallStart);
+        }
+    }
+
+    /**
+     * 开始监测，必须在监测线程调用；进行中的停顿会继续计时和升级恢复动作
+     */
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        mLastFrameTime = SystemClock.elapsedRealtime();
+        if (!mRunning) {
+            mRunning = true;
+            mHandler.postDelayed(mCheck, getCheckInterval());
+        }
+    }
+
+    /**
+     * 暂停监测(切换参数、关闭相机时)，保留进行中的停顿状态
+     */
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mCheck);
+    }
+
+    /**
+     * 停止监测并清除停顿状态，用于主动关闭相机
+     */
+    public void reset() {
+        stop();
+        mStallStartTime = 0;
+        mAttempts = 0;
+    }
+
+    private long getCheckInterval() {
+        return Math.max(mThresholdMs / 4, 100);
+    }
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            long silence = now - mLastFrameTime;
+            if (mStallStartTime == 0) {
+                if (silence >= mThresholdMs) {
+                    mStallStartTime = now;
+                    mAttempts = 0;
+                    synchronized (mMetricsLock) {
+                        mStallCount++;
+                    }
+                    Log.w(TAG, "视频流停顿: " + silence + "ms 未收到新帧");
+                    recover(now, silence);
+                }
+            } else if (now >= mNextActionTime) {
+                recover(now, silence);
+            }
+
+            if (mRunning) {
+                mHandler.postDelayed(this, getCheckInterval());
+            }
+        }
+    };
+
+    // 第一次重启预览，之后重新打开相机，重新打开的间隔逐次加倍
+    private void recover(long now, long stalledMs) {
+        int action;
+        long wait;
+        if (mAttempts == 0) {
+            action = ACTION_RESTART_PREVIEW;
+            wait = mThresholdMs;
+            synchronized (mMetricsLock) {
+                mPreviewRestartCount++;
+            }
+        } else {
+            action = ACTION_REOPEN;
+            wait = Math.min(mThresholdMs << Math.min(mAttempts, 8), MAX_REOPEN_INTERVAL_MS);
+            synchronized (mMetricsLock) {
+                mReopenCount++;
+            }
+        }
+        mAttempts++;
+        mNextActionTime = now + wait;
+
+        Log.w(TAG, (action == ACTION_RESTART_PREVIEW ? "重启预览" : "重新打开相机") +
+                "，第" + mAttempts + "次恢复尝试");
+        mRecoveryHandler.onStall(action, stalledMs);
+    }
+
+    private void recordRecovery(long recoveryMs) {
+        synchronized (mMetricsLock) {
+            mRecoveryCount++;
+            mLastRecoveryMs = recoveryMs;
+            mMaxRecoveryMs = Math.max(mMaxRecoveryMs, recoveryMs);
+            mTotalRecoveryMs += recoveryMs;
+        }
+        Log.i(TAG, "视频流已恢复，耗时: " + recoveryMs + "ms");
+    }
+
+    // ==================== 指标 ====================
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public boolean isStalled() {
+        return mStallStartTime != 0;
+    }
+
+    public int getStallCount() {
+        synchronized (mMetricsLock) {
+            return mStallCount;
+        }
+    }
+
+    public int getPreviewRestartCount() {
+        synchronized (mMetricsLock) {
+            return mPreviewRestartCount;
+        }
+    }
+
+    public int getReopenCount() {
+        synchronized (mMetricsLock) {
+            return mReopenCount;
+        }
+    }
+
+    /**
+     * 最近一次恢复耗时，从检出停顿到收到新帧，未恢复过时返回-1
+     */
+    public long getLastRecoveryMs() {
+        synchronized (mMetricsLock) {
+            return mLastRecoveryMs;
+        }
+    }
+
+    public long getMaxRecoveryMs() {
+        synchronized (mMetricsLock) {
+            return mMaxRecoveryMs;
+        }
+    }
+
+    public long getAverageRecoveryMs() {
+        synchronized (mMetricsLock) {
+            return mRecoveryCount > 0 ? mTotalRecoveryMs / mRecoveryCount : -1;
+        }
+    }
+
+    /**
+     * 获取指标报告
+     */
+    public String getReport() {
+        synchronized (mMetricsLock) {
+            return "=== 视频流监测报告 ===\n" +
+                    "帧数: " + mFrameCount + "\n" +
+                    "停顿次数: " + mStallCount + "\n" +
+                    "重启预览次数: " + mPreviewRestartCount + "\n" +
+                    "重新打开次数: " + mReopenCount + "\n" +
+                    "恢复次数: " + mRecoveryCount + "\n" +
+                    "最近恢复耗时: " + (mLastRecoveryMs >= 0 ? mLastRecoveryMs + "ms" : "无") + "\n" +
+                    "最长恢复耗时: " + mMaxRecoveryMs + "ms\n";
+        }
+    }
+}
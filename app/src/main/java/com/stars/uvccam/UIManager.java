@@ -126,6 +126,9 @@ public class UIManager implements CameraManager.CameraStateListener {
         mCloseTestMainButton = mMainControlPanelView.findViewById(R.id.close_test_main_button);
         mOpenSettingsButton = mMainControlPanelView.findViewById(R.id.button_open_settings);
 
+        // 未提交的格式变更由重新加载的配置覆盖
+        mFormatManager.cancelPendingChange();
+
         if (mCameraManager != null && mCameraManager.isCameraOpened()) {
             // 重新加载并应用配置文件参数
             mCameraManager.reloadSavedParameters();
@@ -195,6 +198,24 @@ public class UIManager implements CameraManager.CameraStateListener {
         // 不需要处理
     }
 
+    @Override
+    public void onPreviewSizeChanged(Size previewSize) {
+        if (mCameraPreview != null && previewSize != null) {
+            mCameraPreview.setAspectRatio(previewSize.width, previewSize.height);
+        }
+    }
+
+    /**
+     * 界面重新绑定到采集服务时同步相机状态，相机仍在开流时不会收到打开回调
+     */
+    public void syncCameraState() {
+        boolean opened = mCameraManager.isCameraOpened();
+        if (opened) {
+            onPreviewSizeChanged(mCameraManager.getPreviewSize());
+        }
+        setControlsEnabled(opened);
+    }
+
     public boolean onStartTest1() {
         if (!isTest1Running) {
             mOpenTest1Button.setText("拍照");
@@ -1,11 +1,16 @@
 package com.stars.uvccam;
 
+import android.content.Context;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
 import android.util.Log;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -187,6 +192,66 @@ public class UsbDeviceDetector {
         return findDeviceByType(TRIGGER_VENDOR_ID, TRIGGER_PRODUCT_ID);
     }
 
+    /**
+     * 查找已连接的UVC相机设备
+     * 直接通过UsbManager枚举，不依赖相机助手，可在后台线程提前获取设备ID
+     */
+    public static UsbDevice findCameraDevice(Context context) {
+        if (context == null) {
+            return null;
+        }
+
+        UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        if (usbManager == null || usbManager.getDeviceList() == null) {
+            return null;
+        }
+
+        for (UsbDevice device : usbManager.getDeviceList().values()) {
+            if (isCameraDevice(device)) {
+                Log.i(TAG, String.format("找到相机设备: %s [%04x:%04x]",
+                        device.getDeviceName(), device.getVendorId(), device.getProductId()));
+                return device;
+            }
+        }
+
+        Log.w(TAG, "未找到相机设备");
+        return null;
+    }
+
+    /**
+     * 查找所有已连接的UVC相机设备，按设备路径排序，保证多相机的编号在同一连接状态下稳定
+     */
+    public static List<UsbDevice> findCameraDevices(Context context) {
+        List<UsbDevice> cameras = new ArrayList<>();
+        if (context == null) {
+            return cameras;
+        }
+
+        UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        if (usbManager == null || usbManager.getDeviceList() == null) {
+            return cameras;
+        }
+
+        for (UsbDevice device : usbManager.getDeviceList().values()) {
+            if (isCameraDevice(device)) {
+                cameras.add(device);
+            }
+        }
+        Collections.sort(cameras, (a, b) -> a.getDeviceName().compareTo(b.getDeviceName()));
+        Log.i(TAG, "找到相机设备数量: " + cameras.size());
+        return cameras;
+    }
+
+    // 带视频类接口的设备即为UVC相机
+    private static boolean isCameraDevice(UsbDevice device) {
+        for (int i = 0; i < device.getInterfaceCount(); i++) {
+            if (device.getInterface(i).getInterfaceClass() == UsbConstants.USB_CLASS_VIDEO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 等待设备连接（带超时）
      */
@@ -0,0 +1,125 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraConfigTest {
+    private static CameraConfig sample() {
+        return new CameraConfig.Builder()
+                .setPreviewSize(new Size(UVCCamera.UVC_VS_FRAME_UNCOMPRESSED, 1280, 720, 15, null))
+                .setExposure(120)
+                .setGain(8)
+                .setTriggerPeriod(200)
+                .setSerial1("AA 01 \"x\"")
+                .setSerial2("line\\n")
+                .setAutoExposure(false)
+                .setColorMode(false)
+                .build();
+    }
+
+    @Test
+    public void toJson_roundTripsEveryField() throws Exception {
+        CameraConfig config = sample();
+
+        CameraConfig parsed = CameraConfig.fromJson(new JSONObject(config.toJson(1)));
+
+        assertEquals(config, parsed);
+        assertEquals(config.hashCode(), parsed.hashCode());
+    }
+
+    @Test
+    public void toJson_writesVersionAndLegacyFieldNames() throws Exception {
+        JSONObject json = new JSONObject(sample().toJson(1));
+
+        assertEquals(1, json.getInt("version"));
+        assertEquals(1280, json.getInt("width"));
+        assertEquals(200, json.getInt("triggerPeriod"));
+        // 布尔字段与旧版一样保存为0/1
+        assertEquals(0, json.getInt("isAutoExposure"));
+        assertEquals(0, json.getInt("isColorMode"));
+    }
+
+    @Test
+    public void fromJson_readsVersionZeroFile() throws Exception {
+        // 旧版 ConfigManager 写入的配置：没有 version 字段，布尔值为整数
+        String legacy = "{\"format\":4,\"width\":640,\"height\":480,\"fps\":30,"
+                + "\"exposure\":50,\"gain\":3,\"triggerPeriod\":100,"
+                + "\"serial1\":\"A1\",\"serial2\":\"\",\"isAutoExposure\":0,\"isColorMode\":1}";
+
+        CameraConfig config = CameraConfig.fromJson(new JSONObject(legacy));
+
+        assertEquals(4, config.getFormat());
+        assertEquals(640, config.getWidth());
+        assertEquals(480, config.getHeight());
+        assertEquals(30, config.getFps());
+        assertEquals(50, config.getExposure());
+        assertEquals(3, config.getGain());
+        assertEquals(100, config.getTriggerPeriod());
+        assertEquals("A1", config.getSerial1());
+        assertEquals("", config.getSerial2());
+        assertFalse(config.isAutoExposure());
+        assertTrue(config.isColorMode());
+    }
+
+    @Test
+    public void fromJson_missingFieldsUseDefaults() throws Exception {
+        CameraConfig config = CameraConfig.fromJson(new JSONObject("{\"width\":800}"));
+        CameraConfig defaults = new CameraConfig.Builder().build();
+
+        assertEquals(800, config.getWidth());
+        assertEquals(defaults.getFormat(), config.getFormat());
+        assertEquals(defaults.getHeight(), config.getHeight());
+        assertEquals(defaults.getFps(), config.getFps());
+        assertTrue(config.isAutoExposure());
+        assertTrue(config.isColorMode());
+        assertEquals("", config.getSerial1());
+        assertFalse(config.hasDistanceBands());
+    }
+
+    @Test
+    public void fromJson_ignoresUnknownFieldsOfNewerVersions() throws Exception {
+        String newer = "{\"version\":9,\"width\":320,\"height\":240,\"futureField\":{\"a\":1}}";
+
+        CameraConfig config = CameraConfig.fromJson(new JSONObject(newer));
+
+        assertEquals(320, config.getWidth());
+        assertEquals(240, config.getHeight());
+    }
+
+    @Test
+    public void toJson_roundTripsDistanceBands() throws Exception {
+        CameraConfig config = sample().toBuilder()
+                .setDistanceBands(new int[]{0, 49, 100, 4, 50, 99, 300, 0})
+                .setDistanceHysteresis(5)
+                .build();
+
+        CameraConfig parsed = CameraConfig.fromJson(new JSONObject(config.toJson(1)));
+
+        assertEquals(config, parsed);
+        assertArrayEquals(new int[]{0, 49, 100, 4, 50, 99, 300, 0}, parsed.getDistanceBands());
+        assertEquals(5, parsed.getDistanceHysteresis());
+    }
+
+    @Test
+    public void fromJson_skipsMalformedDistanceBands() throws Exception {
+        CameraConfig config = CameraConfig.fromJson(new JSONObject(
+                "{\"distanceBands\":[[0,49,100,4],[50,99],\"x\"]}"));
+
+        assertArrayEquals(new int[]{0, 49, 100, 4}, config.getDistanceBands());
+    }
+
+    @Test
+    public void toBuilder_copiesAndChangesOnlyTheGivenField() {
+        CameraConfig config = sample();
+
+        CameraConfig changed = config.toBuilder().setGain(9).build();
+
+        assertNotEquals(config, changed);
+        assertEquals(config, changed.toBuilder().setGain(8).build());
+    }
+}
@@ -0,0 +1,158 @@
+package com.stars.uvccam;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraControlsTest {
+    // 记录写入的设备，只支持曝光时间和增益
+    private static final class FakeDevice implements CameraControls.Device {
+        boolean auto = true;
+        int exposure = 100;
+        int gain = 2;
+        int saturation = 64;
+        int writes;
+
+        @Override
+        public void setExposureTimeAuto(boolean auto) {
+            this.auto = auto;
+            writes++;
+        }
+
+        @Override
+        public boolean isExposureTimeAuto() {
+            return auto;
+        }
+
+        @Override
+        public boolean isExposureTimeAbsoluteEnable() {
+            return true;
+        }
+
+        @Override
+        public void setExposureTimeAbsolute(int exposure) {
+            this.exposure = exposure;
+            writes++;
+        }
+
+        @Override
+        public int getExposureTimeAbsolute() {
+            return exposure;
+        }
+
+        @Override
+        public int[] updateExposureTimeAbsoluteLimit() {
+            return new int[]{1, 5000};
+        }
+
+        @Override
+        public boolean isGainEnable() {
+            return true;
+        }
+
+        @Override
+        public void setGain(int gain) {
+            this.gain = gain;
+            writes++;
+        }
+
+        @Override
+        public int getGain() {
+            return gain;
+        }
+
+        @Override
+        public int[] updateGainLimit() {
+            return new int[]{0, 100};
+        }
+
+        @Override
+        public boolean isHueAutoEnable() {
+            return false;
+        }
+
+        @Override
+        public void setHueAuto(boolean auto) {
+        }
+
+        @Override
+        public void setSaturation(int saturation) {
+            this.saturation = saturation;
+            writes++;
+        }
+
+        @Override
+        public void resetSaturation() {
+            saturation = 64;
+            writes++;
+        }
+
+        @Override
+        public int getSaturation() {
+            return saturation;
+        }
+    }
+
+    private FakeDevice mDevice;
+    private CameraControls mControls;
+
+    @Before
+    public void setUp() {
+        mDevice = new FakeDevice();
+        mControls = new CameraControls(mDevice);
+    }
+
+    private static CameraConfig manual(int exposure, int gain) {
+        return new CameraConfig.Builder()
+                .setAutoExposure(false)
+                .setExposure(exposure)
+                .setGain(gain)
+                .setColorMode(false)
+                .build();
+    }
+
+    @Test
+    public void apply_writesOnlyChangedValues() {
+        CameraConfig config = manual(300, 8);
+
+        assertEquals(4, mControls.apply(config));
+        assertFalse(mDevice.auto);
+        assertEquals(300, mDevice.exposure);
+        assertEquals(8, mDevice.gain);
+        assertEquals(0, mControls.apply(config));
+    }
+
+    @Test
+    public void apply_afterSoftwareLoopStartsLeavesCameraManual() {
+        // 软件自动曝光启动：切换为手动并接管曝光，之后循环写入新的曝光和增益
+        mControls.setAutoExposure(false);
+        mControls.setExposureManaged(true);
+        mControls.setExposure(700);
+        mControls.setGain(12);
+        int writes = mDevice.writes;
+
+        // 相机打开时提交的保存配置(默认硬件自动曝光)在循环启动后执行
+        mControls.apply(new CameraConfig.Builder().setColorMode(false).build());
+        mControls.apply(manual(300, 8));
+
+        assertFalse(mDevice.auto);
+        assertEquals(700, mDevice.exposure);
+        assertEquals(12, mDevice.gain);
+        // 颜色模式仍然应用
+        assertEquals(0, mDevice.saturation);
+        assertEquals(writes + 1, mDevice.writes);
+    }
+
+    @Test
+    public void apply_afterReleaseWritesExposureAgain() {
+        mControls.setAutoExposure(false);
+        mControls.setExposureManaged(true);
+        mControls.apply(new CameraConfig.Builder().build());
+
+        mControls.setExposureManaged(false);
+        mControls.apply(new CameraConfig.Builder().build());
+
+        assertTrue(mDevice.auto);
+    }
+}
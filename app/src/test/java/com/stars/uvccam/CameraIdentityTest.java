@@ -0,0 +1,121 @@
+package com.stars.uvccam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CameraIdentityTest {
+    private File mSysfs;
+
+    @Before
+    public void setUp() throws IOException {
+        mSysfs = Files.createTempDirectory("usb_devices").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mSysfs);
+    }
+
+    @Test
+    public void key_usesSerialWhenPresent() {
+        CameraIdentity identity = new CameraIdentity(0x1234, 0xabcd, "SN-01", "1-1.2", "/dev/bus/usb/001/004");
+
+        assertEquals("1234_abcd_sn_SN-01", identity.getKey());
+        assertTrue(identity.isUnit());
+        assertNull(identity.getPortPath());
+    }
+
+    @Test
+    public void key_usesPortPathWithoutSerial() {
+        CameraIdentity identity = new CameraIdentity(0x1234, 0xabcd, null, "1-1.2", "/dev/bus/usb/001/004");
+
+        assertEquals("1234_abcd_port_1-1.2", identity.getKey());
+        assertTrue(identity.isUnit());
+        assertFalse(identity.hasSerial());
+    }
+
+    @Test
+    public void key_fallsBackToModel() {
+        CameraIdentity identity = new CameraIdentity(0x1234, 0xabcd, null, null, "/dev/bus/usb/001/004");
+
+        assertEquals("1234_abcd", identity.getKey());
+        assertFalse(identity.isUnit());
+        assertEquals(CameraIdentity.ofModel(0x1234, 0xabcd), identity);
+    }
+
+    @Test
+    public void key_dropsUnsafeSerialCharacters() {
+        CameraIdentity identity = new CameraIdentity(0x1234, 0xabcd, "a/b c:\u0000", null, null);
+
+        assertEquals("1234_abcd_sn_abc", identity.getKey());
+    }
+
+    @Test
+    public void key_blankSerialUsesPortPath() {
+        CameraIdentity identity = new CameraIdentity(0x1234, 0xabcd, " / ", "2-3", null);
+
+        assertEquals("1234_abcd_port_2-3", identity.getKey());
+    }
+
+    @Test
+    public void toModel_sharesKeyAcrossUnits() {
+        CameraIdentity a = new CameraIdentity(0x1234, 0xabcd, null, "1-1.2", null);
+        CameraIdentity b = new CameraIdentity(0x1234, 0xabcd, "SN-02", null, null);
+
+        assertNotEquals(a, b);
+        assertEquals("1234_abcd", a.toModel().getKey());
+        assertEquals(a.toModel(), b.toModel());
+    }
+
+    @Test
+    public void findPortPath_matchesBusAndDeviceNumber() throws IOException {
+        addDevice("usb1", 1, 1);
+        addDevice("1-1", 1, 2);
+        addDevice("1-1.2", 1, 4);
+        addDevice("1-1.2:1.0", 1, 4);
+        addDevice("2-1", 2, 4);
+
+        assertEquals("1-1.2", CameraIdentity.findPortPath(mSysfs, "/dev/bus/usb/001/004"));
+        assertEquals("2-1", CameraIdentity.findPortPath(mSysfs, "/dev/bus/usb/002/004"));
+        assertNull(CameraIdentity.findPortPath(mSysfs, "/dev/bus/usb/001/009"));
+    }
+
+    @Test
+    public void findPortPath_unreadableOrMalformedReturnsNull() {
+        assertNull(CameraIdentity.findPortPath(new File(mSysfs, "missing"), "/dev/bus/usb/001/004"));
+        assertNull(CameraIdentity.findPortPath(mSysfs, null));
+        assertNull(CameraIdentity.findPortPath(mSysfs, "/dev/video0"));
+        assertNull(CameraIdentity.findPortPath(mSysfs, "/dev/bus/usb/x/4"));
+    }
+
+    private void addDevice(String name, int bus, int dev) throws IOException {
+        File dir = new File(mSysfs, name);
+        assertTrue(dir.mkdir());
+        write(new File(dir, "busnum"), bus + "\n");
+        write(new File(dir, "devnum"), dev + "\n");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,110 @@
+package com.stars.uvccam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class CompletionFutureTest {
+    @Test
+    public void complete_onlyFirstResultWins() throws Exception {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        assertTrue(future.complete("a"));
+        assertFalse(future.complete("b"));
+        assertFalse(future.completeExceptionally(new RuntimeException()));
+        assertFalse(future.cancel(false));
+
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals("a", future.get());
+        assertEquals("a", future.getNow("fallback"));
+        assertNull(future.getError());
+    }
+
+    @Test
+    public void completeExceptionally_reportsError() {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        IllegalStateException error = new IllegalStateException("x");
+        assertTrue(future.completeExceptionally(error));
+
+        assertSame(error, future.getError());
+        assertEquals("fallback", future.getNow("fallback"));
+        ExecutionException thrown = assertThrows(ExecutionException.class, future::get);
+        assertSame(error, thrown.getCause());
+    }
+
+    @Test
+    public void cancel_throwsCancellation() {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        assertTrue(future.cancel(true));
+
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertThrows(CancellationException.class, future::get);
+    }
+
+    @Test
+    public void getNow_beforeCompletionReturnsFallback() {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        assertFalse(future.isDone());
+        assertEquals("fallback", future.getNow("fallback"));
+    }
+
+    @Test
+    public void get_timesOutWhilePending() {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        assertThrows(TimeoutException.class, () -> future.get(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void get_wakesUpWhenCompletedFromAnotherThread() throws Exception {
+        CompletionFuture<Integer> future = new CompletionFuture<>();
+        Thread thread = new Thread(() -> future.complete(42));
+        thread.start();
+        assertEquals(Integer.valueOf(42), future.get(5, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void addListener_runsInOrderOnCompletion() {
+        CompletionFuture<Void> future = new CompletionFuture<>();
+        List<Integer> order = new ArrayList<>();
+        future.addListener(() -> order.add(1), Runnable::run);
+        future.addListener(() -> order.add(2), Runnable::run);
+        assertTrue(order.isEmpty());
+
+        future.complete(null);
+        assertEquals(2, order.size());
+        assertEquals(Integer.valueOf(1), order.get(0));
+        assertEquals(Integer.valueOf(2), order.get(1));
+    }
+
+    @Test
+    public void addListener_afterCompletionRunsImmediatelyOnExecutor() {
+        CompletionFuture<Void> future = CompletionFuture.completed(null);
+        List<Runnable> executed = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+        future.addListener(() -> calls.add("listener"), executed::add);
+
+        assertEquals(1, executed.size());
+        assertTrue(calls.isEmpty());
+        executed.get(0).run();
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void addListener_runsOnceEvenIfCompletedTwice() {
+        CompletionFuture<String> future = new CompletionFuture<>();
+        int[] count = new int[1];
+        future.addListener(() -> count[0]++, Runnable::run);
+        future.complete("a");
+        future.complete("b");
+        assertEquals(1, count[0]);
+    }
+}
@@ -0,0 +1,157 @@
+package com.stars.uvccam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DistanceExposurePresetsTest {
+    // 近 0-49cm，中 50-99cm，远 100-199cm，回差3cm
+    private static DistanceExposurePresets presets() {
+        return new DistanceExposurePresets.Builder()
+                .addBand(0, 49, 100, 4)
+                .addBand(50, 99, 300, 8)
+                .addBand(100, 199, 800, 0)
+                .build();
+    }
+
+    @Test
+    public void update_firstReadingSelectsItsBand() {
+        DistanceExposurePresets presets = presets();
+
+        assertEquals(1, presets.update(70));
+        assertEquals(1, presets.getCurrentBand());
+        assertEquals(300, presets.getExposure(1));
+        assertEquals(8, presets.getGain(1));
+    }
+
+    @Test
+    public void update_sameBandIsUnchanged() {
+        DistanceExposurePresets presets = presets();
+        presets.update(70);
+
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(75));
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(50));
+    }
+
+    @Test
+    public void update_rangeEndsAreInclusive() {
+        DistanceExposurePresets presets = presets();
+
+        assertEquals(0, presets.update(0));
+        presets = presets();
+        assertEquals(0, presets.update(49));
+        presets = presets();
+        assertEquals(1, presets.update(50));
+        presets = presets();
+        assertEquals(2, presets.update(199));
+    }
+
+    @Test
+    public void update_staysInBandWithinHysteresis() {
+        DistanceExposurePresets presets = presets();
+        presets.update(70);
+
+        // 越过边界但不超过回差时保持当前分段
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(47));
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(102));
+        assertEquals(1, presets.getCurrentBand());
+    }
+
+    @Test
+    public void update_leavesBandPastHysteresis() {
+        DistanceExposurePresets presets = presets();
+        presets.update(70);
+
+        assertEquals(0, presets.update(46));
+        // 回到中段同样要越过回差
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(52));
+        assertEquals(1, presets.update(53));
+        assertEquals(2, presets.update(103));
+    }
+
+    @Test
+    public void update_outsideEveryBandKeepsCurrent() {
+        DistanceExposurePresets presets = presets();
+        presets.update(150);
+
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(500));
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(-1));
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(DistanceExposurePresets.MAX_DISTANCE_CM + 1));
+        assertEquals(2, presets.getCurrentBand());
+    }
+
+    @Test
+    public void update_outsideEveryBandBeforeFirstMatchReturnsUnchanged() {
+        DistanceExposurePresets presets = presets();
+
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(500));
+        assertEquals(DistanceExposurePresets.NO_BAND, presets.getCurrentBand());
+    }
+
+    @Test
+    public void invalidate_reappliesCurrentBand() {
+        DistanceExposurePresets presets = presets();
+        presets.update(70);
+
+        presets.invalidate();
+
+        assertEquals(1, presets.update(72));
+        assertEquals(DistanceExposurePresets.UNCHANGED, presets.update(72));
+    }
+
+    @Test
+    public void invalidate_outsideEveryBandReappliesCurrent() {
+        DistanceExposurePresets presets = presets();
+        presets.update(70);
+
+        presets.invalidate();
+
+        assertEquals(1, presets.update(500));
+    }
+
+    @Test
+    public void zeroHysteresisSwitchesAtTheBoundary() {
+        DistanceExposurePresets presets = new DistanceExposurePresets.Builder()
+                .addBand(0, 49, 100, 0)
+                .addBand(50, 99, 300, 0)
+                .setHysteresis(0)
+                .build();
+        presets.update(49);
+
+        assertEquals(1, presets.update(50));
+        assertEquals(0, presets.update(49));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addBand_rejectsOverlap() {
+        new DistanceExposurePresets.Builder()
+                .addBand(0, 50, 100, 0)
+                .addBand(50, 99, 300, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addBand_rejectsOutOfRange() {
+        new DistanceExposurePresets.Builder().addBand(0, DistanceExposurePresets.MAX_DISTANCE_CM + 1, 100, 0);
+    }
+
+    @Test
+    public void fromConfig_buildsBandsAndHysteresis() {
+        CameraConfig config = new CameraConfig.Builder()
+                .setDistanceBands(new int[]{0, 49, 100, 4, 50, 99, 300, 8})
+                .setDistanceHysteresis(0)
+                .build();
+
+        DistanceExposurePresets presets = DistanceExposurePresets.fromConfig(config);
+
+        assertEquals(2, presets.getBandCount());
+        assertEquals(300, presets.getExposure(1));
+        presets.update(49);
+        assertEquals(1, presets.update(50));
+    }
+
+    @Test
+    public void fromConfig_withoutBandsReturnsNull() {
+        assertNull(DistanceExposurePresets.fromConfig(new CameraConfig.Builder().build()));
+        assertNull(DistanceExposurePresets.fromConfig(null));
+    }
+}
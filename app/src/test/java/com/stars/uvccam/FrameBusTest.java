@@ -0,0 +1,249 @@
+package com.stars.uvccam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameBusTest {
+    private static final long TIMEOUT_S = 5;
+
+    private FrameBus mBus;
+
+    @Before
+    public void setUp() {
+        mBus = new FrameBus("test");
+    }
+
+    @After
+    public void tearDown() {
+        mBus.close();
+    }
+
+    private void publish(int value) {
+        ByteBuffer source = ByteBuffer.allocate(16);
+        source.put(0, (byte) value);
+        mBus.publish(source, 4, 2, 0);
+    }
+
+    // 第一帧的回调停在 gate 上，之后发布的帧留在队列中，释放 gate 后按顺序处理
+    private static final class GatedConsumer implements FrameBus.Consumer {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done;
+
+        GatedConsumer(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onFrame(FrameBus.Frame frame) {
+            sequences.add(frame.getSequence());
+            entered.countDown();
+            try {
+                gate.await(TIMEOUT_S, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+
+        void release() throws InterruptedException {
+            gate.countDown();
+            assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void publish_withoutSubscribersDoesNothing() {
+        publish(1);
+
+        assertEquals(0, mBus.getPublished());
+    }
+
+    @Test
+    public void publish_sharesOneCopyWithEverySubscriber() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(2);
+        List<FrameBus.Frame> frames = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        FrameBus.Consumer consumer = frame -> {
+            frames.add(frame);
+            values.add((int) frame.getData().get(0));
+            delivered.countDown();
+        };
+        mBus.subscribe("a", 2, consumer);
+        mBus.subscribe("b", 2, consumer);
+
+        publish(7);
+
+        assertTrue(delivered.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertSame(frames.get(0), frames.get(1));
+        assertEquals(Integer.valueOf(7), values.get(0));
+        assertEquals(Integer.valueOf(7), values.get(1));
+        assertEquals(1, frames.get(0).getSequence());
+    }
+
+    @Test
+    public void release_returnsFrameToPoolAfterLastSubscriber() throws Exception {
+        Set<FrameBus.Frame> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Semaphore delivered = new Semaphore(0);
+        FrameBus.Consumer consumer = frame -> {
+            seen.add(frame);
+            delivered.release();
+        };
+        mBus.subscribe("a", 1, consumer);
+        mBus.subscribe("b", 1, consumer);
+
+        // 每帧送达两个订阅者后再发布下一帧：上上一帧此时已被两个订阅者释放并回收，
+        // 池中最多同时使用两个缓冲
+        for (int i = 1; i <= 10; i++) {
+            publish(i);
+            assertTrue(delivered.tryAcquire(2, TIMEOUT_S, TimeUnit.SECONDS));
+        }
+
+        assertEquals(10, mBus.getPublished());
+        assertTrue(seen.size() <= 2);
+    }
+
+    @Test
+    public void retain_keepsFrameOutOfPool() throws Exception {
+        List<FrameBus.Frame> frames = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(2);
+        mBus.subscribe("a", 2, frame -> {
+            if (frames.isEmpty()) {
+                frame.retain();
+            }
+            frames.add(frame);
+            delivered.countDown();
+        });
+
+        publish(1);
+        publish(2);
+
+        assertTrue(delivered.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertNotSame(frames.get(0), frames.get(1));
+        assertEquals(1, frames.get(0).getData().get(0));
+        frames.get(0).release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twiceThrows() throws Exception {
+        List<FrameBus.Frame> frames = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(2);
+        mBus.subscribe("a", 2, frame -> {
+            if (frames.isEmpty()) {
+                frame.retain();
+            }
+            frames.add(frame);
+            delivered.countDown();
+        });
+        publish(1);
+        // 第二帧送达时分发线程已释放第一帧的引用，只剩订阅者自己持有的一个
+        publish(2);
+        assertTrue(delivered.await(TIMEOUT_S, TimeUnit.SECONDS));
+
+        FrameBus.Frame held = frames.get(0);
+        held.release();
+        held.release();
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFrames() throws Exception {
+        GatedConsumer consumer = new GatedConsumer(3);
+        FrameBus.Subscription subscription = mBus.subscribe("a", 2, FrameBus.POLICY_DROP_OLDEST, consumer);
+
+        publish(1);
+        assertTrue(consumer.entered.await(TIMEOUT_S, TimeUnit.SECONDS));
+        publish(2);
+        publish(3);
+        publish(4);
+        assertEquals(2, subscription.getBacklog());
+        consumer.release();
+
+        assertEquals(Arrays.asList(1L, 3L, 4L), consumer.sequences);
+        assertEquals(1, subscription.getDropped());
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrames() throws Exception {
+        GatedConsumer consumer = new GatedConsumer(3);
+        FrameBus.Subscription subscription = mBus.subscribe("a", 2, FrameBus.POLICY_DROP_NEWEST, consumer);
+
+        publish(1);
+        assertTrue(consumer.entered.await(TIMEOUT_S, TimeUnit.SECONDS));
+        publish(2);
+        publish(3);
+        publish(4);
+        consumer.release();
+
+        // 队列满时缓冲池也已用完，新帧在拷贝前被丢弃
+        assertEquals(Arrays.asList(1L, 2L, 3L), consumer.sequences);
+        assertEquals(3, mBus.getPublished());
+        assertEquals(0, subscription.getBacklog());
+    }
+
+    @Test
+    public void block_dropsWholeFrameWithoutWaiting() throws Exception {
+        GatedConsumer blocking = new GatedConsumer(2);
+        mBus.subscribe("block", 1, FrameBus.POLICY_BLOCK, blocking);
+        List<Long> other = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch otherDone = new CountDownLatch(2);
+        mBus.subscribe("other", 4, frame -> {
+            other.add(frame.getSequence());
+            otherDone.countDown();
+        });
+
+        publish(1);
+        assertTrue(blocking.entered.await(TIMEOUT_S, TimeUnit.SECONDS));
+        publish(2);
+        // 队列已满：生产者立即返回，整帧丢弃，不分配序号
+        publish(3);
+        assertEquals(2, mBus.getPublished());
+        blocking.release();
+
+        assertTrue(otherDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L, 2L), blocking.sequences);
+        assertEquals(Arrays.asList(1L, 2L), other);
+    }
+
+    @Test
+    public void close_unsubscribesAndNotifies() throws Exception {
+        AtomicInteger changes = new AtomicInteger();
+        mBus.setOnSubscribersChangedListener(changes::incrementAndGet);
+        FrameBus.Subscription subscription = mBus.subscribe("a", 1, frame -> { });
+        assertTrue(mBus.hasSubscribers());
+
+        subscription.close();
+
+        assertFalse(mBus.hasSubscribers());
+        assertEquals(2, changes.get());
+        publish(1);
+        assertEquals(0, mBus.getPublished());
+    }
+
+    @Test
+    public void closeBus_doesNotNotifyListener() {
+        AtomicInteger changes = new AtomicInteger();
+        mBus.subscribe("a", 1, frame -> { });
+        mBus.setOnSubscribersChangedListener(changes::incrementAndGet);
+
+        mBus.close();
+
+        assertFalse(mBus.hasSubscribers());
+        assertEquals(0, changes.get());
+    }
+}
@@ -0,0 +1,74 @@
+package com.stars.uvccam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMemoryManagerTest {
+    private static final long BUDGET = 1000;
+
+    private long mSavedBudget;
+    private FrameMemoryManager.Pool mPool;
+
+    @Before
+    public void setUp() {
+        mSavedBudget = FrameMemoryManager.getBudget();
+        FrameMemoryManager.setBudget(BUDGET);
+        mPool = FrameMemoryManager.register("test", null);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+        FrameMemoryManager.setBudget(mSavedBudget);
+    }
+
+    @Test
+    public void reserve_entersPressureAtHighWatermark() {
+        assertTrue(mPool.reserve(799));
+        assertFalse(FrameMemoryManager.isUnderPressure());
+
+        assertTrue(mPool.reserve(1));
+
+        assertTrue(FrameMemoryManager.isUnderPressure());
+    }
+
+    @Test
+    public void free_leavesPressureOnlyBelowLowWatermark() {
+        mPool.reserve(850);
+        assertTrue(FrameMemoryManager.isUnderPressure());
+
+        // 高低水位之间保持紧张状态
+        mPool.free(100);
+        assertTrue(FrameMemoryManager.isUnderPressure());
+        mPool.free(50);
+        assertTrue(FrameMemoryManager.isUnderPressure());
+
+        mPool.free(1);
+        assertFalse(FrameMemoryManager.isUnderPressure());
+
+        // 恢复后要再次达到高水位才进入紧张状态
+        mPool.reserve(50);
+        assertFalse(FrameMemoryManager.isUnderPressure());
+    }
+
+    @Test
+    public void reserve_overBudgetIsDenied() {
+        assertTrue(mPool.reserve(BUDGET));
+
+        assertFalse(mPool.reserve(1));
+        assertEquals(BUDGET, mPool.getUsed());
+    }
+
+    @Test
+    public void close_returnsUsageAndRejectsReservations() {
+        mPool.reserve(900);
+
+        mPool.close();
+
+        assertFalse(FrameMemoryManager.isUnderPressure());
+        assertFalse(mPool.reserve(1));
+    }
+}
@@ -0,0 +1,97 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ModeFallbackLadderTest {
+    private static final int MJPEG = UVCCamera.UVC_VS_FRAME_MJPEG;
+    private static final int YUV = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
+
+    private static long mode(int format, int width, int height, int fps) {
+        return CameraCapabilities.mode(format, width, height, fps);
+    }
+
+    private static final CameraCapabilities CAPABILITIES = CameraCapabilities.of(
+            mode(MJPEG, 1920, 1080, 30),
+            mode(MJPEG, 640, 480, 30),
+            mode(YUV, 640, 480, 30),
+            mode(MJPEG, 1280, 720, 15),
+            mode(YUV, 1280, 720, 10),
+            mode(YUV, 1280, 720, 30),
+            mode(MJPEG, 1280, 720, 30),
+            mode(YUV, 1280, 720, 15));
+
+    @Test
+    public void build_stepsDownFpsThenFormatThenResolution() {
+        long[] ladder = ModeFallbackLadder.build(CAPABILITIES, new Size(YUV, 1280, 720, 30, null));
+
+        assertArrayEquals(new long[]{
+                mode(YUV, 1280, 720, 15),
+                mode(YUV, 1280, 720, 10),
+                mode(MJPEG, 1280, 720, 30),
+                mode(MJPEG, 1280, 720, 15),
+                mode(MJPEG, 640, 480, 30),
+                mode(YUV, 640, 480, 30),
+        }, ladder);
+    }
+
+    @Test
+    public void build_neverIncludesTheFailedModeOrLargerResolutions() {
+        long failed = mode(MJPEG, 1280, 720, 30);
+        long[] ladder = ModeFallbackLadder.build(CAPABILITIES, CameraCapabilities.toSize(failed));
+
+        for (long candidate : ladder) {
+            assertNotEquals(failed, candidate);
+            assertTrue((long) CameraCapabilities.widthOf(candidate) * CameraCapabilities.heightOf(candidate)
+                    <= 1280L * 720);
+        }
+    }
+
+    @Test
+    public void build_fromMjpegSkipsYuvAtTheSameResolution() {
+        long[] ladder = ModeFallbackLadder.build(CAPABILITIES, new Size(MJPEG, 1280, 720, 30, null));
+
+        assertArrayEquals(new long[]{
+                mode(MJPEG, 1280, 720, 15),
+                mode(MJPEG, 640, 480, 30),
+                mode(YUV, 640, 480, 30),
+        }, ladder);
+    }
+
+    @Test
+    public void build_isLimitedToMaxSteps() {
+        long[] modes = new long[20];
+        for (int i = 0; i < modes.length; i++) {
+            modes[i] = mode(MJPEG, 1920, 1080, 60 - i);
+        }
+        long[] ladder = ModeFallbackLadder.build(CameraCapabilities.of(modes), new Size(MJPEG, 1920, 1080, 60, null));
+
+        assertEquals(ModeFallbackLadder.MAX_STEPS, ladder.length);
+        assertEquals(mode(MJPEG, 1920, 1080, 59), ladder[0]);
+    }
+
+    @Test
+    public void build_lowestModeHasNoCandidates() {
+        long[] ladder = ModeFallbackLadder.build(CAPABILITIES, new Size(MJPEG, 640, 480, 30, null));
+        assertEquals(0, ladder.length);
+    }
+
+    @Test
+    public void outcome_recordAndClear() {
+        long failed = mode(YUV, 1280, 720, 30);
+        long working = mode(MJPEG, 1280, 720, 30);
+        assertEquals(-1, ModeFallbackLadder.getWorkingMode(null, 0x1234, 0x0001, failed));
+
+        ModeFallbackLadder.recordOutcome(null, 0x1234, 0x0001, failed, working);
+        assertEquals(working, ModeFallbackLadder.getWorkingMode(null, 0x1234, 0x0001, failed));
+        // 记录按设备区分
+        assertEquals(-1, ModeFallbackLadder.getWorkingMode(null, 0x1234, 0x0002, failed));
+
+        ModeFallbackLadder.clearOutcome(null, 0x1234, 0x0001, failed);
+        assertEquals(-1, ModeFallbackLadder.getWorkingMode(null, 0x1234, 0x0001, failed));
+    }
+}
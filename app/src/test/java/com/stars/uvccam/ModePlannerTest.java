@@ -0,0 +1,142 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ModePlannerTest {
+    private static final int MJPEG = UVCCamera.UVC_VS_FRAME_MJPEG;
+    private static final int YUV = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
+
+    private static long mode(int format, int width, int height, int fps) {
+        return CameraCapabilities.mode(format, width, height, fps);
+    }
+
+    private static void assertMode(long expected, Size actual) {
+        assertNotNull(actual);
+        assertEquals(expected, CameraCapabilities.mode(actual));
+    }
+
+    @Test
+    public void estimateBandwidth_isUncompressedBytesPerSecond() {
+        assertEquals(640L * 480 * 2 * 30, ModePlanner.estimateBandwidth(YUV, 640, 480, 30));
+        // MJPEG 按解码后的数据量估算，不假设压缩比
+        assertEquals(1920L * 1080 * 2 * 30, ModePlanner.estimateBandwidth(MJPEG, 1920, 1080, 30));
+    }
+
+    @Test
+    public void defaultBudget_keepsAllMjpegModes() {
+        ModePlanner planner = new ModePlanner();
+        assertTrue(planner.fits(new Size(MJPEG, 1920, 1080, 30, null)));
+        assertTrue(planner.fits(new Size(MJPEG, 3840, 2160, 30, null)));
+        assertTrue(planner.fits(new Size(MJPEG, 1280, 720, 60, null)));
+    }
+
+    @Test
+    public void defaultBudget_limitsYuvToTheBus() {
+        ModePlanner planner = new ModePlanner();
+        assertTrue(planner.fits(new Size(YUV, 640, 480, 30, null)));
+        assertTrue(planner.fits(new Size(YUV, 1280, 720, 10, null)));
+        assertFalse(planner.fits(new Size(YUV, 1280, 720, 30, null)));
+        assertFalse(planner.fits(new Size(YUV, 1920, 1080, 30, null)));
+    }
+
+    @Test
+    public void fits_budgetBoundaryIsInclusive() {
+        long bytes = ModePlanner.estimateBandwidth(YUV, 640, 480, 30);
+        assertTrue(new ModePlanner(bytes, bytes).fits(new Size(YUV, 640, 480, 30, null)));
+        assertFalse(new ModePlanner(bytes - 1, bytes).fits(new Size(YUV, 640, 480, 30, null)));
+    }
+
+    @Test
+    public void fits_usesTheBudgetOfTheFormat() {
+        ModePlanner planner = new ModePlanner(Long.MAX_VALUE, 0);
+        assertTrue(planner.fits(new Size(YUV, 1920, 1080, 30, null)));
+        assertFalse(planner.fits(new Size(MJPEG, 640, 480, 30, null)));
+    }
+
+    @Test
+    public void isCheaper_mjpegBeatsYuvAtTheSameMode() {
+        long yuv = mode(YUV, 1280, 720, 10);
+        long mjpeg = mode(MJPEG, 1280, 720, 10);
+        assertTrue(ModePlanner.isCheaper(mjpeg, yuv));
+        assertFalse(ModePlanner.isCheaper(yuv, mjpeg));
+        assertFalse(ModePlanner.isCheaper(yuv, yuv));
+        assertTrue(ModePlanner.isCheaper(mode(YUV, 1280, 720, 5), yuv));
+    }
+
+    @Test
+    public void planMaxFps_picksHighestFpsAboveMinimumResolution() {
+        CameraCapabilities capabilities = CameraCapabilities.of(
+                mode(MJPEG, 640, 480, 60),
+                mode(MJPEG, 1280, 720, 30),
+                mode(MJPEG, 1920, 1080, 30),
+                mode(YUV, 1280, 720, 10));
+
+        // 640x480 不满足最低分辨率；30fps 中选分辨率最接近下限的
+        assertMode(mode(MJPEG, 1280, 720, 30),
+                new ModePlanner().planMaxFps(capabilities, 1280, 720));
+    }
+
+    @Test
+    public void planMaxFps_skipsOverBudgetYuv() {
+        CameraCapabilities capabilities = CameraCapabilities.of(
+                mode(YUV, 1280, 720, 30),
+                mode(MJPEG, 1280, 720, 30),
+                mode(YUV, 1280, 720, 10));
+
+        assertMode(mode(MJPEG, 1280, 720, 30), new ModePlanner().planMaxFps(capabilities, 1280, 720));
+        // 不限制预算时，同模式 MJPEG 的总线占用更低
+        assertMode(mode(MJPEG, 1280, 720, 30),
+                new ModePlanner(Long.MAX_VALUE, Long.MAX_VALUE).planMaxFps(capabilities, 1280, 720));
+    }
+
+    @Test
+    public void planMaxResolution_picksLargestModeAtMinimumFps() {
+        CameraCapabilities capabilities = CameraCapabilities.of(
+                mode(MJPEG, 1920, 1080, 15),
+                mode(MJPEG, 1280, 720, 30),
+                mode(YUV, 1920, 1080, 30),
+                mode(MJPEG, 1280, 720, 60));
+
+        assertMode(mode(MJPEG, 1280, 720, 60), new ModePlanner().planMaxResolution(capabilities, 30));
+        assertMode(mode(MJPEG, 1920, 1080, 15), new ModePlanner().planMaxResolution(capabilities, 15));
+    }
+
+    @Test
+    public void resolver_keepsSupportedModesRegardlessOfBudget() {
+        CameraCapabilities capabilities = CameraCapabilities.of(
+                mode(MJPEG, 1920, 1080, 30),
+                mode(YUV, 1920, 1080, 30),
+                mode(MJPEG, 640, 480, 30));
+        ModeResolver resolver = new ModeResolver(capabilities, new ModePlanner(1, 1));
+
+        // 相机支持的已保存模式即使超出预算也原样使用
+        for (long supported : capabilities.getModes()) {
+            Size target = CameraCapabilities.toSize(supported);
+            assertSame(target, resolver.resolve(target));
+        }
+    }
+
+    @Test
+    public void resolver_appliesBudgetWhenChoosingAReplacement() {
+        CameraCapabilities capabilities = CameraCapabilities.of(
+                mode(YUV, 1920, 1080, 30),
+                mode(YUV, 640, 480, 30));
+        Size target = new Size(YUV, 1920, 1080, 25, null);
+
+        assertMode(mode(YUV, 1920, 1080, 30), new ModeResolver(capabilities).resolve(target));
+        assertMode(mode(YUV, 640, 480, 30), new ModeResolver(capabilities, new ModePlanner()).resolve(target));
+    }
+
+    @Test
+    public void plan_returnsNullWhenNothingQualifies() {
+        CameraCapabilities capabilities = CameraCapabilities.of(mode(YUV, 1920, 1080, 30));
+        assertNull(new ModePlanner().planMaxFps(capabilities, 640, 480));
+        assertNull(new ModePlanner().planMaxResolution(capabilities, 60));
+        assertNull(new ModePlanner().planMaxFps(CameraCapabilities.of(), 0, 0));
+    }
+}
@@ -0,0 +1,92 @@
+package com.stars.uvccam;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ModeResolverTest {
+    private static final int MJPEG = UVCCamera.UVC_VS_FRAME_MJPEG;
+    private static final int YUV = UVCCamera.UVC_VS_FRAME_UNCOMPRESSED;
+
+    private static long mode(int format, int width, int height, int fps) {
+        return CameraCapabilities.mode(format, width, height, fps);
+    }
+
+    private static Size resolve(CameraCapabilities capabilities, int format, int width, int height, int fps) {
+        return new ModeResolver(capabilities).resolve(new Size(format, width, height, fps, null));
+    }
+
+    private static void assertMode(long expected, Size actual) {
+        assertNotNull(actual);
+        assertEquals(expected, CameraCapabilities.mode(actual));
+    }
+
+    private static final CameraCapabilities CAPABILITIES = CameraCapabilities.of(
+            // 描述符顺序：第一组是低分辨率，旧版会退回到这一组
+            mode(MJPEG, 320, 240, 15),
+            mode(MJPEG, 640, 480, 30),
+            mode(MJPEG, 1280, 720, 15),
+            mode(MJPEG, 1280, 720, 30),
+            mode(MJPEG, 1920, 1080, 30),
+            mode(MJPEG, 1280, 1024, 30),
+            mode(YUV, 640, 480, 30),
+            mode(YUV, 1280, 720, 10));
+
+    @Test
+    public void resolve_supportedTargetIsReturnedUnchanged() {
+        Size target = new Size(MJPEG, 1280, 720, 15, null);
+        assertSame(target, new ModeResolver(CAPABILITIES).resolve(target));
+    }
+
+    @Test
+    public void resolve_unsupportedFpsPicksNearestRatePreferringHigher() {
+        // 25fps 介于15和30之间，低于目标的代价加倍，选30
+        assertMode(mode(MJPEG, 1280, 720, 30), resolve(CAPABILITIES, MJPEG, 1280, 720, 25));
+        // 20fps 距离15为 log(4/3)×2，距离30为 log(1.5)，仍选30
+        assertMode(mode(MJPEG, 1280, 720, 30), resolve(CAPABILITIES, MJPEG, 1280, 720, 20));
+        // 16fps 非常接近15，选15
+        assertMode(mode(MJPEG, 1280, 720, 15), resolve(CAPABILITIES, MJPEG, 1280, 720, 16));
+    }
+
+    @Test
+    public void resolve_unsupportedResolutionPicksNearestSameAspect() {
+        // 1600x900 介于720p和1080p之间，1280x1024 像素数接近但宽高比不同
+        assertMode(mode(MJPEG, 1920, 1080, 30), resolve(CAPABILITIES, MJPEG, 1600, 900, 30));
+    }
+
+    @Test
+    public void resolve_aboveLargestResolutionPicksLargest() {
+        assertMode(mode(MJPEG, 1920, 1080, 30), resolve(CAPABILITIES, MJPEG, 3840, 2160, 30));
+    }
+
+    @Test
+    public void resolve_belowSmallestResolutionPicksSmallest() {
+        assertMode(mode(MJPEG, 320, 240, 15), resolve(CAPABILITIES, MJPEG, 160, 120, 15));
+    }
+
+    @Test
+    public void resolve_prefersTheSameFormat() {
+        assertMode(mode(YUV, 640, 480, 30), resolve(CAPABILITIES, YUV, 640, 480, 25));
+    }
+
+    @Test
+    public void resolve_switchesFormatWhenTheTargetFormatIsMissing() {
+        CameraCapabilities mjpegOnly = CameraCapabilities.of(
+                mode(MJPEG, 640, 480, 30),
+                mode(MJPEG, 1280, 720, 30));
+        assertMode(mode(MJPEG, 1280, 720, 30), resolve(mjpegOnly, YUV, 1280, 720, 30));
+    }
+
+    @Test
+    public void resolve_doesNotFallBackToTheFirstDescriptor() {
+        assertMode(mode(MJPEG, 1920, 1080, 30), resolve(CAPABILITIES, MJPEG, 1920, 1080, 60));
+    }
+
+    @Test
+    public void resolve_withoutModesReturnsNull() {
+        assertNull(resolve(CameraCapabilities.of(), MJPEG, 640, 480, 30));
+    }
+}